@@ -1,11 +1,23 @@
 package bearmaps;
 
+import bearmaps.utils.cache.LRUCache;
+import bearmaps.utils.graph.LandmarkIndex;
+import bearmaps.utils.graph.ch.ContractionHierarchy;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.graph.streetmap.RoutingProfile;
 import bearmaps.utils.graph.streetmap.StreetMapGraph;
 import bearmaps.utils.graph.streetmap.Node;
-import bearmaps.utils.trie.MyTrieSet;
+import bearmaps.utils.search.LocationSearch;
+import bearmaps.utils.trie.TernarySearchTree;
 import java.util.*;
 import bearmaps.utils.ps.Point;
-import bearmaps.utils.ps.WeirdPointSet;
+import bearmaps.utils.ps.KDTreePointSet;
+import bearmaps.utils.metrics.Metrics;
+
+import static bearmaps.utils.Constants.AUTOCOMPLETE_CACHE_ENTRIES;
+import static bearmaps.utils.Constants.AUTOCOMPLETE_TOP_K;
+import static bearmaps.utils.Constants.ROUTE_CACHE_NODES;
+import static bearmaps.utils.Constants.SEARCH_BIAS_MILES;
 
 /**
  * An augmented graph that is more powerful that a standard StreetMapGraph.
@@ -15,43 +27,74 @@ import bearmaps.utils.ps.WeirdPointSet;
  * @author Alan Yao, Josh Hug, ________
  */
 public class AugmentedStreetMapGraph extends StreetMapGraph {
+    /** Number of ALT landmarks; 16 is the usual sweet spot for city-sized graphs. */
+    private static final int NUM_LANDMARKS = 16;
+
+    private final String dbPath;
+    private final Map<RoutingProfile, LandmarkIndex> landmarks =
+            new EnumMap<>(RoutingProfile.class);
+    private final Map<RoutingProfile, ContractionHierarchy> hierarchies =
+            new EnumMap<>(RoutingProfile.class);
+    /**
+     * Solved routes keyed by Router.routeKey of their snapped endpoints, weighed
+     * by node count. Reported as "route.cache".
+     */
+    private final LRUCache<Long, RouteResult> routeCache =
+            new LRUCache<>(ROUTE_CACHE_NODES, r -> r.size() + 1);
 
-    private HashMap<Point, Node> pointToNode;
     private List<Node> allNodes;
     private List<Node> nodesWithNeighbors;
-    private List<Point> points;
-    private MyTrieSet locationNameTrie;
+    /** Spatial index over nodesWithNeighbors, built once and shared by all requests. */
+    private KDTreePointSet pointSet;
+    /** Node ids parallel to the points indexed by pointSet. */
+    private long[] pointIds;
     private Map<String, List<Node>> cleanNameToNode;
+    /**
+     * Cleaned location names ranked by popularity (how many nodes carry the
+     * name), then by length, with the best AUTOCOMPLETE_TOP_K completions of
+     * every prefix precomputed.
+     */
+    private TernarySearchTree locationNameIndex;
+    /** The distinct full names of each key of locationNameIndex, by rank. */
+    private String[][] fullNamesByRank;
+    /** Token and typo tolerant search over the same ranked names. */
+    private LocationSearch locationSearch;
+    /** Recent autocomplete results, keyed by cleaned prefix and limit. */
+    private final LRUCache<String, List<String>> prefixCache =
+            new LRUCache<>(AUTOCOMPLETE_CACHE_ENTRIES);
 
     public AugmentedStreetMapGraph(String dbPath) {
         super(dbPath);
+        this.dbPath = dbPath;
+        Metrics.cache("route.cache", routeCache);
         allNodes = this.getNodes();
         nodesWithNeighbors = new ArrayList<>();
-        for (Node n : allNodes) {
-            if (neighbors(n.id()).size() != 0) {
-                nodesWithNeighbors.add(n);
+        for (int v = 0; v < allNodes.size(); v++) {
+            if (compact().degree(v) != 0) {
+                nodesWithNeighbors.add(allNodes.get(v));
             }
         }
-        points = new LinkedList<>();
-        pointToNode = new HashMap<>();
-        locationNameTrie = new MyTrieSet();
-        for (Node node : nodesWithNeighbors) {
-            Point point = new Point(node.lon(), node.lat());
-            points.add(point);
-            pointToNode.put(point, node);
+        List<Point> points = new ArrayList<>(nodesWithNeighbors.size());
+        pointIds = new long[nodesWithNeighbors.size()];
+        for (int i = 0; i < nodesWithNeighbors.size(); i++) {
+            Node node = nodesWithNeighbors.get(i);
+            points.add(new Point(node.lon(), node.lat()));
+            pointIds[i] = node.id();
         }
+        pointSet = new KDTreePointSet(points);
 
         cleanNameToNode = new HashMap<>();
         for (Node node : allNodes) {
             if (node.name() != null) {
                 String cleanedName = cleanString(node.name());
-                locationNameTrie.add(cleanedName);
                 if (!cleanNameToNode.containsKey(cleanedName)) {
                     cleanNameToNode.put(cleanedName, new LinkedList<>());
                 }
                 cleanNameToNode.get(cleanedName).add(node);
             }
         }
+        buildLocationNameIndex();
+        Metrics.cache("search.prefix", prefixCache);
 
     }
 
@@ -63,32 +106,209 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
      * @return The id of the node in the graph closest to the target.
      */
     public long closest(double lon, double lat) {
-        WeirdPointSet pointSet = new WeirdPointSet(points);
-        Point closestPoint = pointSet.nearest(lon, lat);
-        Node closestNode = pointToNode.get(closestPoint);
-        return closestNode.id();
+        int i = pointSet.nearestIndex(lon, lat);
+        if (i < 0) {
+            throw new NoSuchElementException("Graph has no nodes with neighbors.");
+        }
+        return pointIds[i];
+    }
+
+    /**
+     * Returns the ids of up to K vertices closest to the given longitude and latitude,
+     * nearest first.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The maximum number of ids to return.
+     */
+    public long[] kClosest(double lon, double lat, int k) {
+        return toIds(pointSet.kNearestIndices(lon, lat, k));
+    }
+
+    /**
+     * Returns the ids of all vertices within RADIUS miles of the given longitude
+     * and latitude, in no particular order.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param radius The search radius in miles.
+     */
+    public long[] withinRadius(double lon, double lat, double radius) {
+        return toIds(pointSet.withinRadiusIndices(lon, lat, radius));
+    }
+
+    private long[] toIds(int[] indices) {
+        long[] ids = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            ids[i] = pointIds[indices[i]];
+        }
+        return ids;
+    }
+
+
+    /**
+     * Returns the ALT landmark index for this graph. It is loaded from the
+     * ".landmarks" file next to the OSM file if that is up to date, and
+     * otherwise computed (one Dijkstra per landmark) and written there.
+     */
+    public LandmarkIndex landmarks() {
+        return landmarks(RoutingProfile.SHORTEST);
+    }
+
+    /**
+     * Returns the ALT landmark index for this graph weighed for PROFILE, kept
+     * as landmarks() is, in a file named with the profile's file suffix.
+     */
+    public synchronized LandmarkIndex landmarks(RoutingProfile profile) {
+        LandmarkIndex index = landmarks.get(profile);
+        if (index == null) {
+            CompactStreetMapGraph g = compact().forProfile(profile);
+            index = LandmarkIndex.loadOrBuild(g, g.fingerprint(),
+                    dbPath + profile.fileSuffix() + ".landmarks", dbPath, NUM_LANDMARKS);
+            landmarks.put(profile, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the contraction hierarchy for this graph. It is loaded from the
+     * ".ch" file next to the OSM file if that is up to date (see
+     * bearmaps.utils.graph.ch.PrecomputeHierarchy), and otherwise contracted
+     * here and written there.
+     */
+    public ContractionHierarchy hierarchy() {
+        return hierarchy(RoutingProfile.SHORTEST);
     }
 
+    /**
+     * Returns the contraction hierarchy for this graph weighed for PROFILE,
+     * kept as hierarchy() is, in a file named with the profile's file suffix.
+     */
+    public synchronized ContractionHierarchy hierarchy(RoutingProfile profile) {
+        ContractionHierarchy ch = hierarchies.get(profile);
+        if (ch == null) {
+            CompactStreetMapGraph g = compact().forProfile(profile);
+            ch = ContractionHierarchy.loadOrBuild(g, g.fingerprint(),
+                    dbPath + profile.fileSuffix() + ContractionHierarchy.FILE_SUFFIX, dbPath);
+            hierarchies.put(profile, ch);
+        }
+        return ch;
+    }
+
+    /** Returns the cache of solved routes between snapped endpoints; see Router.route. */
+    public LRUCache<Long, RouteResult> routeCache() {
+        return routeCache;
+    }
+
+    /** Returns the cache of autocomplete results; see getLocationsByPrefix. */
+    public LRUCache<String, List<String>> prefixCache() {
+        return prefixCache;
+    }
 
     /**
      * For Project Part III (extra credit)
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Collect the names of the most popular OSM locations that prefix-match the query string.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
-     * @return A <code>List</code> of the full names of locations whose cleaned name matches the
-     * cleaned <code>prefix</code>.
+     * @return A <code>List</code> of up to Constants.AUTOCOMPLETE_TOP_K full names of locations
+     * whose cleaned name matches the cleaned <code>prefix</code>.
      */
     public List<String> getLocationsByPrefix(String prefix) {
-        List<String> matchingCleanedNames = locationNameTrie.keysWithPrefix(cleanString(prefix));
-        List<String> matchingFullLocationNames = new LinkedList<>();
-        for (String matchingCleanedName : matchingCleanedNames) {
-            List<Node> l = cleanNameToNode.get(matchingCleanedName);
-            for (int i = 0; i < l.size(); i++) {
-                Node node = l.get(i);
-                matchingFullLocationNames.add(node.name());
+        return getLocationsByPrefix(prefix, AUTOCOMPLETE_TOP_K);
+    }
+
+    /**
+     * Returns the distinct full names of up to LIMIT locations whose cleaned
+     * name starts with the cleaned PREFIX, most popular first. Takes time
+     * proportional to the prefix length and LIMIT, however many names match;
+     * LIMIT is capped at Constants.AUTOCOMPLETE_TOP_K.
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     * @param limit The most names to return.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int limit) {
+        String cleanedPrefix = cleanString(prefix);
+        int k = Math.min(limit, AUTOCOMPLETE_TOP_K);
+        return prefixCache.getOrLoad(cleanedPrefix + "\0" + k, key -> {
+            List<String> names = new ArrayList<>(k);
+            for (int rank : locationNameIndex.topCompletions(cleanedPrefix, k)) {
+                for (String name : fullNamesByRank[rank]) {
+                    if (names.size() == k) {
+                        return Collections.unmodifiableList(names);
+                    }
+                    names.add(name);
+                }
+            }
+            return Collections.unmodifiableList(names);
+        });
+    }
+
+    /**
+     * Returns the distinct full names of up to LIMIT locations whose names
+     * contain every word of QUERY, in any order, each word allowing a typo or
+     * two and the last one matched as a prefix, best first. If LON and LAT are
+     * not NaN, locations within Constants.SEARCH_BIAS_MILES of them rank
+     * higher. LIMIT is capped at Constants.AUTOCOMPLETE_TOP_K.
+     * @param query Words to be searched for. Could be any case, with or without
+     *              punctuation.
+     */
+    public List<String> searchLocations(String query, int limit, double lon, double lat) {
+        int k = Math.min(limit, AUTOCOMPLETE_TOP_K);
+        List<String> names = new ArrayList<>(k);
+        for (int rank : locationSearch.search(cleanString(query), k, lon, lat,
+                SEARCH_BIAS_MILES)) {
+            for (String name : fullNamesByRank[rank]) {
+                if (names.size() == k) {
+                    return names;
+                }
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /* Ranks the cleaned names and builds locationNameIndex and fullNamesByRank. */
+    private void buildLocationNameIndex() {
+        List<String> ranked = new ArrayList<>();
+        for (String cleanedName : cleanNameToNode.keySet()) {
+            if (!cleanedName.isEmpty()) {
+                ranked.add(cleanedName);
+            }
+        }
+        ranked.sort((a, b) -> {
+            int byPopularity = cleanNameToNode.get(b).size() - cleanNameToNode.get(a).size();
+            if (byPopularity != 0) {
+                return byPopularity;
+            }
+            return a.length() != b.length() ? a.length() - b.length() : a.compareTo(b);
+        });
+        fullNamesByRank = new String[ranked.size()][];
+        for (int i = 0; i < ranked.size(); i++) {
+            Set<String> fullNames = new LinkedHashSet<>();
+            for (Node node : cleanNameToNode.get(ranked.get(i))) {
+                fullNames.add(node.name());
+            }
+            fullNamesByRank[i] = fullNames.toArray(new String[0]);
+        }
+        locationNameIndex = new TernarySearchTree(ranked.toArray(new String[0]),
+                AUTOCOMPLETE_TOP_K);
+
+        int numPlaces = 0;
+        for (String cleanedName : ranked) {
+            numPlaces += cleanNameToNode.get(cleanedName).size();
+        }
+        double[] lons = new double[numPlaces];
+        double[] lats = new double[numPlaces];
+        int[] placeNames = new int[numPlaces];
+        int place = 0;
+        for (int i = 0; i < ranked.size(); i++) {
+            for (Node node : cleanNameToNode.get(ranked.get(i))) {
+                lons[place] = node.lon();
+                lats[place] = node.lat();
+                placeNames[place] = i;
+                place++;
             }
         }
-        return matchingFullLocationNames;
+        locationSearch = new LocationSearch(ranked.toArray(new String[0]), lons, lats,
+                placeNames);
     }
 
     /**
@@ -2,6 +2,7 @@ package bearmaps;
 
 import bearmaps.server.handler.APIRouteHandler;
 import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.RoutingProfile;
 
 import java.util.HashSet;
 import java.util.Map;
@@ -22,6 +23,13 @@ public class MapServerInitializer {
     public static void initializeServer(Map<String, APIRouteHandler> apiHandlers){
 
         Constants.SEMANTIC_STREET_GRAPH = new AugmentedStreetMapGraph(Constants.OSM_DB_PATH);
+        /* Load (or compute and save) the ALT landmarks and the contraction hierarchy of
+         * every routing profile now rather than on the first route. */
+        for (RoutingProfile profile : RoutingProfile.values()) {
+            Constants.SEMANTIC_STREET_GRAPH.landmarks(profile);
+            Constants.SEMANTIC_STREET_GRAPH.hierarchy(profile);
+        }
+        threadPool(Constants.SERVER_THREADS);
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
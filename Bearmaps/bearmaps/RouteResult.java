@@ -0,0 +1,81 @@
+package bearmaps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A solved route: its node ids, its total length in miles, the minutes it
+ * takes under the routing profile it was solved for, how much of it an
+ * alternative shares with the best route, and its driving directions.
+ * Immutable, so a cached result can be handed to any number of requests at
+ * once.
+ */
+public class RouteResult {
+    /** The result of a route that could not be found. */
+    public static final RouteResult EMPTY =
+            new RouteResult(new long[0], 0, 0, 1, Collections.emptyList());
+
+    private final long[] path;
+    private final double weight;
+    private final double minutes;
+    private final double sharing;
+    private final List<Router.NavigationDirection> directions;
+
+    public RouteResult(long[] path, double weight, double minutes, double sharing,
+                       List<Router.NavigationDirection> directions) {
+        this.path = path;
+        this.weight = weight;
+        this.minutes = minutes;
+        this.sharing = sharing;
+        this.directions = directions == null ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(directions));
+    }
+
+    /** Returns the number of nodes on the route. */
+    public int size() {
+        return path.length;
+    }
+
+    public boolean isEmpty() {
+        return path.length == 0;
+    }
+
+    /** Returns the id of the Ith node on the route. */
+    public long id(int i) {
+        return path[i];
+    }
+
+    /** Returns the node ids of the route as a new list. */
+    public List<Long> nodes() {
+        List<Long> list = new ArrayList<>(path.length);
+        for (long id : path) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    /** Returns the total length of the route, in miles. */
+    public double weight() {
+        return weight;
+    }
+
+    /** Returns the travel time of the route, in minutes. */
+    public double minutes() {
+        return minutes;
+    }
+
+    /**
+     * Returns the fraction of the weight of the best route between the same
+     * endpoints that this route shares with it: 1 for the best route itself,
+     * less for an alternative; see Router.alternatives.
+     */
+    public double sharing() {
+        return sharing;
+    }
+
+    /** Returns the driving directions for the route, possibly empty. */
+    public List<Router.NavigationDirection> directions() {
+        return directions;
+    }
+}
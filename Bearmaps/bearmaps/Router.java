@@ -1,12 +1,33 @@
 package bearmaps;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.IntStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.Deadline;
+import bearmaps.utils.graph.AlternativeRoutes;
+import bearmaps.utils.graph.BidirectionalAStarSolver;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.IntDijkstra;
+import bearmaps.utils.graph.IntShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.ch.CHSolver;
+import bearmaps.utils.graph.ch.ManyToManySolver;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.graph.streetmap.Isochrone;
+import bearmaps.utils.graph.streetmap.RoutingProfile;
+import bearmaps.utils.metrics.Counter;
+import bearmaps.utils.metrics.Metrics;
+import bearmaps.utils.metrics.Timer;
+
+import static bearmaps.utils.Constants.MATRIX_THREADS;
 
 /**
  * This class acts as a helper for the RoutingAPIHandler.
@@ -14,6 +35,63 @@ import bearmaps.utils.graph.AStarSolver;
  */
 public class Router {
 
+    /**
+     * Timeout for a single route search, in seconds; less if the request it is
+     * for is due sooner (see Deadline).
+     */
+    private static final double ROUTE_TIMEOUT = 20;
+
+    /** Nodes tried, nearest first, when the closest one is on roads closed to a profile. */
+    private static final int SNAP_CANDIDATES = 16;
+
+    /** Time spent solving routes that were not in the route cache. */
+    private static final Timer SOLVE_TIMER = Metrics.timer("route.solve");
+    /** Time spent finding alternative routes, directions included. */
+    private static final Timer ALTERNATIVES_TIMER = Metrics.timer("route.alternatives");
+    /** Time spent computing distance matrices, paths excluded. */
+    private static final Timer MATRIX_TIMER = Metrics.timer("route.matrix");
+
+    /** Time spent finding the nodes within a budget of a location. */
+    private static final Timer ISOCHRONE_TIMER = Metrics.timer("route.isochrone");
+
+    /** The work done by route searches, summed over every search. */
+    private static final Counter SETTLED = Metrics.counter("route.settled");
+    private static final Counter EDGES_RELAXED = Metrics.counter("route.edges_relaxed");
+    private static final Counter QUEUE_OPERATIONS = Metrics.counter("route.queue_operations");
+
+    /** Runs the rows of distance matrices and their paths in parallel. */
+    private static final ForkJoinPool MATRIX_POOL = new ForkJoinPool(MATRIX_THREADS);
+
+    /**
+     * The shortest path algorithms shortestPath can be asked to use. All of them
+     * return a shortest path; they differ in how much of the graph they explore.
+     */
+    public enum Algorithm {
+        /** Unidirectional A* with the great-circle heuristic. */
+        ASTAR,
+        /** Bidirectional A* with the great-circle heuristic. */
+        BIDIRECTIONAL,
+        /** Bidirectional A* guided by ALT landmark bounds. */
+        ALT,
+        /** Bidirectional upward search on the graph's contraction hierarchy. */
+        CH;
+
+        /**
+         * Parses an algorithm name, ignoring case.
+         * @return The matching Algorithm, or DEFAULTALGORITHM if NAME is null or unknown.
+         */
+        public static Algorithm fromString(String name, Algorithm defaultAlgorithm) {
+            if (name != null) {
+                for (Algorithm a : values()) {
+                    if (a.name().equalsIgnoreCase(name)) {
+                        return a;
+                    }
+                }
+            }
+            return defaultAlgorithm;
+        }
+    }
+
     /**
      * Overloaded method for shortestPath that has flexibility to specify a solver
      * and returns a List of longs representing the shortest path from the node
@@ -27,16 +105,310 @@ public class Router {
      */
     public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
                                           double destlon, double destlat) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, Algorithm.ASTAR);
+    }
+
+    /**
+     * Same as above, using the given ALGORITHM to search.
+     * @param algorithm The search algorithm to use.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm) {
         try {
-            long src = g.closest(stlon, stlat);
-            long dest = g.closest(destlon, destlat);
-            return new AStarSolver<>(g, src, dest, 20).solution();
+            CompactStreetMapGraph cg = g.compact();
+            int src = cg.indexOf(g.closest(stlon, stlat));
+            int dest = cg.indexOf(g.closest(destlon, destlat));
+            int[] path = solve(g, src, dest, algorithm, RoutingProfile.SHORTEST).solutionArray();
+            List<Long> route = new ArrayList<>(path.length);
+            for (int v : path) {
+                route.add(cg.id(v));
+            }
+            return route;
         } catch (NoSuchElementException e) {
             return new ArrayList<>();
         }
 
     }
 
+    /**
+     * Returns the shortest route between the nodes closest to the start and
+     * destination locations, with its length and directions. Requests that
+     * snap to the same pair of nodes share one cached result, so a popular
+     * route is only solved once; every algorithm finds a shortest path, so the
+     * cache is shared by all of them.
+     * @param algorithm The search algorithm to use on a cache miss.
+     * @return The route, or RouteResult.EMPTY if there is none.
+     */
+    public static RouteResult route(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                    double destlon, double destlat, Algorithm algorithm) {
+        return route(g, stlon, stlat, destlon, destlat, algorithm, RoutingProfile.SHORTEST);
+    }
+
+    /**
+     * Same as above, for the route of least weight under PROFILE, which also
+     * picks the travel time the result reports. Each profile has its own
+     * entries in the route cache.
+     * @param profile How to weigh the roads.
+     * @return The route, or RouteResult.EMPTY if there is none.
+     */
+    public static RouteResult route(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                    double destlon, double destlat, Algorithm algorithm,
+                                    RoutingProfile profile) {
+        try {
+            int src = snap(g, stlon, stlat, profile);
+            int dest = snap(g, destlon, destlat, profile);
+            long key = routeKey(src, dest, profile);
+            RouteResult cached = g.routeCache().get(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            long start = System.nanoTime();
+            IntShortestPathsSolver solver = solve(g, src, dest, algorithm, profile);
+            RouteResult result = result(g, solver.solutionArray(), profile, 1);
+            SOLVE_TIMER.recordSince(start);
+            /* A timeout might succeed next time; anything else is final. */
+            if (solver.outcome() != SolverOutcome.TIMEOUT) {
+                g.routeCache().put(key, result);
+            }
+            return result;
+        } catch (NoSuchElementException e) {
+            return RouteResult.EMPTY;
+        }
+    }
+
+    /**
+     * Returns up to K reasonably different routes between the nodes closest to
+     * the start and destination locations under PROFILE, the best first; see
+     * AlternativeRoutes. All of them come from one landmark-guided
+     * bidirectional search that runs on past the best route, rather than from
+     * K searches. Each result's sharing() is the fraction of the best route's
+     * weight that it shares with it. Alternatives are not cached.
+     * @return The routes, or an empty list if there is none.
+     */
+    public static List<RouteResult> alternatives(AugmentedStreetMapGraph g, double stlon,
+                                                 double stlat, double destlon, double destlat,
+                                                 int k, RoutingProfile profile) {
+        List<RouteResult> results = new ArrayList<>();
+        try {
+            long start = System.nanoTime();
+            int src = snap(g, stlon, stlat, profile);
+            int dest = snap(g, destlon, destlat, profile);
+            AlternativeRoutes routes = new AlternativeRoutes(g.compact().forProfile(profile),
+                    g.landmarks(profile), src, dest, k, timeout());
+            IntShortestPathsSolver search = routes.search();
+            SETTLED.add(search.numStatesExplored());
+            EDGES_RELAXED.add(search.numEdgesRelaxed());
+            QUEUE_OPERATIONS.add(search.numQueueOperations());
+            for (int i = 0; i < routes.size(); i++) {
+                double sharing = routes.weight(0) > 0
+                        ? routes.sharedWeight(i) / routes.weight(0) : 1;
+                results.add(result(g, routes.route(i), profile, sharing));
+            }
+            ALTERNATIVES_TIMER.recordSince(start);
+        } catch (NoSuchElementException e) {
+            return results;
+        }
+        return results;
+    }
+
+    /**
+     * Returns the route through the vertex indices PATH, with its length, its
+     * travel time under PROFILE, its directions and SHARING.
+     */
+    private static RouteResult result(AugmentedStreetMapGraph g, int[] path,
+                                      RoutingProfile profile, double sharing) {
+        CompactStreetMapGraph cg = g.compact();
+        long[] ids = new long[path.length];
+        double miles = 0;
+        double minutes = 0;
+        for (int i = 0; i < path.length; i++) {
+            ids[i] = cg.id(path[i]);
+            if (i > 0) {
+                int e = cg.cheapestEdge(path[i - 1], path[i], profile);
+                miles += length(cg, e, path[i - 1], path[i]);
+                minutes += e < 0 ? 0 : cg.edgeMinutes(e, profile);
+            }
+        }
+        List<Long> route = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            route.add(id);
+        }
+        return new RouteResult(ids, miles, minutes, sharing,
+                route.isEmpty() ? null : routeDirections(g, route, profile));
+    }
+
+    /**
+     * Returns the distance in miles from each source to each target, snapping
+     * every location to its closest node as shortestPath does. Computed with
+     * one upward search per source and per target on the graph's contraction
+     * hierarchy, rather than one search per pair.
+     * @param g The graph to use.
+     * @param sources The source locations, each a {longitude, latitude} pair.
+     * @param targets The target locations, each a {longitude, latitude} pair.
+     * @return A SOURCES.length x TARGETS.length matrix, with
+     * Double.POSITIVE_INFINITY where a target cannot be reached.
+     * @throws RejectedExecutionException if the request's deadline passes first.
+     */
+    public static double[][] distanceMatrix(AugmentedStreetMapGraph g, double[][] sources,
+                                            double[][] targets) {
+        long start = System.nanoTime();
+        /* The searches run on MATRIX_POOL, where the request's deadline is not
+           set, so read it here. */
+        double[][] distances = ManyToManySolver.distances(g.hierarchy(), snap(g, sources),
+                snap(g, targets), MATRIX_POOL, timeout());
+        MATRIX_TIMER.recordSince(start);
+        if (distances == null) {
+            throw new RejectedExecutionException("Deadline passed computing the matrix");
+        }
+        return distances;
+    }
+
+    /**
+     * Returns the shortest path from each source to each target, as node ids,
+     * for the same snapped nodes as distanceMatrix. Each source row is one
+     * Dijkstra search that stops once it has settled every target; rows run in
+     * parallel.
+     * @return A SOURCES.length x TARGETS.length matrix of paths, empty where a
+     * target cannot be reached.
+     * @throws RejectedExecutionException if the request's deadline passes first.
+     */
+    public static long[][][] matrixPaths(AugmentedStreetMapGraph g, double[][] sources,
+                                         double[][] targets) {
+        CompactStreetMapGraph cg = g.compact();
+        int[] src = snap(g, sources);
+        int[] dest = snap(g, targets);
+        long[][][] paths = new long[src.length][][];
+        double timeout = timeout();
+        try {
+            MATRIX_POOL.submit(() -> IntStream.range(0, src.length).parallel().forEach(i -> {
+                int[][] row = IntDijkstra.pathsFrom(cg, src[i], dest, timeout);
+                if (row == null) {
+                    return;
+                }
+                paths[i] = new long[dest.length][];
+                for (int j = 0; j < dest.length; j++) {
+                    int[] path = row[j];
+                    long[] ids = new long[path.length];
+                    for (int k = 0; k < path.length; k++) {
+                        ids[k] = cg.id(path[k]);
+                    }
+                    paths[i][j] = ids;
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing matrix paths", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        for (long[][] row : paths) {
+            if (row == null) {
+                throw new RejectedExecutionException("Deadline passed computing matrix paths");
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Returns every node whose shortest path distance from the node closest to
+     * the given location is at most BUDGET miles.
+     * @param g The graph to use.
+     * @param lon The longitude of the start location.
+     * @param lat The latitude of the start location.
+     * @param budget The distance budget in miles.
+     */
+    public static Isochrone isochrone(AugmentedStreetMapGraph g, double lon, double lat,
+                                      double budget) {
+        long start = System.nanoTime();
+        CompactStreetMapGraph cg = g.compact();
+        Isochrone isochrone = Isochrone.compute(cg, cg.indexOf(g.closest(lon, lat)), budget);
+        ISOCHRONE_TIMER.recordSince(start);
+        return isochrone;
+    }
+
+    /**
+     * Returns the vertex index of the node closest to LON, LAT that has a road
+     * open to PROFILE, so that a walk does not start on a motorway. Falls back
+     * to the closest node if none of the SNAP_CANDIDATES closest has one.
+     */
+    private static int snap(AugmentedStreetMapGraph g, double lon, double lat,
+                            RoutingProfile profile) {
+        CompactStreetMapGraph cg = g.compact().forProfile(profile);
+        int closest = cg.indexOf(g.closest(lon, lat));
+        if (profile == RoutingProfile.SHORTEST || hasOpenEdge(cg, closest)) {
+            return closest;
+        }
+        for (long id : g.kClosest(lon, lat, SNAP_CANDIDATES)) {
+            int v = cg.indexOf(id);
+            if (hasOpenEdge(cg, v)) {
+                return v;
+            }
+        }
+        return closest;
+    }
+
+    /** Returns whether V has an edge of finite weight in CG. */
+    private static boolean hasOpenEdge(CompactStreetMapGraph cg, int v) {
+        for (int e = cg.edgesBegin(v); e < cg.edgesEnd(v); e++) {
+            if (cg.edgeWeight(e) != Double.POSITIVE_INFINITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the vertex indices of the nodes closest to each {lon, lat} of POINTS. */
+    private static int[] snap(AugmentedStreetMapGraph g, double[][] points) {
+        CompactStreetMapGraph cg = g.compact();
+        int[] vertices = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            vertices[i] = cg.indexOf(g.closest(points[i][0], points[i][1]));
+        }
+        return vertices;
+    }
+
+    /**
+     * Returns the route cache key for the vertex indices SRC and DEST under
+     * PROFILE. Indices are non-negative ints, so each fits in 31 bits, leaving
+     * the top two bits for the profile.
+     */
+    private static long routeKey(int src, int dest, RoutingProfile profile) {
+        return ((long) profile.ordinal() << 62) | ((long) src << 31) | dest;
+    }
+
+    /**
+     * Returns a finished solver for a SRC -> DEST path of least weight under
+     * PROFILE, having added its work to the "route.settled",
+     * "route.edges_relaxed" and "route.queue_operations" counters.
+     */
+    private static IntShortestPathsSolver solve(AugmentedStreetMapGraph g, int src, int dest,
+                                                Algorithm algorithm, RoutingProfile profile) {
+        CompactStreetMapGraph cg = g.compact().forProfile(profile);
+        IntShortestPathsSolver solver;
+        switch (algorithm) {
+            case BIDIRECTIONAL:
+                solver = new BidirectionalAStarSolver(cg, src, dest, timeout());
+                break;
+            case ALT:
+                solver = new BidirectionalAStarSolver(cg, g.landmarks(profile), src, dest,
+                        timeout());
+                break;
+            case CH:
+                solver = new CHSolver(g.hierarchy(profile), src, dest, timeout());
+                break;
+            case ASTAR:
+            default:
+                solver = new IntAStarSolver(cg, src, dest, timeout());
+                break;
+        }
+        SETTLED.add(solver.numStatesExplored());
+        EDGES_RELAXED.add(solver.numEdgesRelaxed());
+        QUEUE_OPERATIONS.add(solver.numQueueOperations());
+        return solver;
+    }
+
     /**
      * Create the list of directions corresponding to a route on the graph.
      * @param g The graph to use.
@@ -47,8 +419,80 @@ public class Router {
      */
     public static List<NavigationDirection> routeDirections(AugmentedStreetMapGraph g,
                                                             List<Long> route) {
-        /* fill in for part IV */
-        return null;
+        return routeDirections(g, route, RoutingProfile.SHORTEST);
+    }
+
+    /**
+     * Returns the directions for ROUTE, found under PROFILE: where two nodes
+     * are joined by several ways, each step names the one PROFILE's search
+     * would have taken.
+     */
+    public static List<NavigationDirection> routeDirections(AugmentedStreetMapGraph g,
+                                                            List<Long> route,
+                                                            RoutingProfile profile) {
+        List<NavigationDirection> directions = new ArrayList<>();
+        if (route.size() < 2) {
+            return directions;
+        }
+        /* Way names and lengths come from the compact graph's edges, laid out
+           with their interned name ids when the graph was loaded, so a step is
+           a short scan of one vertex's edges and allocates nothing. Bearings are
+           only needed where the way changes. */
+        CompactStreetMapGraph cg = g.compact();
+        Iterator<Long> it = route.iterator();
+        int before = -1;
+        int prev = cg.indexOf(it.next());
+        int curr = cg.indexOf(it.next());
+
+        NavigationDirection current = new NavigationDirection();
+        current.direction = NavigationDirection.START;
+        int e = cg.cheapestEdge(prev, curr, profile);
+        int wayId = wayNameId(cg, e);
+        current.way = wayName(cg, wayId);
+        current.distance = length(cg, e, prev, curr);
+
+        while (it.hasNext()) {
+            before = prev;
+            prev = curr;
+            curr = cg.indexOf(it.next());
+            e = cg.cheapestEdge(prev, curr, profile);
+            int nextWayId = wayNameId(cg, e);
+            if (nextWayId != wayId) {
+                directions.add(current);
+                current = new NavigationDirection();
+                current.direction = NavigationDirection.getDirection(
+                        bearing(cg, before, prev), bearing(cg, prev, curr));
+                current.way = wayName(cg, nextWayId);
+                wayId = nextWayId;
+            }
+            current.distance += length(cg, e, prev, curr);
+        }
+        directions.add(current);
+        return directions;
+    }
+
+    /** Returns the seconds a search may take for the current request. */
+    private static double timeout() {
+        return Deadline.remainingSeconds(ROUTE_TIMEOUT);
+    }
+
+    /** Returns the way name id of edge E, or -1 if E is -1 or its way has no name. */
+    private static int wayNameId(CompactStreetMapGraph cg, int e) {
+        return e < 0 || cg.wayName(cg.wayNameId(e)).isEmpty() ? -1 : cg.wayNameId(e);
+    }
+
+    /** Returns the way name with id WAYID, or UNKNOWN_ROAD for -1. */
+    private static String wayName(CompactStreetMapGraph cg, int wayId) {
+        return wayId < 0 ? NavigationDirection.UNKNOWN_ROAD : cg.wayName(wayId);
+    }
+
+    /** Returns the length of edge E from V to W, measured directly if there is no edge. */
+    private static double length(CompactStreetMapGraph cg, int e, int v, int w) {
+        return e < 0 ? cg.distance(v, w) : cg.edgeLength(e);
+    }
+
+    private static double bearing(CompactStreetMapGraph cg, int v, int w) {
+        return NavigationDirection.bearing(cg.lon(v), cg.lon(w), cg.lat(v), cg.lat(w));
     }
 
     /**
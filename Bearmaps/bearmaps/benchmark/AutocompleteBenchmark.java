@@ -0,0 +1,84 @@
+package bearmaps.benchmark;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times getLocationsByPrefix on prefixes of each length in PREFIXLENGTH, cut
+ * from the names of random locations, so that popular names are asked for
+ * more often. "index" empties the autocomplete cache before every lookup, so
+ * it times the search tree itself; "cached" repeats the same prefixes, as a
+ * user typing does. Scores are per lookup.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AutocompleteBenchmark {
+    /** Number of prefixes per trial. */
+    public static final int NUM_PREFIXES = 512;
+    private static final long SEED = 61;
+
+    @State(Scope.Benchmark)
+    public static class PrefixState {
+        @Param({"1", "2", "3", "5", "8"})
+        int prefixLength;
+
+        String[] prefixes = new String[NUM_PREFIXES];
+
+        @Setup
+        public void setUp(GraphState s) {
+            CompactStreetMapGraph g = s.graph.compact();
+            List<String> names = new ArrayList<>();
+            for (int v = 0; v < g.numVertices(); v++) {
+                String name = g.name(v);
+                if (name != null && name.length() >= prefixLength) {
+                    names.add(name.toLowerCase());
+                }
+            }
+            Random r = new Random(SEED);
+            for (int i = 0; i < NUM_PREFIXES; i++) {
+                prefixes[i] = names.get(r.nextInt(names.size())).substring(0, prefixLength);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_PREFIXES)
+    public void index(GraphState s, PrefixState ps, Blackhole bh) {
+        AugmentedStreetMapGraph g = s.graph;
+        for (String prefix : ps.prefixes) {
+            g.prefixCache().clear();
+            bh.consume(g.getLocationsByPrefix(prefix, Constants.AUTOCOMPLETE_TOP_K));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_PREFIXES)
+    public void cached(GraphState s, PrefixState ps, Blackhole bh) {
+        AugmentedStreetMapGraph g = s.graph;
+        for (String prefix : ps.prefixes) {
+            bh.consume(g.getLocationsByPrefix(prefix, Constants.AUTOCOMPLETE_TOP_K));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package bearmaps.benchmark;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.ch.CHSolver;
+import bearmaps.utils.graph.ch.ContractionHierarchy;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares contraction hierarchy queries against the generic AStarSolver on
+ * the same few thousand random origin/destination pairs, drawn uniformly from
+ * the routable vertices and kept only if they are connected, since
+ * AStarSolver cannot finish a search for an unreachable target. Scores are per
+ * route.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ContractionHierarchyBenchmark {
+    /** Number of origin/destination pairs per trial. */
+    public static final int NUM_PAIRS = 2048;
+    private static final long SEED = 61;
+
+    @State(Scope.Benchmark)
+    public static class HierarchyState {
+        AugmentedStreetMapGraph graph;
+        ContractionHierarchy hierarchy;
+        /** Vertex indices of the origins and destinations. */
+        int[] sources = new int[NUM_PAIRS];
+        int[] targets = new int[NUM_PAIRS];
+
+        @Setup
+        public void setUp() {
+            graph = new AugmentedStreetMapGraph(Constants.OSM_DB_PATH);
+            hierarchy = graph.hierarchy();
+            CompactStreetMapGraph g = graph.compact();
+            Random r = new Random(SEED);
+            int i = 0;
+            while (i < NUM_PAIRS) {
+                int source = routable(g, r);
+                int target = routable(g, r);
+                if (new CHSolver(hierarchy, source, target, 20).outcome()
+                        == SolverOutcome.SOLVED) {
+                    sources[i] = source;
+                    targets[i] = target;
+                    i++;
+                }
+            }
+        }
+
+        /* Returns a random vertex of G with at least one edge. */
+        private static int routable(CompactStreetMapGraph g, Random r) {
+            int v;
+            do {
+                v = r.nextInt(g.numVertices());
+            } while (g.degree(v) == 0);
+            return v;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_PAIRS)
+    public void contractionHierarchy(HierarchyState s, Blackhole bh) {
+        for (int i = 0; i < NUM_PAIRS; i++) {
+            bh.consume(new CHSolver(s.hierarchy, s.sources[i], s.targets[i], 20)
+                    .solutionWeight());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_PAIRS)
+    public void aStarSolver(HierarchyState s, Blackhole bh) {
+        CompactStreetMapGraph g = s.graph.compact();
+        for (int i = 0; i < NUM_PAIRS; i++) {
+            bh.consume(new AStarSolver<>(s.graph, g.id(s.sources[i]), g.id(s.targets[i]), 20)
+                    .solutionWeight());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package bearmaps.benchmark;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Shared JMH state: the bundled Berkeley OSM graph, loaded once per trial, and a
+ * fixed set of seeded random origin/destination pairs snapped to graph nodes,
+ * so every benchmark routes the same queries. Pairs whose nodes are not
+ * connected are drawn again, so every query is solvable.
+ */
+@State(Scope.Benchmark)
+public class GraphState {
+    /** Number of origin/destination pairs per trial. */
+    public static final int NUM_PAIRS = 64;
+    private static final long SEED = 61;
+
+    public AugmentedStreetMapGraph graph;
+    /** OSM ids of the snapped origins and destinations. */
+    public long[] sources = new long[NUM_PAIRS];
+    public long[] targets = new long[NUM_PAIRS];
+    /** Raw query coordinates, for benchmarks that snap themselves. */
+    public double[] lons = new double[2 * NUM_PAIRS];
+    public double[] lats = new double[2 * NUM_PAIRS];
+
+    @Setup
+    public void setUp() {
+        graph = new AugmentedStreetMapGraph(Constants.OSM_DB_PATH);
+        CompactStreetMapGraph g = graph.compact();
+        Random r = new Random(SEED);
+        int i = 0;
+        while (i < NUM_PAIRS) {
+            for (int j = 2 * i; j < 2 * i + 2; j++) {
+                lons[j] = Constants.ROOT_ULLON
+                        + r.nextDouble() * (Constants.ROOT_LRLON - Constants.ROOT_ULLON);
+                lats[j] = Constants.ROOT_LRLAT
+                        + r.nextDouble() * (Constants.ROOT_ULLAT - Constants.ROOT_LRLAT);
+            }
+            sources[i] = graph.closest(lons[2 * i], lats[2 * i]);
+            targets[i] = graph.closest(lons[2 * i + 1], lats[2 * i + 1]);
+            if (new IntAStarSolver(g, g.indexOf(sources[i]), g.indexOf(targets[i]), 20)
+                    .outcome() == SolverOutcome.SOLVED) {
+                i++;
+            }
+        }
+    }
+}
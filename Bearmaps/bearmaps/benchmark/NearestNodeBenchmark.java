@@ -0,0 +1,35 @@
+package bearmaps.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times AugmentedStreetMapGraph.closest, which every route, matrix and
+ * isochrone request calls to snap its locations, on the raw query coordinates
+ * of GraphState. Scores are per lookup; run with "-prof gc" to check that a
+ * lookup allocates nothing.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NearestNodeBenchmark {
+
+    @Benchmark
+    @OperationsPerInvocation(2 * GraphState.NUM_PAIRS)
+    public void closest(GraphState s, Blackhole bh) {
+        for (int i = 0; i < 2 * GraphState.NUM_PAIRS; i++) {
+            bh.consume(s.graph.closest(s.lons[i], s.lats[i]));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package bearmaps.benchmark;
+
+import bearmaps.utils.graph.EdgeConsumer;
+import bearmaps.utils.graph.WeightedEdge;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two ways AStarSolver can walk a vertex's edges on the street
+ * graph: neighbors(), which builds a list of WeightedEdges per call, and
+ * forEachNeighbor(), which hands them to a consumer straight from the compact
+ * arrays. Scores are per expanded vertex; run with "-prof gc" to see
+ * gc.alloc.rate.norm, the bytes allocated per vertex, drop to zero.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NeighborIterationBenchmark {
+    /** Number of vertices expanded per invocation. */
+    public static final int NUM_VERTICES = 4096;
+    private static final long SEED = 61;
+
+    @State(Scope.Benchmark)
+    public static class VertexState {
+        /** OSM ids of the vertices to expand, all with at least one edge. */
+        Long[] vertices = new Long[NUM_VERTICES];
+
+        @Setup
+        public void setUp(GraphState s) {
+            CompactStreetMapGraph g = s.graph.compact();
+            Random r = new Random(SEED);
+            for (int i = 0; i < NUM_VERTICES; i++) {
+                int v;
+                do {
+                    v = r.nextInt(g.numVertices());
+                } while (g.degree(v) == 0);
+                vertices[i] = g.id(v);
+            }
+        }
+    }
+
+    /** Sums the weights it is given; one instance is reused, as AStarSolver does. */
+    @State(Scope.Thread)
+    public static class WeightSum implements EdgeConsumer<Long> {
+        double sum;
+
+        @Override
+        public void accept(Long from, Long to, double weight) {
+            sum += weight;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_VERTICES)
+    public void neighborsList(GraphState s, VertexState vs, Blackhole bh) {
+        double sum = 0;
+        for (Long v : vs.vertices) {
+            for (WeightedEdge<Long> e : s.graph.neighbors(v)) {
+                sum += e.weight();
+            }
+        }
+        bh.consume(sum);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_VERTICES)
+    public void forEachNeighbor(GraphState s, VertexState vs, WeightSum consumer, Blackhole bh) {
+        consumer.sum = 0;
+        for (Long v : vs.vertices) {
+            s.graph.forEachNeighbor(v, consumer);
+        }
+        bh.consume(consumer.sum);
+    }
+}
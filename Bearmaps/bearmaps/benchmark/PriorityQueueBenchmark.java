@@ -0,0 +1,60 @@
+package bearmaps.benchmark;
+
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.pq.DoubleMapPQ;
+import bearmaps.utils.pq.MinHeapPQ;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the three fringe implementations on the same A* route queries:
+ * DoubleMapPQ and MinHeapPQ through the generic AStarSolver, and
+ * IndexedMinHeap through IntAStarSolver. Each invocation routes every pair in
+ * GraphState, so scores are per route.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriorityQueueBenchmark {
+
+    @Benchmark
+    @OperationsPerInvocation(GraphState.NUM_PAIRS)
+    public void doubleMapPQ(GraphState s, Blackhole bh) {
+        for (int i = 0; i < GraphState.NUM_PAIRS; i++) {
+            bh.consume(new AStarSolver<>(s.graph, s.sources[i], s.targets[i], 20,
+                    new DoubleMapPQ<>()).solutionWeight());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GraphState.NUM_PAIRS)
+    public void minHeapPQ(GraphState s, Blackhole bh) {
+        for (int i = 0; i < GraphState.NUM_PAIRS; i++) {
+            bh.consume(new AStarSolver<>(s.graph, s.sources[i], s.targets[i], 20,
+                    new MinHeapPQ<>()).solutionWeight());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GraphState.NUM_PAIRS)
+    public void indexedMinHeap(GraphState s, Blackhole bh) {
+        CompactStreetMapGraph g = s.graph.compact();
+        for (int i = 0; i < GraphState.NUM_PAIRS; i++) {
+            bh.consume(new IntAStarSolver(g, g.indexOf(s.sources[i]), g.indexOf(s.targets[i]),
+                    20).solutionWeight());
+        }
+    }
+}
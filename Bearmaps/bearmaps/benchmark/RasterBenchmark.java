@@ -0,0 +1,113 @@
+package bearmaps.benchmark;
+
+import bearmaps.server.handler.impl.RasterAPIHandler;
+import bearmaps.server.route.RouteSnapshot;
+import bearmaps.utils.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the two halves of a raster request on seeded random viewports of
+ * 1024 by 768 pixels at every zoom level: processRequest, which picks the
+ * depth and the grid of tiles, and rasterPng, which composites the grid from
+ * the decoded tile cache and PNG-encodes it, as a request missing the response
+ * cache does. Tiles missing from disk are drawn from the graph during warmup.
+ * Scores are per request; run with "-prof gc" for the bytes allocated per
+ * request.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RasterBenchmark {
+    /** Number of viewports per trial. */
+    public static final int NUM_VIEWPORTS = 64;
+    /** Number of those viewports also composited and encoded. */
+    public static final int NUM_ENCODED = 8;
+    private static final double WIDTH = 1024;
+    private static final double HEIGHT = 768;
+    private static final long SEED = 61;
+
+    /** Exposes the handler's own compositing and encoding to the benchmark. */
+    static class Handler extends RasterAPIHandler {
+        /** Composites and encodes RESULT's grid, returning the PNG's size in bytes. */
+        int rasterPng(Map<String, Object> result) throws IOException {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            encode(renderImage(result, RouteSnapshot.EMPTY), os,
+                    Constants.RASTER_PNG_COMPRESSION);
+            return os.size();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ViewportState {
+        Handler handler;
+        List<Map<String, Double>> requests = new ArrayList<>(NUM_VIEWPORTS);
+        List<Map<String, Object>> results = new ArrayList<>(NUM_ENCODED);
+
+        @Setup
+        public void setUp(GraphState s) {
+            /* Lets the tile pyramid draw the tiles it does not have on disk. */
+            Constants.SEMANTIC_STREET_GRAPH = s.graph;
+            handler = new Handler();
+            double rootWidth = Constants.ROOT_LRLON - Constants.ROOT_ULLON;
+            double rootHeight = Constants.ROOT_ULLAT - Constants.ROOT_LRLAT;
+            Random r = new Random(SEED);
+            for (int i = 0; i < NUM_VIEWPORTS; i++) {
+                /* About four tiles across at a random depth. */
+                int depth = r.nextInt(Constants.RASTER_MAX_DEPTH + 1);
+                double width = Math.min(rootWidth, rootWidth * 4 / (1 << depth));
+                double height = Math.min(rootHeight, width * HEIGHT / WIDTH);
+                double ullon = Constants.ROOT_ULLON + r.nextDouble() * (rootWidth - width);
+                double ullat = Constants.ROOT_ULLAT - r.nextDouble() * (rootHeight - height);
+                Map<String, Double> request = new HashMap<>();
+                request.put("ullon", ullon);
+                request.put("ullat", ullat);
+                request.put("lrlon", ullon + width);
+                request.put("lrlat", ullat - height);
+                request.put("w", WIDTH);
+                request.put("h", HEIGHT);
+                requests.add(request);
+            }
+            for (int i = 0; i < NUM_ENCODED; i++) {
+                results.add(handler.processRequest(requests.get(i), null));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_VIEWPORTS)
+    public void processRequest(ViewportState vs, Blackhole bh) {
+        for (Map<String, Double> request : vs.requests) {
+            bh.consume(vs.handler.processRequest(request, null));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_ENCODED)
+    public void rasterPng(ViewportState vs, Blackhole bh) throws IOException {
+        for (Map<String, Object> result : vs.results) {
+            bh.consume(vs.handler.rasterPng(result));
+        }
+    }
+}
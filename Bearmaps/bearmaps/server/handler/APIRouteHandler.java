@@ -1,12 +1,16 @@
 package bearmaps.server.handler;
 
+import bearmaps.utils.metrics.Metrics;
 import com.google.gson.Gson;
+import spark.HaltException;
 import spark.Request;
 import spark.Response;
 import spark.Route;
 
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 import static spark.Spark.halt;
 
@@ -15,26 +19,99 @@ import static spark.Spark.halt;
  * The process is defined as such that first the request parameters are read, then
  * request is process based on those parameters and finally the response is built.
  *
+ * Every request is timed as "http.{endpoint}", where the endpoint is the
+ * request path without its leading slash ("root" for "/"), and one that ends
+ * in an exception, halt included, is also counted in "http.{endpoint}.errors".
+ *
+ * A handler given a RequestPool with runOn responds on that pool's threads
+ * instead of the server's, and turns requests away with 503 Service
+ * Unavailable, counted in "http.{endpoint}.shed", when it already has its
+ * limit of requests in flight or the pool cannot take them in time.
+ *
  * Created by rahul
  */
 public abstract class APIRouteHandler<Req, Res> implements Route {
 
     /** HTTP failed response. */
-    private static final int HALT_RESPONSE = 403;
+    protected static final int HALT_RESPONSE = 403;
+    /** HTTP response to a request turned away for load. */
+    private static final int BUSY_RESPONSE = 503;
 
     private Gson gson;
+    /* The pool to respond on, or null to respond on the server's thread, and
+       the permits for the requests this handler may have in flight on it. */
+    private RequestPool pool;
+    private Semaphore inFlight;
 
     public APIRouteHandler() {
         gson = new Gson();
     }
 
+    /**
+     * Makes this handler respond on POOL, with at most MAXINFLIGHT of its
+     * requests queued or running there at once.
+     * @return This handler.
+     */
+    public APIRouteHandler<Req, Res> runOn(RequestPool pool, int maxInFlight) {
+        this.pool = pool;
+        this.inFlight = new Semaphore(maxInFlight);
+        return this;
+    }
+
     @Override
     public Object handle(Request request, Response response) throws Exception {
+        String name = "http." + endpoint(request);
+        long start = System.nanoTime();
+        try {
+            if (pool == null) {
+                return respond(request, response);
+            }
+            if (!inFlight.tryAcquire()) {
+                throw busy(name, response);
+            }
+            try {
+                return pool.run(() -> respond(request, response));
+            } catch (RejectedExecutionException e) {
+                throw busy(name, response);
+            } finally {
+                inFlight.release();
+            }
+        } catch (Exception | Error e) {
+            Metrics.counter(name + ".errors").increment();
+            throw e;
+        } finally {
+            Metrics.timer(name).recordSince(start);
+        }
+    }
+
+    /**
+     * Parses the request, processes it and builds the response. Handlers that
+     * need more than the three steps override this rather than handle, so
+     * that they are still timed.
+     */
+    protected Object respond(Request request, Response response) throws Exception {
         Req requestParams = parseRequestParams(request);
         Res result = processRequest(requestParams, response);
         return buildJsonResponse(result);
     }
 
+    /* Counts a request to NAME turned away for load, and halts it with 503. */
+    private static HaltException busy(String name, Response response) {
+        Metrics.counter(name + ".shed").increment();
+        response.header("Retry-After", "1");
+        return halt(BUSY_RESPONSE, "Server busy - try again shortly.");
+    }
+
+    /* Returns the endpoint REQUEST was routed to, for naming its metrics. */
+    private static String endpoint(Request request) {
+        String path = request.pathInfo();
+        if (path == null) {
+            return "unknown";
+        }
+        path = path.startsWith("/") ? path.substring(1) : path;
+        return path.isEmpty() ? "root" : path;
+    }
+
     /**
      * Defines how to parse and extract the request parameters from request
      * @param request   the request object received
@@ -5,23 +5,41 @@ import bearmaps.server.handler.impl.*;
 import java.util.HashMap;
 import java.util.Map;
 
+import static bearmaps.utils.Constants.*;
+
 /**
  * This class defines different paths available for our Application/Service,
  * along with the handler for each path. The handler defines the action that
  * needs to be taken in case of each path.
  *
+ * Routing, rastering and search each run on their own RequestPool, so that a
+ * burst of one cannot starve the others; each endpoint also has its own limit
+ * on the requests it has in flight, so that, say, matrices cannot fill the
+ * routing pool. The cheap endpoints run on the server's threads.
+ *
  * Created by rahul
  */
 public class APIRouteHandlerFactory {
 
     public static final Map<String, APIRouteHandler> handlerMap;
 
+    private static final RequestPool ROUTING = new RequestPool("routing",
+            ROUTING_THREADS, ROUTING_QUEUE, ROUTING_DEADLINE_SECONDS);
+    private static final RequestPool RASTER = new RequestPool("raster",
+            RASTER_THREADS, RASTER_QUEUE, RASTER_DEADLINE_SECONDS);
+    private static final RequestPool SEARCH = new RequestPool("search",
+            SEARCH_THREADS, SEARCH_QUEUE, SEARCH_DEADLINE_SECONDS);
+
     static {
         handlerMap = new HashMap<>();
-        handlerMap.put("raster", new RasterAPIHandler());
-        handlerMap.put("route", new RoutingAPIHandler());
+        handlerMap.put("raster", new RasterAPIHandler().runOn(RASTER, 48));
+        handlerMap.put("raster.png", new RasterImageAPIHandler().runOn(RASTER, 48));
+        handlerMap.put("route", new RoutingAPIHandler().runOn(ROUTING, 32));
         handlerMap.put("clear_route", new ClearRouteAPIHandler());
-        handlerMap.put("search", new SearchAPIHandler());
+        handlerMap.put("matrix", new MatrixAPIHandler().runOn(ROUTING, 8));
+        handlerMap.put("isochrone", new IsochroneAPIHandler().runOn(ROUTING, 16));
+        handlerMap.put("search", new SearchAPIHandler().runOn(SEARCH, 48));
+        handlerMap.put("metrics", new MetricsAPIHandler());
         handlerMap.put("", new RedirectAPIHandler());
     }
 
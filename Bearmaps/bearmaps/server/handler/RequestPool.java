@@ -0,0 +1,119 @@
+package bearmaps.server.handler;
+
+import bearmaps.utils.Deadline;
+import bearmaps.utils.metrics.Counter;
+import bearmaps.utils.metrics.Metrics;
+import bearmaps.utils.metrics.Timer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of threads, with a bounded queue, that one kind of API
+ * request runs on, so that a burst of slow requests of one kind cannot hold
+ * up the others. Every request gets a deadline when it arrives. One that is
+ * still queued at its deadline is dropped; one that has started runs to the
+ * end, with its deadline set as the thread's Deadline so that its searches
+ * give up in time. A request that does not fit in the queue is turned away
+ * at once.
+ *
+ * The time requests wait in the queue is recorded in the timer
+ * "pool.NAME.wait"; requests turned away for a full queue are counted in
+ * "pool.NAME.rejected", and those dropped at their deadline in
+ * "pool.NAME.expired".
+ */
+public class RequestPool {
+    private final ThreadPoolExecutor executor;
+    private final long deadlineNanos;
+    private final Timer waitTimer;
+    private final Counter rejected;
+    private final Counter expired;
+
+    /**
+     * @param name Names the pool's threads and metrics.
+     * @param threads The most requests that run at once.
+     * @param queueLimit The most requests that wait for a thread.
+     * @param deadlineSeconds How long a request may take from its arrival.
+     */
+    public RequestPool(String name, int threads, int queueLimit, double deadlineSeconds) {
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueLimit), r -> {
+                    Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        deadlineNanos = (long) (deadlineSeconds * 1e9);
+        waitTimer = Metrics.timer("pool." + name + ".wait");
+        rejected = Metrics.counter("pool." + name + ".rejected");
+        expired = Metrics.counter("pool." + name + ".expired");
+    }
+
+    /**
+     * Runs TASK on the pool and returns its result, waiting for it as long as
+     * it runs once it has started.
+     * @throws RejectedExecutionException If the queue is full, or TASK was
+     * still queued at its deadline.
+     * @throws Exception Whatever TASK throws.
+     */
+    public <T> T run(Callable<T> task) throws Exception {
+        long arrival = System.nanoTime();
+        long deadline = arrival + deadlineNanos;
+        /* Whoever sets this first decides: the pool thread, to run TASK, or
+           the waiting caller, to drop it. */
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                waitTimer.recordSince(arrival);
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                if (System.nanoTime() >= deadline) {
+                    expired.increment();
+                    throw new RejectedExecutionException("Deadline passed in the queue");
+                }
+                Deadline.set(deadline);
+                try {
+                    return task.call();
+                } finally {
+                    Deadline.clear();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+
+        try {
+            try {
+                return future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (claimed.compareAndSet(false, true)) {
+                    executor.remove((Runnable) future);
+                    expired.increment();
+                    throw new RejectedExecutionException("Deadline passed in the queue");
+                }
+                /* It has started. Route and matrix searches give up at the deadline
+                   set above; other work runs to its end. */
+                return future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -1,27 +1,31 @@
 package bearmaps.server.handler.impl;
 
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.server.route.RouteStore;
 import spark.Request;
 import spark.Response;
 
-import static bearmaps.utils.Constants.ROUTE_LIST;
+import static bearmaps.utils.Constants.ROUTE_STORE;
 
 
 /**
- * Handles the "Clear Route" button in Bearmaps.
+ * Handles the "Clear Route" button in Bearmaps. Only the requesting client's
+ * route is cleared.
  * Created by rahul
  */
-public class ClearRouteAPIHandler extends APIRouteHandler {
+public class ClearRouteAPIHandler extends APIRouteHandler<String, Boolean> {
 
 
     @Override
-    protected Object parseRequestParams(Request request) {
-        return null;
+    protected String parseRequestParams(Request request) {
+        return RouteStore.key(request, false);
     }
 
     @Override
-    protected Object processRequest(Object requestParams, Response response) {
-        ROUTE_LIST.clear();
+    protected Boolean processRequest(String routeKey, Response response) {
+        if (routeKey != null) {
+            ROUTE_STORE.remove(routeKey);
+        }
         return true;
     }
 }
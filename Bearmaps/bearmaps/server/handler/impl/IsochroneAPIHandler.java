@@ -0,0 +1,94 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.Router;
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.graph.streetmap.Isochrone;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.ISOCHRONE_HULL_SECTORS;
+import static bearmaps.utils.Constants.ISOCHRONE_MAX_MILES;
+import static bearmaps.utils.Constants.ISOCHRONE_SPEED_MPH;
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the area reachable from a location within a distance
+ * or time budget: every node within the budget and an outline around them.
+ */
+public class IsochroneAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
+
+    /**
+     * Each isochrone request has the following parameters:<br>
+     * start_lon : start point longitude,<br> start_lat : start point latitude,<br>
+     * and one budget: distance : in miles, or time : in minutes, optionally with
+     * speed : in miles per hour (walking speed if absent).
+     */
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"start_lon", "start_lat"};
+    private static final String[] OPTIONAL_ISOCHRONE_REQUEST_PARAMS = {"distance", "time",
+            "speed"};
+
+    @Override
+    protected Map<String, Double> parseRequestParams(Request request) {
+        Map<String, Double> params = getRequestParams(request, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+        for (String param : OPTIONAL_ISOCHRONE_REQUEST_PARAMS) {
+            String value = request.queryParams(param);
+            if (value != null) {
+                try {
+                    params.put(param, Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+                }
+            }
+        }
+        if (!params.containsKey("distance") && !params.containsKey("time")) {
+            halt(HALT_RESPONSE, "Request failed - provide a distance or a time.");
+        }
+        return params;
+    }
+
+    /**
+     * Finds the nodes reachable from the node closest to the start point.
+     * @param requestParams The start point and the budget.
+     * @param response : Not used by this function.
+     * @return A map of results for the front end: <br>
+     * "budget"    : Number, the distance budget in miles. <br>
+     * "ids"       : Number[], the ids of the reachable nodes, nearest first. <br>
+     * "distances" : Number[], the distance in miles to each of those nodes. <br>
+     * "hull"      : Number[][], the outline of the reachable area as
+     *               [lon, lat] corners in counterclockwise order. <br>
+     */
+    @Override
+    protected Map<String, Object> processRequest(Map<String, Double> requestParams,
+                                                 Response response) {
+        double budget;
+        if (requestParams.containsKey("distance")) {
+            budget = requestParams.get("distance");
+        } else {
+            double speed = requestParams.getOrDefault("speed", ISOCHRONE_SPEED_MPH);
+            budget = requestParams.get("time") / 60 * speed;
+        }
+        budget = Math.min(Math.max(budget, 0), ISOCHRONE_MAX_MILES);
+
+        Isochrone isochrone = Router.isochrone(SEMANTIC_STREET_GRAPH,
+                requestParams.get("start_lon"), requestParams.get("start_lat"), budget);
+        CompactStreetMapGraph cg = SEMANTIC_STREET_GRAPH.compact();
+        long[] ids = new long[isochrone.size()];
+        double[] distances = new double[isochrone.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = cg.id(isochrone.vertex(i));
+            distances[i] = isochrone.distance(i);
+        }
+
+        Map<String, Object> results = new HashMap<>();
+        results.put("budget", budget);
+        results.put("ids", ids);
+        results.put("distances", distances);
+        results.put("hull", isochrone.hull(ISOCHRONE_HULL_SECTORS));
+        return results;
+    }
+}
@@ -0,0 +1,109 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.Router;
+import bearmaps.server.handler.APIRouteHandler;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.MATRIX_MAX_POINTS;
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the shortest path distances between every one of a set
+ * of sources and every one of a set of targets, in one request instead of one
+ * route request per pair.
+ */
+public class MatrixAPIHandler extends
+        APIRouteHandler<MatrixAPIHandler.MatrixRequest, Map<String, Object>> {
+
+    /**
+     * Each matrix request has the following parameters:<br>
+     * sources : the source locations as "lon,lat" pairs separated by ";",<br>
+     * targets : the target locations, in the same form,<br>
+     * paths : optional, "true" to also return the path of every pair.
+     */
+    private static final String SOURCES_PARAM = "sources";
+    private static final String TARGETS_PARAM = "targets";
+    private static final String PATHS_PARAM = "paths";
+
+    /** A parsed matrix request. */
+    static class MatrixRequest {
+        final double[][] sources;
+        final double[][] targets;
+        final boolean paths;
+
+        MatrixRequest(double[][] sources, double[][] targets, boolean paths) {
+            this.sources = sources;
+            this.targets = targets;
+            this.paths = paths;
+        }
+    }
+
+    @Override
+    protected MatrixRequest parseRequestParams(Request request) {
+        return new MatrixRequest(parsePoints(request.queryParams(SOURCES_PARAM)),
+                parsePoints(request.queryParams(TARGETS_PARAM)),
+                Boolean.parseBoolean(request.queryParams(PATHS_PARAM)));
+    }
+
+    /**
+     * Computes the distance matrix between the requested points, each snapped
+     * to its closest node.
+     * @param requestParams The sources, the targets and whether to return paths.
+     * @param response : Not used by this function.
+     * @return A map of results for the front end: <br>
+     * "distances" : Number[][], the distance in miles from source i to target j
+     *               at [i][j], or null if there is no path. <br>
+     * "paths"     : Number[][][], only if paths were requested: the node ids of
+     *               the path from source i to target j at [i][j]. <br>
+     */
+    @Override
+    protected Map<String, Object> processRequest(MatrixRequest requestParams, Response response) {
+        double[][] distances = Router.distanceMatrix(SEMANTIC_STREET_GRAPH,
+                requestParams.sources, requestParams.targets);
+        /* JSON has no Infinity. */
+        Double[][] json = new Double[distances.length][];
+        for (int i = 0; i < distances.length; i++) {
+            json[i] = new Double[distances[i].length];
+            for (int j = 0; j < distances[i].length; j++) {
+                double d = distances[i][j];
+                json[i][j] = d == Double.POSITIVE_INFINITY ? null : d;
+            }
+        }
+
+        Map<String, Object> results = new HashMap<>();
+        results.put("distances", json);
+        if (requestParams.paths) {
+            results.put("paths", Router.matrixPaths(SEMANTIC_STREET_GRAPH,
+                    requestParams.sources, requestParams.targets));
+        }
+        return results;
+    }
+
+    /** Parses "lon,lat;lon,lat;..." into {lon, lat} pairs, halting if it is malformed. */
+    private static double[][] parsePoints(String value) {
+        if (value == null || value.isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] pairs = value.split(";");
+        if (pairs.length > MATRIX_MAX_POINTS) {
+            halt(HALT_RESPONSE, "Request failed - at most " + MATRIX_MAX_POINTS
+                    + " sources and " + MATRIX_MAX_POINTS + " targets.");
+        }
+        double[][] points = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                points[i] = new double[]{Double.parseDouble(lonLat[0].trim()),
+                        Double.parseDouble(lonLat[1].trim())};
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return points;
+    }
+}
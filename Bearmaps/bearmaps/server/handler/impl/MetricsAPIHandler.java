@@ -0,0 +1,30 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.metrics.PrometheusFormat;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Serves every timer, counter and cache in the Prometheus text format, for a
+ * Prometheus server to scrape. Takes no parameters.
+ */
+public class MetricsAPIHandler extends APIRouteHandler<Void, String> {
+
+    @Override
+    protected Void parseRequestParams(Request request) {
+        return null;
+    }
+
+    @Override
+    protected String processRequest(Void requestParams, Response response) {
+        response.type(PrometheusFormat.CONTENT_TYPE);
+        return PrometheusFormat.write();
+    }
+
+    /** The text is the response as it stands; there is no JSON. */
+    @Override
+    protected Object buildJsonResponse(String result) {
+        return result;
+    }
+}
@@ -1,20 +1,28 @@
 package bearmaps.server.handler.impl;
 
-import bearmaps.AugmentedStreetMapGraph;
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.server.raster.PngEncoder;
+import bearmaps.server.raster.TileCache;
+import bearmaps.server.raster.TileCompositor;
+import bearmaps.server.raster.TilePyramid;
+import bearmaps.server.route.RouteSnapshot;
+import bearmaps.utils.cache.LRUCache;
+import bearmaps.utils.metrics.Counter;
+import bearmaps.utils.metrics.Metrics;
+import bearmaps.utils.metrics.Timer;
 import spark.Request;
 import spark.Response;
 import bearmaps.utils.Constants;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.Base64;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import static bearmaps.utils.Constants.*;
@@ -44,6 +52,48 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
             "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
 
+    private static final Timer ROUTE_TIMER = Metrics.timer("raster.route");
+    private static final Timer ENCODE_TIMER = Metrics.timer("raster.encode");
+
+    /** Bytes of PNG written by encode. */
+    private static final Counter ENCODED_BYTES = Metrics.counter("raster.encode.bytes");
+
+    /**
+     * The tiles and the root box they divide. Tiles missing from IMG_ROOT are
+     * drawn from the street graph once it is loaded, and kept in TILE_CACHE_ROOT.
+     * Like the caches below, shared by both raster endpoints.
+     */
+    protected static final TilePyramid PYRAMID = new TilePyramid(IMG_ROOT, TILE_CACHE_ROOT,
+            () -> SEMANTIC_STREET_GRAPH == null ? null : SEMANTIC_STREET_GRAPH.compact());
+
+    /** Decoded tiles, shared by all raster requests. */
+    protected static final TileCache TILES =
+            new TileCache(PYRAMID, TILE_CACHE_BYTES, TILE_PREFETCH);
+    private static final TileCompositor COMPOSITOR =
+            new TileCompositor(TILES, TILE_SIZE, RASTER_COMPOSITE_THREADS);
+
+    /**
+     * Finished responses keyed by render grid and route, so a viewport seen
+     * before is served without compositing or encoding. Strings are weighed at
+     * two bytes per char.
+     */
+    private static final LRUCache<String, RenderedRaster> RENDERED =
+            new LRUCache<>(RASTER_CACHE_BYTES, r -> 2L * r.encodedImage.length());
+
+    static {
+        Metrics.cache("raster.rendered", RENDERED);
+    }
+
+    /**
+     * Rasters the request like every handler, then draws the requesting
+     * client's route from Constants.ROUTE_STORE over the result.
+     */
+    @Override
+    protected Object respond(Request request, Response response) throws Exception {
+        Map<String, Double> requestParams = parseRequestParams(request);
+        Map<String, Object> result = processRequest(requestParams, response);
+        return buildResponse(requestParams, result, ROUTE_STORE.get(request), response);
+    }
 
     @Override
     protected Map<String, Double> parseRequestParams(Request request) {
@@ -83,8 +133,6 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      */
     @Override
     public Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
-        System.out.println("yo, wanna know the parameters given by the web browser? They are:");
-        System.out.println(requestParams);
         Map<String, Object> results = new HashMap<>();
         Double ullat = requestParams.get("ullat");
         Double ullon = requestParams.get("ullon");
@@ -92,9 +140,13 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         Double lrlon = requestParams.get("lrlon");
         Double w = requestParams.get("w");
         Double h = requestParams.get("h");
+        double rootUlLon = PYRAMID.ulLon();
+        double rootUlLat = PYRAMID.ulLat();
+        double rootLrLon = PYRAMID.lrLon();
+        double rootLrLat = PYRAMID.lrLat();
 
-        if (ullon < ROOT_ULLON || lrlon > ROOT_LRLON || ullat > ROOT_ULLAT
-                || lrlat < ROOT_LRLAT || ullon > lrlon || ullat < lrlat) {
+        if (ullon < rootUlLon || lrlon > rootLrLon || ullat > rootUlLat
+                || lrlat < rootLrLat || ullon > lrlon || ullat < lrlat) {
             results.put("raster_ul_lon", 0);
             results.put("depth", 0);
             results.put("raster_lr_lon", 0);
@@ -106,18 +158,18 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         }
 
         Double queryBoxLonDDP = (lrlon - ullon) / w;
-        Double d0LonDDP = (ROOT_LRLON - ROOT_ULLON) / TILE_SIZE;
+        Double d0LonDDP = (rootLrLon - rootUlLon) / TILE_SIZE;
         int level = 0;
-        for (int i = 0; i <= 7; i++) {
+        for (int i = 0; i <= PYRAMID.maxDepth(); i++) {
             level = i;
             if (d0LonDDP <= queryBoxLonDDP) {
                 break;
             }
             d0LonDDP /= 2;
         }
-        int lxK = (int) ((ullon - ROOT_ULLON) * (Math.pow(2, level)) / (ROOT_LRLON - ROOT_ULLON));
-        double tileWidth = (ROOT_LRLON - ROOT_ULLON) / Math.pow(2, level);
-        double startingkULLon = ROOT_ULLON + lxK * tileWidth;
+        int lxK = (int) ((ullon - rootUlLon) * (Math.pow(2, level)) / (rootLrLon - rootUlLon));
+        double tileWidth = (rootLrLon - rootUlLon) / Math.pow(2, level);
+        double startingkULLon = rootUlLon + lxK * tileWidth;
         int RxK = lxK;
         double endingULLon = startingkULLon;
         while (endingULLon <= lrlon - tileWidth) {
@@ -128,9 +180,9 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
             endingULLon += tileWidth;
         }
 
-        int uyK = (int) ((ROOT_ULLAT - ullat) * (Math.pow(2, level)) / (ROOT_ULLAT - ROOT_LRLAT));
-        double tileHeight = (ROOT_ULLAT - ROOT_LRLAT) / Math.pow(2, level);
-        double startingkULLat = ROOT_ULLAT - uyK * tileHeight;
+        int uyK = (int) ((rootUlLat - ullat) * (Math.pow(2, level)) / (rootUlLat - rootLrLat));
+        double tileHeight = (rootUlLat - rootLrLat) / Math.pow(2, level);
+        double startingkULLat = rootUlLat - uyK * tileHeight;
         int dyK = uyK;
         double endingkULLat = startingkULLat;
         while (endingkULLat >= lrlat + tileHeight) {
@@ -157,23 +209,71 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         results.put("raster_ul_lat", startingkULLat);
         results.put("query_success", true);
 
+        TILES.prefetchRing(level, lxK, uyK, RxK, dyK);
+
         // partial coverage??1
         return results;
     }
 
+    /** Builds the response for a raster result with no route drawn on it. */
     @Override
     protected Object buildJsonResponse(Map<String, Object> result) {
+        return buildResponse(null, result, RouteSnapshot.EMPTY, null);
+    }
+
+    /**
+     * Builds the response for a raster result with ROUTE drawn on it: JSON
+     * with the image Base64-encoded inside.
+     * @param requestParams The parsed request, or null if not at hand.
+     * @param response The response, or null if not at hand.
+     */
+    protected Object buildResponse(Map<String, Double> requestParams, Map<String, Object> result,
+                                   RouteSnapshot route, Response response) {
         boolean rasterSuccess = validateRasteredImgParams(result);
 
         if (rasterSuccess) {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            writeImagesToOutputStream(result, os);
-            String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-            result.put("b64_encoded_image_data", encodedImage);
+            String key = renderKey(result, route);
+            RenderedRaster raster = RENDERED.get(key);
+            if (raster == null) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                writeImagesToOutputStream(result, route, os);
+                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
+                raster = new RenderedRaster(encodedImage, (int) result.get("raster_width"),
+                        (int) result.get("raster_height"));
+                RENDERED.put(key, raster);
+            }
+            result.put("raster_width", raster.width);
+            result.put("raster_height", raster.height);
+            result.put("b64_encoded_image_data", raster.encodedImage);
         }
         return super.buildJsonResponse(result);
     }
 
+    /**
+     * Returns the response cache key for a raster result drawn with ROUTE: its
+     * corner tiles and the route snapshot's serial number, so that no client
+     * is served another's route. Responses for routes no longer drawn simply
+     * age out of the cache.
+     */
+    protected String renderKey(Map<String, Object> rasteredImageParams, RouteSnapshot route) {
+        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        String[] lastRow = renderGrid[renderGrid.length - 1];
+        return renderGrid[0][0] + ":" + lastRow[lastRow.length - 1] + ":" + route.serial();
+    }
+
+    /** A composited, PNG- and Base64-encoded raster image. */
+    private static class RenderedRaster {
+        final String encodedImage;
+        final int width;
+        final int height;
+
+        RenderedRaster(String encodedImage, int width, int height) {
+            this.encodedImage = encodedImage;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
     private Map<String, Object> queryFail() {
         Map<String, Object> results = new HashMap<>();
         results.put("render_grid", null);
@@ -190,17 +290,15 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      * Validates that Rasterer has returned a result that can be rendered.
      * @param rip : Parameters provided by the rasterer
      */
-    private boolean validateRasteredImgParams(Map<String, Object> rip) {
+    protected boolean validateRasteredImgParams(Map<String, Object> rip) {
         for (String p : REQUIRED_RASTER_RESULT_PARAMS) {
             if (!rip.containsKey(p)) {
-                System.out.println("Your rastering result is missing the " + p + " field.");
                 return false;
             }
         }
         if (rip.containsKey("query_success")) {
             boolean success = (boolean) rip.get("query_success");
             if (!success) {
-                System.out.println("query_success was reported as a failure");
                 return false;
             }
         }
@@ -211,28 +309,63 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      * Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we made this into provided code since it was just a bit too low level.
+     * @throws UncheckedIOException If encoding fails, so that no broken image
+     * is cached.
      */
     private  void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
-        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
-        int numVertTiles = renderGrid.length;
-        int numHorizTiles = renderGrid[0].length;
+                                            RouteSnapshot route, ByteArrayOutputStream os) {
+        BufferedImage img = renderImage(rasteredImageParams, route);
+        try {
+            encode(img, os, RASTER_PNG_COMPRESSION);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode raster", e);
+        }
+    }
 
-        BufferedImage img = new BufferedImage(numHorizTiles * Constants.TILE_SIZE,
-                numVertTiles * Constants.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
-        Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(Constants.IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += Constants.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += Constants.TILE_SIZE;
-                }
-            }
+    /**
+     * PNG-encodes IMG at deflate level LEVEL into OS, timing it as
+     * "raster.encode" and counting its bytes in "raster.encode.bytes".
+     */
+    protected void encode(BufferedImage img, OutputStream os, int level) throws IOException {
+        long start = System.nanoTime();
+        CountingOutputStream counted = new CountingOutputStream(os);
+        PngEncoder.write(img, counted, level);
+        ENCODE_TIMER.recordSince(start);
+        ENCODED_BYTES.add(counted.count);
+    }
+
+    /** Passes bytes through to another stream, counting them. */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
+    }
+
+    /**
+     * Composites the tiles of rasteredImageParams' render grid into one image
+     * and then draws ROUTE over them in one pass. Also records the image size in
+     * rasteredImageParams as "raster_width" and "raster_height".
+     */
+    protected BufferedImage renderImage(Map<String, Object> rasteredImageParams,
+                                        RouteSnapshot route) {
+        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        BufferedImage img = COMPOSITOR.composite(renderGrid);
+        long routeStart = System.nanoTime();
+        Graphics graphic = img.getGraphics();
 
         /* If there is a route, draw it. */
         double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
@@ -242,44 +375,25 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
 
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
-        AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
-        List<Long> route = ROUTE_LIST;
 
         if (route != null && !route.isEmpty()) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(Constants.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(Constants.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                        (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                        (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                        (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+            /* The snapshot carries each node's coordinates; no graph lookups. */
+            for (int i = 1; i < route.size(); i++) {
+                g2d.drawLine((int) ((route.lon(i - 1) - ullon) * (1 / wdpp)),
+                        (int) ((ullat - route.lat(i - 1)) * (1 / hdpp)),
+                        (int) ((route.lon(i) - ullon) * (1 / wdpp)),
+                        (int) ((ullat - route.lat(i)) * (1 / hdpp)));
+            }
         }
+        graphic.dispose();
+        ROUTE_TIMER.recordSince(routeStart);
 
         rasteredImageParams.put("raster_width", img.getWidth());
         rasteredImageParams.put("raster_height", img.getHeight());
-
-        try {
-            ImageIO.write(img, "png", os);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-    }
-
-    private BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-            }
-        }
-        return tileImg;
+        return img;
     }
 }
@@ -0,0 +1,91 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.server.route.RouteSnapshot;
+import spark.Request;
+import spark.Response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.*;
+
+/**
+ * Serves the same raster as RasterAPIHandler, but as a binary PNG streamed
+ * straight to the response instead of Base64 inside JSON. The raster's bounds
+ * and size travel in response headers:
+ * X-Raster-Ul-Lon, X-Raster-Ul-Lat, X-Raster-Lr-Lon, X-Raster-Lr-Lat,
+ * X-Raster-Depth, X-Raster-Width, X-Raster-Height and X-Query-Success.
+ * A failed query gets 204 No Content with X-Query-Success: false.
+ *
+ * Takes the raster parameters plus an optional "compression", the deflate
+ * level from 0 (fastest) to 9 (smallest). A 1x1 grid with no route to draw is
+ * sent as the tile file itself, without decoding or encoding anything, once
+ * the pyramid has it on disk.
+ */
+public class RasterImageAPIHandler extends RasterAPIHandler {
+
+    /** Optional parameter: the PNG deflate level. */
+    private static final String COMPRESSION_PARAM = "compression";
+
+    /** Response headers and the raster result fields they carry. */
+    private static final String[][] RESULT_HEADERS = {{"X-Raster-Ul-Lon", "raster_ul_lon"},
+            {"X-Raster-Ul-Lat", "raster_ul_lat"}, {"X-Raster-Lr-Lon", "raster_lr_lon"},
+            {"X-Raster-Lr-Lat", "raster_lr_lat"}, {"X-Raster-Depth", "depth"}};
+
+    @Override
+    protected Map<String, Double> parseRequestParams(Request request) {
+        Map<String, Double> params = super.parseRequestParams(request);
+        String compression = request.queryParams(COMPRESSION_PARAM);
+        if (compression != null) {
+            try {
+                params.put(COMPRESSION_PARAM, Double.parseDouble(compression));
+            } catch (NumberFormatException e) {
+                /* Fall back to the default level. */
+            }
+        }
+        return params;
+    }
+
+    /** Streams the image with ROUTE drawn on it; there is no JSON body. */
+    @Override
+    protected Object buildResponse(Map<String, Double> requestParams, Map<String, Object> results,
+                                   RouteSnapshot route, Response response) {
+        if (!validateRasteredImgParams(results)) {
+            response.status(204);
+            response.header("X-Query-Success", "false");
+            return "";
+        }
+
+        String[][] renderGrid = (String[][]) results.get("render_grid");
+        response.type("image/png");
+        for (String[] header : RESULT_HEADERS) {
+            response.header(header[0], String.valueOf(results.get(header[1])));
+        }
+        response.header("X-Raster-Width", String.valueOf(renderGrid[0].length * TILE_SIZE));
+        response.header("X-Raster-Height", String.valueOf(renderGrid.length * TILE_SIZE));
+        response.header("X-Query-Success", "true");
+        response.header("Access-Control-Expose-Headers", "*");
+
+        int level = requestParams.containsKey(COMPRESSION_PARAM)
+                ? requestParams.get(COMPRESSION_PARAM).intValue() : RASTER_PNG_COMPRESSION;
+        try {
+            OutputStream os = response.raw().getOutputStream();
+            Path tile = null;
+            if (renderGrid.length == 1 && renderGrid[0].length == 1 && route.isEmpty()) {
+                tile = PYRAMID.file(renderGrid[0][0]);
+            }
+            if (tile != null) {
+                Files.copy(tile, os);
+            } else {
+                encode(renderImage(results, route), os, level);
+            }
+            os.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return "";
+    }
+}
@@ -1,23 +1,29 @@
 package bearmaps.server.handler.impl;
 
+import bearmaps.RouteResult;
 import bearmaps.Router;
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.server.route.RouteSnapshot;
+import bearmaps.server.route.RouteStore;
+import bearmaps.utils.graph.streetmap.RoutingProfile;
 import spark.Request;
 import spark.Response;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
-import static bearmaps.utils.Constants.ROUTE_LIST;
+import static bearmaps.utils.Constants.ROUTE_STORE;
 
 /**
  * Handles requests from the web browser for routes between locations. The
  * route will be returned as image data, as well as (optionally) driving directions. *
  * Created by rahul
  */
-public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
+public class RoutingAPIHandler extends
+        APIRouteHandler<RoutingAPIHandler.RouteRequest, Map<String, Object>> {
 
     /**
      * Each route request to the server will have the following parameters
@@ -28,9 +34,69 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
             "end_lat", "end_lon"};
 
+    /**
+     * Optional parameter naming the search algorithm, one of Router.Algorithm
+     * (case-insensitive). Landmark-guided bidirectional A* is used if absent.
+     */
+    private static final String ALGORITHM_PARAM = "algorithm";
+
+    /**
+     * Optional parameter naming the routing profile, one of RoutingProfile,
+     * such as "fastest-car", "walk" or "bike" (case-insensitive). The shortest
+     * route is used if absent.
+     */
+    private static final String PROFILE_PARAM = "profile";
+
+    /**
+     * Optional parameter asking for up to this many routes, the best one and
+     * its alternatives (see Router.alternatives), capped at MAX_ROUTES. Only
+     * the best route is drawn; the others are described in "alternatives".
+     */
+    private static final String ALTERNATIVES_PARAM = "alternatives";
+    private static final int MAX_ROUTES = 3;
+
+    /**
+     * A parsed route request: the endpoints, the algorithm, the profile, the
+     * number of routes wanted and whose route it is.
+     */
+    static class RouteRequest {
+        final Map<String, Double> coords;
+        final Router.Algorithm algorithm;
+        final RoutingProfile profile;
+        final int numRoutes;
+        final String routeKey;
+
+        RouteRequest(Map<String, Double> coords, Router.Algorithm algorithm,
+                     RoutingProfile profile, int numRoutes, String routeKey) {
+            this.coords = coords;
+            this.algorithm = algorithm;
+            this.profile = profile;
+            this.numRoutes = numRoutes;
+            this.routeKey = routeKey;
+        }
+    }
+
     @Override
-    protected Map<String, Double> parseRequestParams(Request request) {
-        return getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS);
+    protected RouteRequest parseRequestParams(Request request) {
+        return new RouteRequest(getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS),
+                Router.Algorithm.fromString(request.queryParams(ALGORITHM_PARAM),
+                        Router.Algorithm.ALT),
+                RoutingProfile.fromString(request.queryParams(PROFILE_PARAM),
+                        RoutingProfile.SHORTEST),
+                numRoutes(request.queryParams(ALTERNATIVES_PARAM)),
+                RouteStore.key(request));
+    }
+
+    /* Parses the alternatives parameter; 1 if it is absent or not a number. */
+    private static int numRoutes(String value) {
+        if (value == null) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Math.min(MAX_ROUTES, Integer.parseInt(value.trim())));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
     }
 
     /**
@@ -38,15 +104,15 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * street directions between the given points. THis method has been
      * completed for you.
      *
-     * The route to draw on the map should be added to the end of
-     * Constants.ROUTE_LIST. This is a LinkedList of longs,
-     * where each long corresponds to one point on the map.
+     * The route becomes the requesting client's route in Constants.ROUTE_STORE,
+     * replacing any earlier one, and is drawn on that client's raster images.
      *
      * Street directions can also be provided in the form of text as a return
      * value to this function.
      *
-     * @param requestParams Map of the HTTP GET request's query parameters - the starting lat/long
-     *                      and the destination lat/lon.
+     * @param requestParams The HTTP GET request's query parameters - the starting lat/long
+     *                      and the destination lat/lon - the algorithm and profile to
+     *                      route with and the key to store the route under.
      *
      * @param response : Not used by this function. You may ignore.
      * @return A map of results for the front end as specified: <br>
@@ -55,30 +121,60 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * "directions_success" : Boolean, whether the query generated text directions (i.e. if
      *                        length of directions is > 0).
      * "directions"      : String. The text directions you want to display, in HTML format.
+     * "distance"        : Number. The length of the route in miles.
+     * "duration"        : Number. The minutes the route takes under the profile.
+     * "alternatives"    : List, only when more than one route was asked for. Every
+     *                     route found, the best first, as a map of its "distance",
+     *                     "duration", "sharing" (the fraction of the best route's
+     *                     weight it shares) and "nodes" (its node ids).
      */
     @Override
-    protected Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
-        List<Long> route = Router.shortestPath(
-                SEMANTIC_STREET_GRAPH,
-                requestParams.get("start_lon"), requestParams.get("start_lat"),
-                requestParams.get("end_lon"), requestParams.get("end_lat"));
-        ROUTE_LIST.addAll(route);
-        String directions = getDirectionsText();
+    protected Map<String, Object> processRequest(RouteRequest requestParams, Response response) {
+        Map<String, Double> coords = requestParams.coords;
+        List<RouteResult> alternatives = null;
+        RouteResult route;
+        if (requestParams.numRoutes > 1) {
+            alternatives = Router.alternatives(SEMANTIC_STREET_GRAPH,
+                    coords.get("start_lon"), coords.get("start_lat"),
+                    coords.get("end_lon"), coords.get("end_lat"),
+                    requestParams.numRoutes, requestParams.profile);
+            route = alternatives.isEmpty() ? RouteResult.EMPTY : alternatives.get(0);
+        } else {
+            route = Router.route(
+                    SEMANTIC_STREET_GRAPH,
+                    coords.get("start_lon"), coords.get("start_lat"),
+                    coords.get("end_lon"), coords.get("end_lat"),
+                    requestParams.algorithm, requestParams.profile);
+        }
+        ROUTE_STORE.put(requestParams.routeKey, RouteSnapshot.of(SEMANTIC_STREET_GRAPH, route));
+        String directions = getDirectionsText(route.directions());
 
         Map<String, Object> routeParams = new HashMap<>();
         routeParams.put("routing_success", !route.isEmpty());
         routeParams.put("directions_success", directions.length() > 0);
         routeParams.put("directions", directions);
+        routeParams.put("distance", route.weight());
+        routeParams.put("duration", route.minutes());
+        if (alternatives != null) {
+            List<Map<String, Object>> list = new ArrayList<>();
+            for (RouteResult alternative : alternatives) {
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("distance", alternative.weight());
+                entry.put("duration", alternative.minutes());
+                entry.put("sharing", alternative.sharing());
+                entry.put("nodes", alternative.nodes());
+                list.add(entry);
+            }
+            routeParams.put("alternatives", list);
+        }
         return routeParams;
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes the directions of a route and converts them into an HTML friendly
      * String to be passed to the frontend.
      */
-    private String getDirectionsText() {
-
-        List<Router.NavigationDirection> directions = Router.routeDirections(SEMANTIC_STREET_GRAPH, ROUTE_LIST);
+    private String getDirectionsText(List<Router.NavigationDirection> directions) {
         if (directions == null || directions.isEmpty()) {
             return "";
         }
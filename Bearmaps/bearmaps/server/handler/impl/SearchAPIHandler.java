@@ -3,50 +3,105 @@ package bearmaps.server.handler.impl;
 import bearmaps.server.handler.APIRouteHandler;
 import spark.Request;
 import spark.Response;
-import bearmaps.utils.Tuple;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static bearmaps.utils.Constants.AUTOCOMPLETE_TOP_K;
 import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
 
 /**
  * Created by rahul
  */
-public class SearchAPIHandler extends APIRouteHandler<Tuple<Set<String>, String>, Object> {
+public class SearchAPIHandler extends APIRouteHandler<SearchAPIHandler.SearchRequest, Object> {
 
+    /**
+     * Optional parameters:<br>
+     * limit : the most names to return,<br>
+     * fuzzy : if present, match the words of the term in any order, allowing typos,<br>
+     * lon, lat : with fuzzy, rank places near this location higher.
+     */
+    private static final String LIMIT_PARAM = "limit";
+    private static final String FUZZY_PARAM = "fuzzy";
+    private static final String LON_PARAM = "lon";
+    private static final String LAT_PARAM = "lat";
+
+    /** A parsed search request. */
+    static class SearchRequest {
+        final Set<String> params;
+        final String term;
+        final int limit;
+        final double lon;
+        final double lat;
+
+        SearchRequest(Set<String> params, String term, int limit, double lon, double lat) {
+            this.params = params;
+            this.term = term;
+            this.limit = limit;
+            this.lon = lon;
+            this.lat = lat;
+        }
+    }
 
     @Override
-    protected Tuple<Set<String>, String> parseRequestParams(Request request) {
-        return new Tuple<>(request.queryParams(), request.queryParams("term"));
+    protected SearchRequest parseRequestParams(Request request) {
+        int limit = AUTOCOMPLETE_TOP_K;
+        String limitParam = request.queryParams(LIMIT_PARAM);
+        if (limitParam != null) {
+            try {
+                limit = Math.max(0, Integer.parseInt(limitParam));
+            } catch (NumberFormatException e) {
+                /* Fall back to the default limit. */
+            }
+        }
+        return new SearchRequest(request.queryParams(), request.queryParams("term"), limit,
+                parseCoordinate(request.queryParams(LON_PARAM)),
+                parseCoordinate(request.queryParams(LAT_PARAM)));
+    }
+
+    /* Returns VALUE as a double, or NaN if it is missing or malformed. */
+    private static double parseCoordinate(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
     }
 
     @Override
-    protected Object processRequest(Tuple<Set<String>, String> requestParams, Response response) {
-        Set<String> reqParams = requestParams.getFirst();
-        String term = requestParams.getSecond();
+    protected Object processRequest(SearchRequest requestParams, Response response) {
+        String term = requestParams.term == null ? "" : requestParams.term;
         Object result;
         /* Search for actual location data. */
-        if (reqParams.contains("full")) {
+        if (requestParams.params.contains("full")) {
             result = getLocations(term);
+        } else if (requestParams.params.contains(FUZZY_PARAM)) {
+            /* Search for names containing the words of the term. */
+            result = SEMANTIC_STREET_GRAPH.searchLocations(term, requestParams.limit,
+                    requestParams.lon, requestParams.lat);
         } else {
             /* Search for prefix matching strings. */
-            result = getLocationsByPrefix(term);
+            result = getLocationsByPrefix(term, requestParams.limit);
         }
         return result;
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Collect the names of the most popular OSM locations that prefix-match the query string,
+     * in time proportional to the prefix length and LIMIT.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
+     * @param limit The most names to return, at most Constants.AUTOCOMPLETE_TOP_K.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
      * cleaned <code>prefix</code>.
      */
-    public List<String> getLocationsByPrefix(String prefix) {
+    public List<String> getLocationsByPrefix(String prefix, int limit) {
 
-        return SEMANTIC_STREET_GRAPH.getLocationsByPrefix(prefix);
+        return SEMANTIC_STREET_GRAPH.getLocationsByPrefix(prefix, limit);
     }
 
     /**
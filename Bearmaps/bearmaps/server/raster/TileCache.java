@@ -0,0 +1,170 @@
+package bearmaps.server.raster;
+
+import bearmaps.utils.cache.LRUCache;
+import bearmaps.utils.metrics.Metrics;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoded map tiles, kept in memory so repeated raster requests neither read
+ * nor decode the same PNGs again. Tiles are keyed by "d{depth}_x{x}_y{y}",
+ * stored as TYPE_INT_RGB images (which draw without per-pixel conversion) and
+ * evicted least recently used first once their pixel data exceeds the byte
+ * limit. Tiles come from a TilePyramid, which makes missing ones on demand.
+ *
+ * Optionally, after each raster request the ring of tiles just outside the
+ * requested grid is loaded in the background, so a short pan finds its new
+ * edge tiles already decoded.
+ *
+ * The tile cache is registered as "raster.tiles", so the newest TileCache is
+ * the one reported.
+ */
+public class TileCache {
+    /** Bytes per pixel of a TYPE_INT_RGB image. */
+    private static final int BYTES_PER_PIXEL = 4;
+    /** Prefetch requests beyond this many pending ones are dropped. */
+    private static final int MAX_PENDING_PREFETCHES = 256;
+
+    private final TilePyramid pyramid;
+    private final LRUCache<String, BufferedImage> tiles;
+    private final ExecutorService prefetcher;
+
+    /**
+     * @param imgRoot The folder holding the tile PNGs.
+     * @param maxBytes The most decoded pixel data to keep.
+     * @param prefetch Whether prefetchRing loads anything.
+     */
+    public TileCache(String imgRoot, long maxBytes, boolean prefetch) {
+        this(new TilePyramid(imgRoot), maxBytes, prefetch);
+    }
+
+    /**
+     * @param pyramid Where tiles are read from, or made.
+     * @param maxBytes The most decoded pixel data to keep.
+     * @param prefetch Whether prefetchRing loads anything.
+     */
+    public TileCache(TilePyramid pyramid, long maxBytes, boolean prefetch) {
+        this.pyramid = pyramid;
+        this.tiles = new LRUCache<>(maxBytes,
+                img -> (long) img.getWidth() * img.getHeight() * BYTES_PER_PIXEL);
+        Metrics.cache("raster.tiles", tiles);
+        if (prefetch) {
+            this.prefetcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(MAX_PENDING_PREFETCHES), r -> {
+                        Thread t = new Thread(r, "tile-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+        } else {
+            this.prefetcher = null;
+        }
+    }
+
+    /** Returns the pyramid tiles come from. */
+    public TilePyramid pyramid() {
+        return pyramid;
+    }
+
+    /** Returns the cache key of a tile. */
+    public static String key(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y;
+    }
+
+    /**
+     * Returns the tile named by the file name FILENAME, such as
+     * "d2_x0_y3.png", or null if it can be neither read nor made.
+     */
+    public BufferedImage get(String fileName) {
+        String key = fileName.endsWith(".png")
+                ? fileName.substring(0, fileName.length() - ".png".length()) : fileName;
+        return tiles.getOrLoad(key, this::load);
+    }
+
+    /** Returns the tile at DEPTH, X, Y, or null if it can be neither read nor made. */
+    public BufferedImage get(int depth, int x, int y) {
+        return tiles.getOrLoad(key(depth, x, y), this::load);
+    }
+
+    /**
+     * Queues background loads of the tiles bordering the grid of depth DEPTH
+     * spanning columns MINX to MAXX and rows MINY to MAXY, skipping tiles that
+     * are off the map or already cached. Does nothing if prefetching is off.
+     */
+    public void prefetchRing(int depth, int minX, int minY, int maxX, int maxY) {
+        if (prefetcher == null) {
+            return;
+        }
+        for (int y = minY - 1; y <= maxY + 1; y++) {
+            for (int x = minX - 1; x <= maxX + 1; x++) {
+                boolean inside = x >= minX && x <= maxX && y >= minY && y <= maxY;
+                if (inside || !pyramid.contains(depth, x, y)) {
+                    continue;
+                }
+                String key = key(depth, x, y);
+                if (tiles.containsKey(key)) {
+                    continue;
+                }
+                try {
+                    prefetcher.execute(() -> {
+                        if (!tiles.containsKey(key)) {
+                            BufferedImage img = load(key);
+                            if (img != null) {
+                                tiles.put(key, img);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /* Gets the tile KEY from the pyramid, converting it to TYPE_INT_RGB. */
+    private BufferedImage load(String key) {
+        BufferedImage decoded = pyramid.tile(key);
+        if (decoded == null || decoded.getType() == BufferedImage.TYPE_INT_RGB) {
+            return decoded;
+        }
+        BufferedImage img = new BufferedImage(decoded.getWidth(), decoded.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics g = img.getGraphics();
+        g.drawImage(decoded, 0, 0, null);
+        g.dispose();
+        return img;
+    }
+
+
+    public long hits() {
+        return tiles.hits();
+    }
+
+    public long misses() {
+        return tiles.misses();
+    }
+
+    public long evictions() {
+        return tiles.evictions();
+    }
+
+    /** Returns the number of tiles held. */
+    public int size() {
+        return tiles.size();
+    }
+
+    /** Returns the bytes of decoded pixel data held. */
+    public long sizeInBytes() {
+        return tiles.weight();
+    }
+
+    @Override
+    public String toString() {
+        return "TileCache: " + tiles;
+    }
+}
@@ -0,0 +1,117 @@
+package bearmaps.server.raster;
+
+import bearmaps.utils.metrics.Metrics;
+import bearmaps.utils.metrics.Timer;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assembles a render grid of tiles into one image. With more than one thread,
+ * each tile is fetched from the TileCache (and so read and decoded on a miss)
+ * and copied into its own region of the raster on a fixed pool of daemon
+ * threads; regions never overlap, so the copies need no locking.
+ *
+ * Records "raster.load" (each tile fetch) and "raster.composite" (the whole
+ * grid, loads included).
+ */
+public class TileCompositor {
+    private static final Timer LOAD = Metrics.timer("raster.load");
+    private static final Timer COMPOSITE = Metrics.timer("raster.composite");
+
+    private final TileCache tiles;
+    private final int tileSize;
+    private final ExecutorService pool;
+
+    /**
+     * @param threads Threads for parallel compositing; 1 composites on the
+     *                calling thread.
+     */
+    public TileCompositor(TileCache tiles, int tileSize, int threads) {
+        this.tiles = tiles;
+        this.tileSize = tileSize;
+        if (threads > 1) {
+            AtomicInteger count = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "tile-composite-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            pool = null;
+        }
+    }
+
+    /**
+     * Returns a TYPE_INT_RGB image with tile RENDERGRID[r][c], named by its file
+     * name, at row r and column c. Tiles that cannot be read are left black.
+     * @throws IllegalStateException If interrupted before every tile is drawn,
+     * rather than return a partial image that could be cached.
+     */
+    public BufferedImage composite(String[][] renderGrid) {
+        long start = System.nanoTime();
+        int rows = renderGrid.length;
+        int cols = renderGrid[0].length;
+        BufferedImage img = new BufferedImage(cols * tileSize, rows * tileSize,
+                BufferedImage.TYPE_INT_RGB);
+
+        if (pool == null || rows * cols == 1) {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    drawTile(img, renderGrid[r][c], c * tileSize, r * tileSize);
+                }
+            }
+        } else {
+            List<Future<?>> pending = new ArrayList<>(rows * cols);
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    String name = renderGrid[r][c];
+                    int x = c * tileSize;
+                    int y = r * tileSize;
+                    pending.add(pool.submit(() -> drawTile(img, name, x, y)));
+                }
+            }
+            try {
+                for (Future<?> f : pending) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                for (Future<?> f : pending) {
+                    f.cancel(false);
+                }
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while compositing tiles", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        COMPOSITE.recordSince(start);
+        return img;
+    }
+
+    /* Fetches tile NAME and copies it into IMG with its upper left corner at X, Y. */
+    private void drawTile(BufferedImage img, String name, int x, int y) {
+        long start = System.nanoTime();
+        BufferedImage tile = tiles.get(name);
+        LOAD.recordSince(start);
+        if (tile == null) {
+            return;
+        }
+        if (tile.getType() == BufferedImage.TYPE_INT_RGB
+                && tile.getWidth() == tileSize && tile.getHeight() == tileSize) {
+            /* Same pixel layout: a row-by-row array copy into our region. */
+            img.getRaster().setDataElements(x, y, tile.getRaster());
+        } else {
+            Graphics g = img.getGraphics();
+            g.drawImage(tile, x, y, null);
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package bearmaps.server.raster;
+
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.metrics.Metrics;
+import bearmaps.utils.metrics.Timer;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The quadtree of map tiles over a root box: tile (depth, x, y), stored as
+ * "d{depth}_x{x}_y{y}.png", covers column x and row y of the 2^depth by
+ * 2^depth division of the root box, for depths 0 through maxDepth().
+ *
+ * A tile is read from imgRoot, the precomputed tile set, or else from
+ * cacheRoot, where tiles made on demand are kept. A tile in neither is made
+ * on demand: downsampled from its four children if they are all on disk, and
+ * otherwise drawn from the street graph by a TileRenderer. It is then written
+ * to cacheRoot, so it is made once per server and not once per start.
+ * Concurrent requests for the same missing tile wait for one shared render.
+ *
+ * Tiles in cacheRoot hold the graph they were drawn from, so cacheRoot keeps
+ * that graph's fingerprint in graph.fingerprint. The first time a graph is at
+ * hand, a cacheRoot whose fingerprint does not match it is emptied of tiles,
+ * as the snapshot, landmark and hierarchy files are rebuilt for a changed
+ * graph. Until then cacheRoot is neither read nor written.
+ *
+ * The root box and depth are read from imgRoot/pyramid.properties, as written
+ * by TilePyramidGenerator; without that file they are Constants.ROOT_* and
+ * Constants.RASTER_MAX_DEPTH, those of the Berkeley tile set.
+ *
+ * Records "raster.render" (each tile drawn from the graph) and
+ * "raster.downsample" (each tile made from its children).
+ */
+public class TilePyramid {
+    /** The file in a tile folder that gives its root box and depth. */
+    public static final String PROPERTIES_FILE = "pyramid.properties";
+    /** The file in a cache folder that gives the fingerprint of the graph its tiles show. */
+    public static final String FINGERPRINT_FILE = "graph.fingerprint";
+
+    private static final Timer RENDER = Metrics.timer("raster.render");
+    private static final Timer DOWNSAMPLE = Metrics.timer("raster.downsample");
+
+    private final String imgRoot;
+    private final String cacheRoot;
+    private final Supplier<CompactStreetMapGraph> graph;
+    private final double ulLon;
+    private final double ulLat;
+    private final double lrLon;
+    private final double lrLat;
+    private final int maxDepth;
+    private final int tileSize;
+
+    /* Renders in progress, by tile key. */
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> pending =
+            new ConcurrentHashMap<>();
+    private volatile TileRenderer renderer;
+    /* Whether cacheRoot matches the graph, or null until it is checked. */
+    private volatile Boolean cacheValid;
+
+    /** A pyramid of the tiles in IMGROOT that makes no tiles of its own. */
+    public TilePyramid(String imgRoot) {
+        this(imgRoot, null, () -> null);
+    }
+
+    /**
+     * A pyramid of the tiles in IMGROOT that makes missing tiles from the
+     * graph GRAPH supplies and keeps them in CACHEROOT. GRAPH is asked only
+     * when a tile is first needed from CACHEROOT, and may supply null while no
+     * graph is loaded; only tiles in IMGROOT are then served.
+     */
+    public TilePyramid(String imgRoot, String cacheRoot, Supplier<CompactStreetMapGraph> graph) {
+        this.imgRoot = imgRoot;
+        this.cacheRoot = cacheRoot;
+        this.graph = graph;
+        this.tileSize = Constants.TILE_SIZE;
+        Properties p = new Properties();
+        Path properties = Paths.get(imgRoot, PROPERTIES_FILE);
+        if (Files.isRegularFile(properties)) {
+            try (InputStream in = Files.newInputStream(properties)) {
+                p.load(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        ulLon = Double.parseDouble(p.getProperty("ullon", String.valueOf(Constants.ROOT_ULLON)));
+        ulLat = Double.parseDouble(p.getProperty("ullat", String.valueOf(Constants.ROOT_ULLAT)));
+        lrLon = Double.parseDouble(p.getProperty("lrlon", String.valueOf(Constants.ROOT_LRLON)));
+        lrLat = Double.parseDouble(p.getProperty("lrlat", String.valueOf(Constants.ROOT_LRLAT)));
+        maxDepth = Integer.parseInt(p.getProperty("depth",
+                String.valueOf(Constants.RASTER_MAX_DEPTH)));
+    }
+
+    /**
+     * Writes the root box and depth of a pyramid to DIR/pyramid.properties,
+     * creating DIR if needed.
+     */
+    public static void writeProperties(String dir, double ulLon, double ulLat, double lrLon,
+                                       double lrLat, int maxDepth) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("ullon", String.valueOf(ulLon));
+        p.setProperty("ullat", String.valueOf(ulLat));
+        p.setProperty("lrlon", String.valueOf(lrLon));
+        p.setProperty("lrlat", String.valueOf(lrLat));
+        p.setProperty("depth", String.valueOf(maxDepth));
+        Files.createDirectories(Paths.get(dir));
+        try (OutputStream out = Files.newOutputStream(Paths.get(dir, PROPERTIES_FILE))) {
+            p.store(out, "Tile pyramid root box and depth");
+        }
+    }
+
+    public double ulLon() {
+        return ulLon;
+    }
+
+    public double ulLat() {
+        return ulLat;
+    }
+
+    public double lrLon() {
+        return lrLon;
+    }
+
+    public double lrLat() {
+        return lrLat;
+    }
+
+    /** Returns the deepest level served. */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /** Returns whether (DEPTH, X, Y) is a tile of this pyramid. */
+    public boolean contains(int depth, int x, int y) {
+        return depth >= 0 && depth <= maxDepth && x >= 0 && y >= 0
+                && x < (1 << depth) && y < (1 << depth);
+    }
+
+    /**
+     * Returns tile (DEPTH, X, Y), making it if it is missing, or null if it is
+     * not a tile of this pyramid or can be neither read nor made.
+     */
+    public BufferedImage tile(int depth, int x, int y) {
+        if (!contains(depth, x, y)) {
+            return null;
+        }
+        String key = TileCache.key(depth, x, y);
+        Path stored = stored(key);
+        if (stored != null) {
+            return read(stored);
+        }
+        if (!cacheUsable()) {
+            return null;
+        }
+
+        CompletableFuture<BufferedImage> mine = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> theirs = pending.putIfAbsent(key, mine);
+        if (theirs != null) {
+            return theirs.join();
+        }
+        try {
+            /* Another thread may have finished this tile since we looked. */
+            stored = stored(key);
+            BufferedImage img = stored != null ? read(stored) : make(depth, x, y);
+            if (stored == null && img != null) {
+                write(key, img);
+            }
+            mine.complete(img);
+            return img;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            pending.remove(key, mine);
+        }
+    }
+
+    /** Returns the tile with key KEY, such as "d2_x0_y3", as tile(depth, x, y) would. */
+    public BufferedImage tile(String key) {
+        int[] dxy = parseKey(key);
+        return dxy == null ? null : tile(dxy[0], dxy[1], dxy[2]);
+    }
+
+    /** Returns the file of the tile with key KEY, as file(depth, x, y) would. */
+    public Path file(String key) {
+        int[] dxy = parseKey(key);
+        return dxy == null ? null : file(dxy[0], dxy[1], dxy[2]);
+    }
+
+    /**
+     * Returns the file of tile (DEPTH, X, Y), making the tile first if it is
+     * missing, or null if there is none.
+     */
+    public Path file(int depth, int x, int y) {
+        if (!contains(depth, x, y)) {
+            return null;
+        }
+        String key = TileCache.key(depth, x, y);
+        Path stored = stored(key);
+        if (stored == null && tile(depth, x, y) != null) {
+            stored = stored(key);
+        }
+        return stored;
+    }
+
+    /* Returns the depth, x and y of the tile with key KEY, which may end in
+       ".png", or null if it is malformed. */
+    private static int[] parseKey(String key) {
+        if (key.endsWith(".png")) {
+            key = key.substring(0, key.length() - ".png".length());
+        }
+        int x = key.indexOf("_x");
+        int y = key.indexOf("_y");
+        if (!key.startsWith("d") || x < 0 || y < x) {
+            return null;
+        }
+        try {
+            return new int[]{Integer.parseInt(key.substring(1, x)),
+                    Integer.parseInt(key.substring(x + 2, y)),
+                    Integer.parseInt(key.substring(y + 2))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /* Returns the file holding tile KEY, in imgRoot or cacheRoot, or null. */
+    private Path stored(String key) {
+        /* Checked first, since imgRoot may be cacheRoot. */
+        boolean cached = cacheUsable();
+        Path p = Paths.get(imgRoot, key + ".png");
+        if (Files.isRegularFile(p)) {
+            return p;
+        }
+        if (cached) {
+            p = Paths.get(cacheRoot, key + ".png");
+            if (Files.isRegularFile(p)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /* Makes tile (DEPTH, X, Y) from its children on disk, or else from the graph. */
+    private BufferedImage make(int depth, int x, int y) {
+        if (depth < maxDepth) {
+            Path[] children = new Path[4];
+            boolean all = true;
+            for (int i = 0; i < 4 && all; i++) {
+                children[i] = stored(TileCache.key(depth + 1, 2 * x + (i & 1), 2 * y + (i >> 1)));
+                all = children[i] != null;
+            }
+            if (all) {
+                return downsample(children);
+            }
+        }
+        TileRenderer r = renderer();
+        if (r == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        BufferedImage img = r.render(depth, x, y);
+        RENDER.recordSince(start);
+        return img;
+    }
+
+    /* Scales the four CHILDREN, upper left, upper right, lower left and lower
+       right, into one tile. */
+    private BufferedImage downsample(Path[] children) {
+        long start = System.nanoTime();
+        BufferedImage img = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = img.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        int half = tileSize / 2;
+        for (int i = 0; i < 4; i++) {
+            BufferedImage child = read(children[i]);
+            if (child != null) {
+                g2d.drawImage(child, (i & 1) * half, (i >> 1) * half, half, half, null);
+            }
+        }
+        g2d.dispose();
+        DOWNSAMPLE.recordSince(start);
+        return img;
+    }
+
+    /* Returns whether tiles may be read from and written to cacheRoot: there
+       is one, and it has been checked against the graph. */
+    private boolean cacheUsable() {
+        if (cacheRoot == null) {
+            return false;
+        }
+        Boolean valid = cacheValid;
+        if (valid == null) {
+            synchronized (this) {
+                valid = cacheValid;
+                CompactStreetMapGraph g = graph.get();
+                if (valid == null && g != null) {
+                    valid = checkCache(Long.toHexString(g.fingerprint()));
+                    cacheValid = valid;
+                }
+            }
+        }
+        return valid != null && valid;
+    }
+
+    /* Deletes the tiles in cacheRoot unless its fingerprint file holds
+       FINGERPRINT, and then writes FINGERPRINT there. Returns whether that
+       succeeded; a failure is reported, and leaves cacheRoot unused. */
+    private boolean checkCache(String fingerprint) {
+        Path dir = Paths.get(cacheRoot);
+        Path marker = dir.resolve(FINGERPRINT_FILE);
+        try {
+            if (Files.isRegularFile(marker) && fingerprint.equals(
+                    new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim())) {
+                return true;
+            }
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> tiles = Files.newDirectoryStream(dir, "d*_x*_y*.png")) {
+                for (Path tile : tiles) {
+                    Files.delete(tile);
+                }
+            }
+            Files.write(marker, fingerprint.getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /* Returns the renderer for the current graph, building it on first use. */
+    private TileRenderer renderer() {
+        TileRenderer r = renderer;
+        if (r == null) {
+            synchronized (this) {
+                r = renderer;
+                CompactStreetMapGraph g = graph.get();
+                if (r == null && g != null) {
+                    r = new TileRenderer(g, ulLon, ulLat, lrLon, lrLat, tileSize);
+                    renderer = r;
+                }
+            }
+        }
+        return r;
+    }
+
+    private static BufferedImage read(Path p) {
+        try {
+            return ImageIO.read(p.toFile());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /* Writes IMG as tile KEY in cacheRoot, through a temporary file so that a
+       half written tile is never read. A failure is reported but not fatal. */
+    private void write(String key, BufferedImage img) {
+        try {
+            Path dir = Files.createDirectories(Paths.get(cacheRoot));
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                PngEncoder.write(img, out, PngEncoder.DEFAULT_COMPRESSION);
+            }
+            Files.move(tmp, dir.resolve(key + ".png"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package bearmaps.server.raster;
+
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Command line tool that draws a tile pyramid for the street graph of an OSM
+ * file, for regions the Berkeley tile set does not cover. Point
+ * Constants.IMG_ROOT at the output folder to serve it.
+ *
+ * The root box is the bounding box of the graph, padded and widened so that
+ * tiles are about as many miles tall as wide. Levels are made deepest first,
+ * each one in parallel: the deepest level is drawn from the graph and every
+ * level above is downsampled from the one below. Levels deeper than the
+ * precompute depth are left for the server to draw on demand.
+ *
+ * Usage: TilePyramidGenerator [osm file] [output folder] [max depth] [precompute depth]
+ * The OSM file defaults to Constants.OSM_DB_PATH, the output folder to the
+ * OSM file's path plus ".tiles/", the max depth to Constants.RASTER_MAX_DEPTH
+ * and the precompute depth to the max depth.
+ */
+public class TilePyramidGenerator {
+    /** Padding around the graph, as a fraction of its width or height. */
+    private static final double PADDING = 0.02;
+
+    public static void main(String[] args) throws IOException {
+        String osmPath = args.length > 0 ? args[0] : Constants.OSM_DB_PATH;
+        String outDir = args.length > 1 ? args[1] : osmPath + ".tiles/";
+        int maxDepth = args.length > 2 ? Integer.parseInt(args[2]) : Constants.RASTER_MAX_DEPTH;
+        int precomputeDepth = args.length > 3 ? Integer.parseInt(args[3]) : maxDepth;
+
+        long t0 = System.nanoTime();
+        CompactStreetMapGraph g = new StreetMapGraph(osmPath).compact();
+        long t1 = System.nanoTime();
+        System.out.printf("Parsed %s: %d vertices, %d edges in %.2f s%n",
+                osmPath, g.numVertices(), g.numEdges(), (t1 - t0) / 1e9);
+
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < g.numVertices(); v++) {
+            minLon = Math.min(minLon, g.lon(v));
+            maxLon = Math.max(maxLon, g.lon(v));
+            minLat = Math.min(minLat, g.lat(v));
+            maxLat = Math.max(maxLat, g.lat(v));
+        }
+        double midLon = (minLon + maxLon) / 2;
+        double midLat = (minLat + maxLat) / 2;
+        /* A degree of longitude is cos(latitude) times as long as one of latitude. */
+        double lonPerLat = 1 / Math.cos(Math.toRadians(midLat));
+        double halfLat = (1 + PADDING)
+                * Math.max(maxLat - minLat, (maxLon - minLon) / lonPerLat) / 2;
+        double halfLon = halfLat * lonPerLat;
+        TilePyramid.writeProperties(outDir, midLon - halfLon, midLat + halfLat,
+                midLon + halfLon, midLat - halfLat, maxDepth);
+
+        TilePyramid pyramid = new TilePyramid(outDir, outDir, () -> g);
+        for (int depth = Math.min(precomputeDepth, maxDepth); depth >= 0; depth--) {
+            long start = System.nanoTime();
+            int side = 1 << depth;
+            int d = depth;
+            AtomicInteger missing = new AtomicInteger();
+            IntStream.range(0, side * side).parallel().forEach(i -> {
+                if (pyramid.tile(d, i % side, i / side) == null) {
+                    missing.incrementAndGet();
+                }
+            });
+            System.out.printf("Depth %d: %d tiles in %.2f s%s%n", depth, side * side,
+                    (System.nanoTime() - start) / 1e9,
+                    missing.get() == 0 ? "" : ", " + missing.get() + " failed");
+        }
+        System.out.printf("Wrote %s in %.2f s%n", outDir, (System.nanoTime() - t1) / 1e9);
+    }
+}
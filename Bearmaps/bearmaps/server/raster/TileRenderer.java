@@ -0,0 +1,170 @@
+package bearmaps.server.raster;
+
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws map tiles from the street graph itself, for tiles no image set has.
+ * Tile (depth, x, y) covers column x and row y of the 2^depth by 2^depth
+ * division of the root box, as for the precomputed tiles.
+ *
+ * Edges are indexed in a GRID_CELLS by GRID_CELLS grid over the root box: an
+ * edge is listed in every cell its bounding box touches, so a tile only looks
+ * at the edges of the cells it overlaps. An edge listed in several of those
+ * cells is drawn from the first one only. Immutable once built, so any number
+ * of tiles can be drawn at once.
+ */
+public class TileRenderer {
+    /** Grid cells per side of the root box. */
+    private static final int GRID_CELLS = 256;
+    /** Road width on the ground, in degrees of longitude (about 3 meters). */
+    private static final double ROAD_WIDTH_DEGREES = 0.00003;
+    private static final float MIN_ROAD_PX = 1f;
+    private static final float MAX_ROAD_PX = 8f;
+    private static final Color BACKGROUND = new Color(242, 239, 233);
+    private static final Color CASING = new Color(190, 184, 176);
+    private static final Color ROAD = Color.WHITE;
+
+    private final CompactStreetMapGraph g;
+    private final double ulLon;
+    private final double ulLat;
+    private final double lrLon;
+    private final double lrLat;
+    private final int tileSize;
+
+    /* The source vertex of each edge. */
+    private final int[] edgeSources;
+    /* The edges listed in cell c are cellEdges[cellBegins[c]] through
+       cellEdges[cellBegins[c + 1] - 1]; cell (cx, cy) is c = cy * GRID_CELLS + cx. */
+    private final int[] cellBegins;
+    private final int[] cellEdges;
+
+    /**
+     * Indexes the edges of G for drawing tiles of TILESIZE pixels in the root
+     * box with upper left corner (ULLON, ULLAT) and lower right corner
+     * (LRLON, LRLAT). Each pair of opposite edges is drawn once.
+     */
+    public TileRenderer(CompactStreetMapGraph g, double ulLon, double ulLat, double lrLon,
+                        double lrLat, int tileSize) {
+        this.g = g;
+        this.ulLon = ulLon;
+        this.ulLat = ulLat;
+        this.lrLon = lrLon;
+        this.lrLat = lrLat;
+        this.tileSize = tileSize;
+
+        edgeSources = new int[g.numEdges()];
+        int[] next = new int[GRID_CELLS * GRID_CELLS + 1];
+        listEdges(next, null);
+        for (int c = 0; c < GRID_CELLS * GRID_CELLS; c++) {
+            next[c + 1] += next[c];
+        }
+        cellBegins = next.clone();
+        cellEdges = new int[next[GRID_CELLS * GRID_CELLS]];
+        listEdges(next, cellEdges);
+    }
+
+    /* Walks every edge to a higher numbered vertex and every cell its bounding
+       box touches. With OUT null, counts the edges of cell c in NEXT[c + 1];
+       otherwise stores each edge at OUT[NEXT[c]++]. */
+    private void listEdges(int[] next, int[] out) {
+        for (int v = 0; v < g.numVertices(); v++) {
+            for (int e = g.edgesBegin(v); e < g.edgesEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                if (w < v) {
+                    continue;
+                }
+                edgeSources[e] = v;
+                int cx0 = cellX(Math.min(g.lon(v), g.lon(w)));
+                int cx1 = cellX(Math.max(g.lon(v), g.lon(w)));
+                int cy0 = cellY(Math.max(g.lat(v), g.lat(w)));
+                int cy1 = cellY(Math.min(g.lat(v), g.lat(w)));
+                for (int cy = cy0; cy <= cy1; cy++) {
+                    for (int cx = cx0; cx <= cx1; cx++) {
+                        int c = cy * GRID_CELLS + cx;
+                        if (out == null) {
+                            next[c + 1]++;
+                        } else {
+                            out[next[c]++] = e;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Draws tile (DEPTH, X, Y): roads in white with a grey casing on a pale background. */
+    public BufferedImage render(int depth, int x, int y) {
+        double tileWidth = (lrLon - ulLon) / (1 << depth);
+        double tileHeight = (ulLat - lrLat) / (1 << depth);
+        double tileUlLon = ulLon + x * tileWidth;
+        double tileUlLat = ulLat - y * tileHeight;
+        double xScale = tileSize / tileWidth;
+        double yScale = tileSize / tileHeight;
+        float roadPx = (float) Math.max(MIN_ROAD_PX,
+                Math.min(MAX_ROAD_PX, ROAD_WIDTH_DEGREES * xScale));
+
+        /* The cells under the tile, widened by a road width so that roads
+           just outside still draw their edge into it. */
+        double marginLon = (roadPx + 2) / xScale;
+        double marginLat = (roadPx + 2) / yScale;
+        int qx0 = cellX(tileUlLon - marginLon);
+        int qx1 = cellX(tileUlLon + tileWidth + marginLon);
+        int qy0 = cellY(tileUlLat + marginLat);
+        int qy1 = cellY(tileUlLat - tileHeight - marginLat);
+
+        Path2D.Double roads = new Path2D.Double();
+        for (int cy = qy0; cy <= qy1; cy++) {
+            for (int cx = qx0; cx <= qx1; cx++) {
+                int c = cy * GRID_CELLS + cx;
+                for (int i = cellBegins[c]; i < cellBegins[c + 1]; i++) {
+                    int e = cellEdges[i];
+                    int v = edgeSources[e];
+                    int w = g.edgeTarget(e);
+                    /* Draw each edge from the first query cell that lists it. */
+                    int firstX = Math.max(qx0, cellX(Math.min(g.lon(v), g.lon(w))));
+                    int firstY = Math.max(qy0, cellY(Math.max(g.lat(v), g.lat(w))));
+                    if (cx != firstX || cy != firstY) {
+                        continue;
+                    }
+                    roads.moveTo((g.lon(v) - tileUlLon) * xScale,
+                            (tileUlLat - g.lat(v)) * yScale);
+                    roads.lineTo((g.lon(w) - tileUlLon) * xScale,
+                            (tileUlLat - g.lat(w)) * yScale);
+                }
+            }
+        }
+
+        BufferedImage img = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = img.createGraphics();
+        g2d.setColor(BACKGROUND);
+        g2d.fillRect(0, 0, tileSize, tileSize);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(CASING);
+        g2d.setStroke(new BasicStroke(roadPx + 2, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.draw(roads);
+        g2d.setColor(ROAD);
+        g2d.setStroke(new BasicStroke(roadPx, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.draw(roads);
+        g2d.dispose();
+        return img;
+    }
+
+    /* Returns the grid column of longitude LON, clamped to the grid. */
+    private int cellX(double lon) {
+        int cx = (int) Math.floor((lon - ulLon) / (lrLon - ulLon) * GRID_CELLS);
+        return Math.max(0, Math.min(GRID_CELLS - 1, cx));
+    }
+
+    /* Returns the grid row of latitude LAT, clamped to the grid. */
+    private int cellY(double lat) {
+        int cy = (int) Math.floor((ulLat - lat) / (ulLat - lrLat) * GRID_CELLS);
+        return Math.max(0, Math.min(GRID_CELLS - 1, cy));
+    }
+}
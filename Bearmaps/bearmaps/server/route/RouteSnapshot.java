@@ -0,0 +1,104 @@
+package bearmaps.server.route;
+
+import bearmaps.RouteResult;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable route: its node ids and, precomputed, their coordinates, so
+ * drawing it needs no graph lookups. Instances are safely shared between
+ * threads once constructed. Each has a serial number of its own, which
+ * identifies it exactly in keys of caches shared by all clients.
+ */
+public final class RouteSnapshot {
+    private static final AtomicLong SERIALS = new AtomicLong();
+
+    /** The route with no nodes. */
+    public static final RouteSnapshot EMPTY =
+            new RouteSnapshot(new long[0], new double[0], new double[0]);
+
+    private final long[] ids;
+    private final double[] lons;
+    private final double[] lats;
+    private final int hash;
+    private final long serial;
+
+    private RouteSnapshot(long[] ids, double[] lons, double[] lats) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.hash = Arrays.hashCode(ids);
+        this.serial = SERIALS.getAndIncrement();
+    }
+
+    /** Returns a snapshot of ROUTE, looking up each node's coordinates in G. */
+    public static RouteSnapshot of(StreetMapGraph g, RouteResult route) {
+        if (route.isEmpty()) {
+            return EMPTY;
+        }
+        int n = route.size();
+        long[] ids = new long[n];
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = route.id(i);
+            lons[i] = g.lon(ids[i]);
+            lats[i] = g.lat(ids[i]);
+        }
+        return new RouteSnapshot(ids, lons, lats);
+    }
+
+    /**
+     * Returns this snapshot's serial number, which no other snapshot has,
+     * even one of the same route.
+     */
+    public long serial() {
+        return serial;
+    }
+
+    /** Returns the number of nodes on the route. */
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    /** Returns the id of the Ith node. */
+    public long id(int i) {
+        return ids[i];
+    }
+
+    public double lon(int i) {
+        return lons[i];
+    }
+
+    public double lat(int i) {
+        return lats[i];
+    }
+
+    /** Returns the node ids as a new list. */
+    public List<Long> ids() {
+        List<Long> list = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    /** Returns a hash of the node ids, equal for equal routes. */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RouteSnapshot && Arrays.equals(ids, ((RouteSnapshot) o).ids);
+    }
+}
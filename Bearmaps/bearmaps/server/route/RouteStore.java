@@ -0,0 +1,98 @@
+package bearmaps.server.route;
+
+import spark.Request;
+import spark.Session;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The current route of every client. A client is identified by the
+ * "route_token" query parameter if it sends one, and by its HTTP session
+ * otherwise. Routes are immutable RouteSnapshots published through a
+ * ConcurrentHashMap, so readers never lock and never see a half-built route.
+ *
+ * A route not read or replaced for the time-to-live is dropped. Expired
+ * entries are swept out during puts, at most once per quarter of the TTL.
+ */
+public class RouteStore {
+    /** Optional request parameter naming the route to use instead of the session. */
+    public static final String TOKEN_PARAM = "route_token";
+
+    private final long ttlMillis;
+    private final Map<String, Entry> routes = new ConcurrentHashMap<>();
+    private volatile long lastSweepMillis = System.currentTimeMillis();
+
+    public RouteStore(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /** Returns the key of REQUEST's route, starting a session if it needs one. */
+    public static String key(Request request) {
+        return key(request, true);
+    }
+
+    /**
+     * Returns the key of REQUEST's route. Returns null if the request has
+     * neither a token nor a session and CREATE is false.
+     */
+    public static String key(Request request, boolean create) {
+        String token = request.queryParams(TOKEN_PARAM);
+        if (token != null && !token.isEmpty()) {
+            return "token:" + token;
+        }
+        Session session = request.session(create);
+        return session == null ? null : "session:" + session.id();
+    }
+
+    /** Returns REQUEST's route without starting a session for it. */
+    public RouteSnapshot get(Request request) {
+        String key = key(request, false);
+        return key == null ? RouteSnapshot.EMPTY : get(key);
+    }
+
+    /** Returns the route stored under KEY, or RouteSnapshot.EMPTY if there is none. */
+    public RouteSnapshot get(String key) {
+        Entry entry = routes.get(key);
+        long now = System.currentTimeMillis();
+        if (entry == null || now - entry.lastAccessMillis > ttlMillis) {
+            return RouteSnapshot.EMPTY;
+        }
+        entry.lastAccessMillis = now;
+        return entry.route;
+    }
+
+    /** Makes ROUTE the route stored under KEY; an empty route removes it. */
+    public void put(String key, RouteSnapshot route) {
+        long now = System.currentTimeMillis();
+        if (route.isEmpty()) {
+            routes.remove(key);
+        } else {
+            routes.put(key, new Entry(route, now));
+        }
+        if (now - lastSweepMillis > ttlMillis / 4) {
+            lastSweepMillis = now;
+            routes.values().removeIf(e -> now - e.lastAccessMillis > ttlMillis);
+        }
+    }
+
+    /** Removes the route stored under KEY. */
+    public void remove(String key) {
+        routes.remove(key);
+    }
+
+    /** Returns the number of stored routes, expired ones not yet swept included. */
+    public int size() {
+        return routes.size();
+    }
+
+    private static class Entry {
+        final RouteSnapshot route;
+        volatile long lastAccessMillis;
+
+        Entry(RouteSnapshot route, long lastAccessMillis) {
+            this.route = route;
+            this.lastAccessMillis = lastAccessMillis;
+        }
+    }
+}
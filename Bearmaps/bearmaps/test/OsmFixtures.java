@@ -0,0 +1,58 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.graph.streetmap.GraphBuilder;
+import bearmaps.utils.graph.streetmap.GraphSnapshot;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds graphs from small OSM files written inline in the tests. Each graph
+ * is built once per run and shared by every test that asks for the same
+ * file.
+ */
+public class OsmFixtures {
+    private static final Map<String, CompactStreetMapGraph> COMPACT = new HashMap<>();
+    private static final Map<String, StreetMapGraph> STREET_MAPS = new HashMap<>();
+
+    private OsmFixtures() {
+    }
+
+    /**
+     * Writes XML to a temporary .osm.xml file, deleted when the tests end
+     * along with any snapshot saved beside it, and returns its path.
+     */
+    public static String write(String xml) throws IOException {
+        File file = File.createTempFile("fixture", ".osm.xml");
+        file.deleteOnExit();
+        new File(file.getPath() + GraphSnapshot.FILE_SUFFIX).deleteOnExit();
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    /** Returns the graph GraphBuilder builds from the OSM file XML. */
+    public static synchronized CompactStreetMapGraph build(String xml) throws IOException {
+        CompactStreetMapGraph graph = COMPACT.get(xml);
+        if (graph == null) {
+            graph = GraphBuilder.fromXML(write(xml));
+            COMPACT.put(xml, graph);
+        }
+        return graph;
+    }
+
+    /** Returns the StreetMapGraph of the OSM file XML. */
+    public static synchronized StreetMapGraph streetMap(String xml) throws IOException {
+        StreetMapGraph graph = STREET_MAPS.get(xml);
+        if (graph == null) {
+            graph = new StreetMapGraph(write(xml));
+            STREET_MAPS.put(xml, graph);
+        }
+        return graph;
+    }
+}
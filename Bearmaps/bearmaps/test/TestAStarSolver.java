@@ -0,0 +1,62 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.AStarGraph;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.WeightedEdge;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the outcomes of AStarSolver on the path 0 - 1 - 2, with edges of
+ * weight 1, and the lone vertex 3.
+ */
+public class TestAStarSolver {
+    private static final AStarGraph<Integer> GRAPH = new AStarGraph<Integer>() {
+        @Override
+        public List<WeightedEdge<Integer>> neighbors(Integer v) {
+            List<WeightedEdge<Integer>> edges = new ArrayList<>();
+            if (v > 0 && v < 3) {
+                edges.add(new WeightedEdge<>(v, v - 1, 1));
+            }
+            if (v < 2) {
+                edges.add(new WeightedEdge<>(v, v + 1, 1));
+            }
+            return edges;
+        }
+
+        @Override
+        public double estimatedDistanceToGoal(Integer s, Integer goal) {
+            return 0;
+        }
+    };
+
+    @Test
+    public void testSolved() {
+        AStarSolver<Integer> solver = new AStarSolver<>(GRAPH, 0, 2, 10);
+        assertEquals(SolverOutcome.SOLVED, solver.outcome());
+        assertEquals(Arrays.asList(0, 1, 2), solver.solution());
+        assertEquals(2, solver.solutionWeight(), 1e-9);
+    }
+
+    @Test
+    public void testUnreachableIsUnsolvable() {
+        AStarSolver<Integer> solver = new AStarSolver<>(GRAPH, 0, 3, 10);
+        assertEquals(SolverOutcome.UNSOLVABLE, solver.outcome());
+        assertEquals(Collections.emptyList(), solver.solution());
+        assertEquals(0, solver.solutionWeight(), 0);
+    }
+
+    @Test
+    public void testTimeout() {
+        AStarSolver<Integer> solver = new AStarSolver<>(GRAPH, 0, 2, 0);
+        assertEquals(SolverOutcome.TIMEOUT, solver.outcome());
+        assertEquals(Collections.emptyList(), solver.solution());
+    }
+}
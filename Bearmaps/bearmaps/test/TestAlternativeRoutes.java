@@ -0,0 +1,80 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.AlternativeRoutes;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests AlternativeRoutes on a straight road from 1 to 3 through 2, and a
+ * slightly longer road from 1 to 3 through 4 and 5, which shares none of it:
+ *
+ *   1 ------ 2 ------ 3
+ *     \             /
+ *      4 --------- 5
+ */
+public class TestAlternativeRoutes {
+    private static final String OSM = "<osm>\n"
+            + "<node id=\"1\" lon=\"0.000\" lat=\"38.000\"/>\n"
+            + "<node id=\"2\" lon=\"0.010\" lat=\"38.000\"/>\n"
+            + "<node id=\"3\" lon=\"0.020\" lat=\"38.000\"/>\n"
+            + "<node id=\"4\" lon=\"0.005\" lat=\"37.997\"/>\n"
+            + "<node id=\"5\" lon=\"0.015\" lat=\"37.997\"/>\n"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"primary\"/></way>\n"
+            + "<way id=\"11\"><nd ref=\"1\"/><nd ref=\"4\"/><nd ref=\"5\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "</osm>\n";
+
+    private static CompactStreetMapGraph graph;
+
+    @Before
+    public void setUp() throws IOException {
+        graph = OsmFixtures.build(OSM);
+    }
+
+    @Test
+    public void testFindsDisjointAlternative() {
+        AlternativeRoutes routes = find(1, 3, 3);
+        assertEquals(2, routes.size());
+        assertArrayEquals(vertices(1, 2, 3), routes.route(0));
+        assertArrayEquals(vertices(1, 4, 5, 3), routes.route(1));
+        assertEquals(routes.weight(0), routes.sharedWeight(0), 1e-9);
+        assertEquals(0, routes.sharedWeight(1), 1e-9);
+        assertTrue(routes.weight(1) > routes.weight(0));
+        assertTrue(routes.weight(1) <= AlternativeRoutes.STRETCH * routes.weight(0));
+    }
+
+    @Test
+    public void testOneRouteOnly() {
+        AlternativeRoutes routes = find(1, 3, 1);
+        assertEquals(1, routes.size());
+        assertArrayEquals(vertices(1, 2, 3), routes.route(0));
+    }
+
+    @Test
+    public void testSameStartAndEnd() {
+        AlternativeRoutes routes = find(2, 2, 3);
+        assertEquals(1, routes.size());
+        assertArrayEquals(vertices(2), routes.route(0));
+    }
+
+    private static AlternativeRoutes find(long start, long end, int maxRoutes) {
+        return new AlternativeRoutes(graph, graph::estimatedDistanceToGoal,
+                graph.indexOf(start), graph.indexOf(end), maxRoutes, 1);
+    }
+
+    private static int[] vertices(long... ids) {
+        int[] vertices = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            vertices[i] = graph.indexOf(ids[i]);
+        }
+        return vertices;
+    }
+}
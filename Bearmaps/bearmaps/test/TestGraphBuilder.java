@@ -0,0 +1,101 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that GraphBuilder keeps and drops the vertices and edges of an OSM
+ * file as the old map-based builder did, on a file where:
+ * node 3 appears twice, the second time moved and named;
+ * node 4 is named but on no way, and node 5 is neither;
+ * ways 10 and 11 both join 2 and 3;
+ * way 12 runs through node 99, which the file does not have.
+ */
+public class TestGraphBuilder {
+    private static final String OSM = "<osm>\n"
+            + "<node id=\"1\" lon=\"0.00\" lat=\"38.00\"><tag k=\"name\" v=\"Cafe\"/></node>\n"
+            + "<node id=\"2\" lon=\"0.01\" lat=\"38.00\"/>\n"
+            + "<node id=\"3\" lon=\"0.02\" lat=\"38.00\"/>\n"
+            + "<node id=\"4\" lon=\"0.03\" lat=\"38.00\"><tag k=\"name\" v=\"Library\"/></node>\n"
+            + "<node id=\"5\" lon=\"0.04\" lat=\"38.00\"/>\n"
+            + "<node id=\"3\" lon=\"0.50\" lat=\"38.50\"><tag k=\"name\" v=\"Ghost\"/></node>\n"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Main Street\"/></way>\n"
+            + "<way id=\"11\"><nd ref=\"2\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Oak Street\"/></way>\n"
+            + "<way id=\"12\"><nd ref=\"3\"/><nd ref=\"99\"/><nd ref=\"1\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "</osm>\n";
+
+    private static CompactStreetMapGraph graph;
+
+    @Before
+    public void setUp() throws IOException {
+        graph = OsmFixtures.build(OSM);
+    }
+
+    @Test
+    public void testVertices() {
+        long[] ids = new long[graph.numVertices()];
+        for (int v = 0; v < ids.length; v++) {
+            ids[v] = graph.id(v);
+        }
+        assertArrayEquals(new long[]{1, 2, 3, 4}, ids);
+        assertEquals(-1, graph.indexOf(5));
+        assertEquals(-1, graph.indexOf(99));
+    }
+
+    @Test
+    public void testFirstDuplicateNodeWins() {
+        int v = graph.indexOf(3);
+        assertEquals(0.02, graph.lon(v), 1e-12);
+        assertEquals(38.00, graph.lat(v), 1e-12);
+        assertNull(graph.name(v));
+    }
+
+    @Test
+    public void testNames() {
+        assertEquals("Cafe", graph.name(graph.indexOf(1)));
+        assertNull(graph.name(graph.indexOf(2)));
+        assertEquals("Library", graph.name(graph.indexOf(4)));
+    }
+
+    @Test
+    public void testDegrees() {
+        assertEquals(1, graph.degree(graph.indexOf(1)));
+        assertEquals(3, graph.degree(graph.indexOf(2)));
+        assertEquals(2, graph.degree(graph.indexOf(3)));
+        assertEquals(0, graph.degree(graph.indexOf(4)));
+        /* Three edges between 1, 2 and 3, each in both directions. */
+        assertEquals(6, graph.numEdges());
+    }
+
+    @Test
+    public void testDuplicateEdgesKeptBothWays() {
+        int two = graph.indexOf(2);
+        int three = graph.indexOf(3);
+        assertEquals(Arrays.asList("Main Street", "Oak Street"), wayNames(two, three));
+        assertEquals(Arrays.asList("Main Street", "Oak Street"), wayNames(three, two));
+    }
+
+    /* Returns the way names of the edges from V to W, in edge order. */
+    private static List<String> wayNames(int v, int w) {
+        List<String> names = new ArrayList<>();
+        for (int e = graph.edgesBegin(v); e < graph.edgesEnd(v); e++) {
+            if (graph.edgeTarget(e) == w) {
+                names.add(graph.wayName(graph.wayNameId(e)));
+            }
+        }
+        return names;
+    }
+}
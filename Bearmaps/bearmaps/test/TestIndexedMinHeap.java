@@ -0,0 +1,63 @@
+package bearmaps.test;
+
+import bearmaps.utils.pq.IndexedMinHeap;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Randomized check of IndexedMinHeap against a brute-force array of priorities. */
+public class TestIndexedMinHeap {
+    private static final int N = 1000;
+
+    @Test
+    public void testAgainstNaive() {
+        Random r = new Random(61);
+        IndexedMinHeap pq = new IndexedMinHeap(N);
+        double[] prio = new double[N];
+        boolean[] in = new boolean[N];
+        int size = 0;
+        for (int step = 0; step < 20000; step++) {
+            int v = r.nextInt(N);
+            int op = r.nextInt(3);
+            if (op == 0 && !in[v]) {
+                prio[v] = r.nextDouble();
+                pq.insert(v, prio[v]);
+                in[v] = true;
+                size++;
+            } else if (op == 1 && in[v]) {
+                prio[v] = r.nextDouble();
+                pq.changePriority(v, prio[v]);
+            } else if (size > 0) {
+                int min = -1;
+                for (int u = 0; u < N; u++) {
+                    if (in[u] && (min < 0 || prio[u] < prio[min])) {
+                        min = u;
+                    }
+                }
+                assertEquals(prio[min], pq.peekPriority(), 0);
+                int polled = pq.poll();
+                assertEquals(prio[min], prio[polled], 0);
+                in[polled] = false;
+                size--;
+            }
+            assertEquals(size, pq.size());
+            assertEquals(in[v], pq.contains(v));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        IndexedMinHeap pq = new IndexedMinHeap(10);
+        pq.insert(3, 1.0);
+        pq.insert(7, 0.5);
+        pq.clear();
+        assertTrue(pq.isEmpty());
+        assertFalse(pq.contains(3));
+        pq.insert(3, 2.0);
+        assertEquals(3, pq.poll());
+    }
+}
@@ -0,0 +1,101 @@
+package bearmaps.test;
+
+import bearmaps.utils.ps.KDTreePointSet;
+import bearmaps.utils.ps.Point;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/** Checks KDTreePointSet against a brute-force scan over points in the Berkeley box. */
+public class TestKDTreePointSet {
+    private static final int NUM_POINTS = 5000;
+    private static final int NUM_QUERIES = 500;
+
+    private static List<Point> randomPoints(Random r, int n) {
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            points.add(new Point(-122.30 + r.nextDouble() * 0.09, 37.82 + r.nextDouble() * 0.07));
+        }
+        return points;
+    }
+
+    private static int naiveNearest(List<Point> points, Point q) {
+        int best = 0;
+        for (int i = 1; i < points.size(); i++) {
+            if (Point.distance(points.get(i), q) < Point.distance(points.get(best), q)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void testNearestMatchesNaive() {
+        Random r = new Random(61);
+        List<Point> points = randomPoints(r, NUM_POINTS);
+        KDTreePointSet kd = new KDTreePointSet(points);
+        for (Point q : randomPoints(r, NUM_QUERIES)) {
+            int expected = naiveNearest(points, q);
+            assertEquals(expected, kd.nearestIndex(q.getX(), q.getY()));
+            assertSame(points.get(expected), kd.nearest(q.getX(), q.getY()));
+        }
+    }
+
+    @Test
+    public void testKNearestMatchesNaive() {
+        Random r = new Random(62);
+        List<Point> points = randomPoints(r, NUM_POINTS);
+        KDTreePointSet kd = new KDTreePointSet(points);
+        for (Point q : randomPoints(r, NUM_QUERIES)) {
+            double[] dist = new double[points.size()];
+            Integer[] order = new Integer[points.size()];
+            for (int i = 0; i < order.length; i++) {
+                dist[i] = Point.distance(points.get(i), q);
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(dist[a], dist[b]));
+            int[] actual = kd.kNearestIndices(q.getX(), q.getY(), 7);
+            assertEquals(7, actual.length);
+            for (int i = 0; i < actual.length; i++) {
+                assertEquals((long) order[i], actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testWithinRadiusMatchesNaive() {
+        Random r = new Random(63);
+        List<Point> points = randomPoints(r, NUM_POINTS);
+        KDTreePointSet kd = new KDTreePointSet(points);
+        double radius = 0.25;
+        for (Point q : randomPoints(r, NUM_QUERIES)) {
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < points.size(); i++) {
+                if (Point.distance(points.get(i), q) <= radius) {
+                    expected.add(i);
+                }
+            }
+            Set<Integer> actual = new HashSet<>();
+            for (int i : kd.withinRadiusIndices(q.getX(), q.getY(), radius)) {
+                actual.add(i);
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        KDTreePointSet kd = new KDTreePointSet(new ArrayList<>());
+        assertNull(kd.nearest(0, 0));
+        assertEquals(0, kd.kNearestIndices(0, 0, 3).length);
+    }
+}
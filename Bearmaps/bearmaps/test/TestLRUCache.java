@@ -0,0 +1,67 @@
+package bearmaps.test;
+
+import bearmaps.utils.cache.LRUCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Tests eviction order, weight accounting and counters of LRUCache. */
+public class TestLRUCache {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LRUCache<String, String> cache = new LRUCache<>(3);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        assertEquals("A", cache.get("a"));
+        cache.put("d", "D");
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("a"));
+        assertTrue(cache.containsKey("c"));
+        assertTrue(cache.containsKey("d"));
+        assertEquals(1, cache.evictions());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testWeightBound() {
+        LRUCache<Integer, String> cache = new LRUCache<>(10, String::length);
+        cache.put(1, "aaaa");
+        cache.put(2, "bbbb");
+        assertEquals(8, cache.weight());
+        cache.put(3, "cccc");
+        assertFalse(cache.containsKey(1));
+        assertEquals(8, cache.weight());
+        cache.put(2, "b");
+        assertEquals(5, cache.weight());
+        cache.put(4, "too long to ever fit");
+        assertFalse(cache.containsKey(4));
+        assertEquals(5, cache.weight());
+        cache.remove(3);
+        assertEquals(1, cache.weight());
+        cache.clear();
+        assertEquals(0, cache.weight());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testGetOrLoadCounts() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(100);
+        int[] loads = new int[1];
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Integer.valueOf(49), cache.getOrLoad(7, k -> {
+                loads[0]++;
+                return k * k;
+            }));
+        }
+        assertEquals(1, loads[0]);
+        assertEquals(1, cache.misses());
+        assertEquals(2, cache.hits());
+        assertNull(cache.getOrLoad(8, k -> null));
+        assertFalse(cache.containsKey(8));
+    }
+}
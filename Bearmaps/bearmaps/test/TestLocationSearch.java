@@ -0,0 +1,49 @@
+package bearmaps.test;
+
+import bearmaps.utils.search.LocationSearch;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Tests token matching, typo tolerance, ranking and location bias of LocationSearch. */
+public class TestLocationSearch {
+    private static final String[] NAMES = {
+        "telegraph avenue garage", "berkeley bowl", "top dog", "telegraph cafe", "bowl of soup"
+    };
+    /* One place per name, the last two far east of the others. */
+    private static final double[] LONS = {-122.259, -122.269, -122.258, -122.0, -122.0};
+    private static final double[] LATS = {37.868, 37.857, 37.866, 37.868, 37.868};
+    private static final int[] PLACE_NAMES = {0, 1, 2, 3, 4};
+
+    private final LocationSearch search = new LocationSearch(NAMES, LONS, LATS, PLACE_NAMES);
+
+    @Test
+    public void testTokensInAnyOrder() {
+        assertArrayEquals(new int[]{0}, search.search("telegraph ave", 10));
+        assertArrayEquals(new int[]{0}, search.search("garage telegraph", 10));
+        assertArrayEquals(new int[]{0, 3}, search.search("telegraph", 10));
+        assertArrayEquals(new int[]{0}, search.search("telegraph", 1));
+        assertArrayEquals(new int[0], search.search("telegraph dog", 10));
+        assertArrayEquals(new int[0], search.search("  ", 10));
+    }
+
+    @Test
+    public void testTypos() {
+        assertArrayEquals(new int[]{0}, search.search("telgraph av", 10));
+        assertArrayEquals(new int[]{1}, search.search("berkly bow", 10));
+        /* Short words must match exactly. */
+        assertArrayEquals(new int[0], search.search("tp", 10));
+        assertArrayEquals(new int[]{4}, search.search("bowl of", 10));
+        /* Names equally far from the query rank by popularity. */
+        assertArrayEquals(new int[]{1, 4}, search.search("bowk", 10));
+    }
+
+    @Test
+    public void testLocationBias() {
+        assertArrayEquals(new int[]{1, 4}, search.search("bowl", 10));
+        assertArrayEquals(new int[]{4, 1}, search.search("bowl", 10, -122.0, 37.868, 2.0));
+        assertArrayEquals(new int[]{1, 4}, search.search("bowl", 10, Double.NaN, Double.NaN, 2.0));
+        assertEquals(5, search.numNames());
+    }
+}
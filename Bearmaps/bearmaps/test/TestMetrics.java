@@ -0,0 +1,83 @@
+package bearmaps.test;
+
+import bearmaps.utils.cache.LRUCache;
+import bearmaps.utils.metrics.Histogram;
+import bearmaps.utils.metrics.Metrics;
+import bearmaps.utils.metrics.PrometheusFormat;
+import bearmaps.utils.metrics.Timer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Tests Histogram quantiles against sorted values, and the Prometheus output. */
+public class TestMetrics {
+
+    @Test
+    public void testSmallValuesAreExact() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.valueAtQuantile(0.5));
+        for (int v = 1; v <= 10; v++) {
+            h.record(v);
+        }
+        h.record(-5);
+        assertEquals(11, h.count());
+        assertEquals(0, h.valueAtQuantile(0));
+        assertEquals(5, h.valueAtQuantile(0.5));
+        assertEquals(10, h.valueAtQuantile(1));
+    }
+
+    @Test
+    public void testQuantilesAgainstSorted() {
+        Random r = new Random(1234);
+        Histogram h = new Histogram();
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            /* Log-uniform from 1 microsecond to 10 seconds, in nanoseconds. */
+            values[i] = (long) Math.pow(10, 3 + 7 * r.nextDouble());
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double q : new double[]{0.01, 0.25, 0.5, 0.9, 0.99, 0.999, 1}) {
+            long exact = values[(int) Math.ceil(q * values.length) - 1];
+            long approx = h.valueAtQuantile(q);
+            assertTrue(q + ": " + approx + " < " + exact, approx >= exact);
+            assertTrue(q + ": " + approx + " >> " + exact, approx <= exact * 1.04);
+        }
+    }
+
+    @Test
+    public void testLargestValue() {
+        Histogram h = new Histogram();
+        h.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, h.valueAtQuantile(1));
+    }
+
+    @Test
+    public void testPrometheusFormat() {
+        Timer t = Metrics.timer("test.prometheus");
+        t.record(1_000_000);
+        t.record(3_000_000);
+        Metrics.counter("test.prometheus.bytes").add(42);
+        LRUCache<String, String> cache = new LRUCache<>(10);
+        cache.put("a", "A");
+        cache.get("a");
+        cache.get("b");
+        Metrics.cache("test.prometheus", cache);
+
+        String text = PrometheusFormat.write();
+        assertTrue(text.contains("# TYPE bearmaps_test_prometheus_seconds summary\n"));
+        assertTrue(text.contains("bearmaps_test_prometheus_seconds_count 2\n"));
+        assertTrue(text.contains("bearmaps_test_prometheus_seconds_sum 0.004\n"));
+        assertTrue(text.contains("bearmaps_test_prometheus_seconds_max 0.003\n"));
+        assertTrue(text.contains("bearmaps_test_prometheus_seconds{quantile=\"0.5\"} 0.001"));
+        assertTrue(text.contains("# TYPE bearmaps_test_prometheus_bytes_total counter\n"
+                + "bearmaps_test_prometheus_bytes_total 42\n"));
+        assertTrue(text.contains("bearmaps_cache_hits_total{cache=\"test.prometheus\"} 1\n"));
+        assertTrue(text.contains("bearmaps_cache_misses_total{cache=\"test.prometheus\"} 1\n"));
+        assertTrue(text.contains("bearmaps_cache_entries{cache=\"test.prometheus\"} 1\n"));
+    }
+}
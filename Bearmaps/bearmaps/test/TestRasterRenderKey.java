@@ -0,0 +1,73 @@
+package bearmaps.test;
+
+import bearmaps.RouteResult;
+import bearmaps.server.handler.impl.RasterAPIHandler;
+import bearmaps.server.route.RouteSnapshot;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests that the rendered raster cache never keys two route snapshots alike,
+ * on the routes 1 -> 32 and 2 -> 1, whose id arrays have the same length and
+ * the same Arrays.hashCode.
+ */
+public class TestRasterRenderKey {
+    private static final String OSM = "<osm>\n"
+            + "<node id=\"1\" lon=\"0.000\" lat=\"38.000\"/>\n"
+            + "<node id=\"2\" lon=\"0.010\" lat=\"38.000\"/>\n"
+            + "<node id=\"32\" lon=\"0.000\" lat=\"38.010\"/>\n"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"32\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "<way id=\"11\"><nd ref=\"2\"/><nd ref=\"1\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "</osm>\n";
+
+    /** Exposes the handler's response cache key to the test. */
+    private static class Handler extends RasterAPIHandler {
+        String key(Map<String, Object> result, RouteSnapshot route) {
+            return renderKey(result, route);
+        }
+    }
+
+    private static StreetMapGraph graph;
+    private Handler handler;
+    private Map<String, Object> result;
+
+    @Before
+    public void setUp() throws IOException {
+        graph = OsmFixtures.streetMap(OSM);
+        handler = new Handler();
+        result = new HashMap<>();
+        result.put("render_grid", new String[][]{{"d1_x0_y0.png", "d1_x1_y0.png"}});
+    }
+
+    @Test
+    public void testCollidingRoutesDoNotShareEntry() {
+        RouteSnapshot a = snapshot(1, 32);
+        RouteSnapshot b = snapshot(2, 1);
+        assertEquals(a.size(), b.size());
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(handler.key(result, a).equals(handler.key(result, b)));
+    }
+
+    @Test
+    public void testSnapshotKeepsItsKey() {
+        RouteSnapshot a = snapshot(1, 32);
+        assertEquals(handler.key(result, a), handler.key(result, a));
+        assertFalse(handler.key(result, a).equals(handler.key(result, RouteSnapshot.EMPTY)));
+    }
+
+    private static RouteSnapshot snapshot(long... ids) {
+        return RouteSnapshot.of(graph,
+                new RouteResult(ids, ids.length - 1, 0, 1, Collections.emptyList()));
+    }
+}
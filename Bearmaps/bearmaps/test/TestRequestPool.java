@@ -0,0 +1,105 @@
+package bearmaps.test;
+
+import bearmaps.server.handler.RequestPool;
+import bearmaps.utils.Deadline;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that RequestPool runs requests with their deadline set, and turns
+ * them away when its queue is full or their deadline passes in the queue.
+ */
+public class TestRequestPool {
+
+    @Test
+    public void testRunsWithDeadline() throws Exception {
+        RequestPool pool = new RequestPool("test-run", 1, 1, 5);
+        double remaining = pool.run(() -> Deadline.remainingSeconds(60));
+        assertTrue(remaining > 4 && remaining <= 5);
+        assertEquals(60, Deadline.remainingSeconds(60), 0);
+        assertEquals("ok", pool.run(() -> "ok"));
+    }
+
+    @Test
+    public void testPassesOnExceptions() throws Exception {
+        RequestPool pool = new RequestPool("test-throw", 1, 1, 5);
+        try {
+            pool.run(() -> {
+                throw new IllegalStateException("boom");
+            });
+            fail("Expected the task's exception");
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testShedsWhenQueueFull() throws Exception {
+        RequestPool pool = new RequestPool("test-full", 1, 1, 5);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> running = callers.submit(() -> pool.run(() -> {
+                started.countDown();
+                release.await();
+                return "first";
+            }));
+            started.await();
+            Future<String> queued = callers.submit(() -> pool.run(() -> "second"));
+            Thread.sleep(100);
+            try {
+                pool.run(() -> "third");
+                fail("Expected a full queue");
+            } catch (RejectedExecutionException e) {
+                /* Expected: one running and one queued fill the pool. */
+            }
+            release.countDown();
+            assertEquals("first", running.get(5, TimeUnit.SECONDS));
+            assertEquals("second", queued.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExpiresInQueue() throws Exception {
+        RequestPool pool = new RequestPool("test-expire", 1, 4, 0.2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> running = callers.submit(() -> pool.run(() -> {
+                started.countDown();
+                release.await();
+                return "slow";
+            }));
+            started.await();
+            long start = System.nanoTime();
+            try {
+                pool.run(() -> "late");
+                fail("Expected the deadline to pass in the queue");
+            } catch (RejectedExecutionException e) {
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            }
+            /* A request that has started runs to the end, past its deadline. */
+            Thread.sleep(300);
+            release.countDown();
+            assertEquals("slow", running.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package bearmaps.test;
 
 import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.RouteResult;
+import bearmaps.utils.graph.streetmap.Isochrone;
 import org.junit.Before;
 import org.junit.Test;
 import bearmaps.Router;
@@ -14,6 +16,8 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /** Test of the routing part of the assignment. */
 public class TestRouter {
@@ -50,6 +54,95 @@ public class TestRouter {
         }
     }
 
+    @Test
+    public void testShortestPathAllAlgorithms() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            for (int i = 0; i < NUM_TESTS; i++) {
+                Map<String, Double> params = testParams.get(i);
+                List<Long> actual = Router.shortestPath(graph,
+                        params.get("start_lon"), params.get("start_lat"),
+                        params.get("end_lon"), params.get("end_lat"), algorithm);
+                assertEquals(algorithm + " did not match the expected results",
+                        expectedResults.get(i), actual);
+            }
+        }
+    }
+
+    @Test
+    public void testRouteCache() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            RouteResult first = Router.route(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), Router.Algorithm.ALT);
+            assertEquals(expectedResults.get(i), first.nodes());
+            long hits = graph.routeCache().hits();
+            RouteResult second = Router.route(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), Router.Algorithm.CH);
+            assertSame(first, second);
+            assertEquals(hits + 1, graph.routeCache().hits());
+        }
+    }
+
+    @Test
+    public void testDistanceMatrix() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+        double[][] sources = new double[NUM_TESTS][];
+        double[][] targets = new double[NUM_TESTS][];
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            sources[i] = new double[]{params.get("start_lon"), params.get("start_lat")};
+            targets[i] = new double[]{params.get("end_lon"), params.get("end_lat")};
+        }
+
+        double[][] distances = Router.distanceMatrix(graph, sources, targets);
+        long[][][] paths = Router.matrixPaths(graph, sources, targets);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            for (int j = 0; j < NUM_TESTS; j++) {
+                RouteResult route = Router.route(graph, sources[i][0], sources[i][1],
+                        targets[j][0], targets[j][1], Router.Algorithm.ASTAR);
+                assertEquals(route.weight(), distances[i][j], 1e-9);
+                assertEquals(route.size(), paths[i][j].length);
+            }
+            List<Long> path = new ArrayList<>();
+            for (long id : paths[i][i]) {
+                path.add(id);
+            }
+            assertEquals(expectedResults.get(i), path);
+        }
+    }
+
+    @Test
+    public void testIsochrone() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            RouteResult route = Router.route(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), Router.Algorithm.ASTAR);
+            Isochrone isochrone = Router.isochrone(graph,
+                    params.get("start_lon"), params.get("start_lat"), route.weight());
+            List<Long> expected = expectedResults.get(i);
+            boolean reachesEnd = false;
+            for (int k = 0; k < isochrone.size(); k++) {
+                assertTrue(isochrone.distance(k) <= route.weight());
+                long id = graph.compact().id(isochrone.vertex(k));
+                reachesEnd |= id == expected.get(expected.size() - 1);
+            }
+            assertTrue(reachesEnd);
+        }
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
@@ -0,0 +1,125 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.IntDijkstra;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.graph.streetmap.RoadClass;
+import bearmaps.utils.graph.streetmap.RoutingProfile;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests maxspeed parsing and routing profiles on a graph with a fast motorway
+ * from 1 to 3 through 2, a slow residential detour through 4, and a
+ * residential street alongside the motorway from 1 to 2:
+ *
+ *   1 ==== 2 ==== 3
+ *    \          /
+ *     ---- 4 ---
+ */
+public class TestRoutingProfile {
+    private static final String OSM = "<osm>\n"
+            + "<node id=\"1\" lon=\"0.00\" lat=\"38.000\"/>\n"
+            + "<node id=\"2\" lon=\"0.01\" lat=\"38.000\"/>\n"
+            + "<node id=\"3\" lon=\"0.02\" lat=\"38.000\"/>\n"
+            + "<node id=\"4\" lon=\"0.01\" lat=\"38.001\"/>\n"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"motorway\"/><tag k=\"maxspeed\" v=\"70 mph\"/></way>\n"
+            + "<way id=\"11\"><nd ref=\"1\"/><nd ref=\"4\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"maxspeed\" v=\"40\"/></way>\n"
+            + "<way id=\"12\"><nd ref=\"2\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"footway\"/></way>\n"
+            + "<way id=\"13\"><nd ref=\"1\"/><nd ref=\"2\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "</osm>\n";
+
+    private static CompactStreetMapGraph graph;
+
+    @Before
+    public void setUp() throws IOException {
+        graph = OsmFixtures.build(OSM);
+    }
+
+    @Test
+    public void testParseMaxSpeed() {
+        assertEquals(30, RoadClass.parseMaxSpeed("30 mph"));
+        assertEquals(31, RoadClass.parseMaxSpeed("50"));
+        assertEquals(25, RoadClass.parseMaxSpeed("25mph;35 mph"));
+        assertEquals(0, RoadClass.parseMaxSpeed("none"));
+        assertEquals(0, RoadClass.parseMaxSpeed("0"));
+        assertEquals(0, RoadClass.parseMaxSpeed(null));
+        assertEquals(255, RoadClass.parseMaxSpeed("1000 mph"));
+    }
+
+    @Test
+    public void testFromString() {
+        assertSame(RoutingProfile.FASTEST_CAR, RoutingProfile.fromString("fastest-car", null));
+        assertSame(RoutingProfile.WALK, RoutingProfile.fromString("WALK", null));
+        assertSame(RoutingProfile.SHORTEST, RoutingProfile.fromString("teleport",
+                RoutingProfile.SHORTEST));
+    }
+
+    @Test
+    public void testEdgeAttributes() {
+        assertEquals(4, graph.numVertices());
+        int e = graph.findEdge(graph.indexOf(1), graph.indexOf(2));
+        assertSame(RoadClass.MOTORWAY, graph.roadClass(e));
+        assertEquals(70, graph.maxSpeed(e));
+        e = graph.findEdge(graph.indexOf(4), graph.indexOf(3));
+        assertSame(RoadClass.RESIDENTIAL, graph.roadClass(e));
+        assertEquals(25, graph.maxSpeed(e));
+        assertEquals(-1, graph.findEdge(graph.indexOf(2), graph.indexOf(4)));
+    }
+
+    @Test
+    public void testCheapestEdge() {
+        int one = graph.indexOf(1);
+        int two = graph.indexOf(2);
+        assertSame(RoadClass.MOTORWAY, graph.roadClass(graph.findEdge(one, two)));
+        assertSame(RoadClass.MOTORWAY,
+                graph.roadClass(graph.cheapestEdge(one, two, RoutingProfile.FASTEST_CAR)));
+        assertSame(RoadClass.RESIDENTIAL,
+                graph.roadClass(graph.cheapestEdge(one, two, RoutingProfile.WALK)));
+        assertEquals(-1, graph.cheapestEdge(two, graph.indexOf(3), RoutingProfile.WALK));
+    }
+
+    @Test
+    public void testProfilesChooseDifferentRoutes() {
+        int src = graph.indexOf(1);
+        int dest = graph.indexOf(3);
+        int[] motorway = {src, graph.indexOf(2), dest};
+        int[] detour = {src, graph.indexOf(4), dest};
+        assertArrayEquals(motorway, solve(RoutingProfile.SHORTEST, src, dest));
+        assertArrayEquals(motorway, solve(RoutingProfile.FASTEST_CAR, src, dest));
+        assertArrayEquals(detour, solve(RoutingProfile.WALK, src, dest));
+        assertArrayEquals(detour, solve(RoutingProfile.BIKE, src, dest));
+        assertSame(graph, graph.forProfile(RoutingProfile.SHORTEST));
+        assertSame(graph.forProfile(RoutingProfile.WALK),
+                graph.forProfile(RoutingProfile.WALK));
+    }
+
+    @Test
+    public void testHeuristicIsAdmissible() {
+        for (RoutingProfile p : RoutingProfile.values()) {
+            CompactStreetMapGraph g = graph.forProfile(p);
+            for (int s = 0; s < g.numVertices(); s++) {
+                double[] dist = IntDijkstra.distancesFrom(g, s);
+                for (int t = 0; t < g.numVertices(); t++) {
+                    assertTrue(p + ": " + s + " -> " + t,
+                            g.estimatedDistanceToGoal(s, t) <= dist[t] * (1 + 1e-6));
+                }
+            }
+        }
+    }
+
+    private static int[] solve(RoutingProfile p, int src, int dest) {
+        return new IntAStarSolver(graph.forProfile(p), src, dest, 1).solutionArray();
+    }
+}
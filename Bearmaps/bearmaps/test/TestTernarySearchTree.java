@@ -0,0 +1,70 @@
+package bearmaps.test;
+
+import bearmaps.utils.trie.TernarySearchTree;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Tests the top-k prefix completions of TernarySearchTree against a linear scan. */
+public class TestTernarySearchTree {
+    private static final long SEED = 17;
+
+    @Test
+    public void testSmall() {
+        String[] keys = {"cafe", "car", "cheese board", "ca", "top dog"};
+        TernarySearchTree t = new TernarySearchTree(keys, 2);
+        assertArrayEquals(new int[]{0, 1}, t.topCompletions("c", 10));
+        assertArrayEquals(new int[]{0, 1}, t.topCompletions("ca", 10));
+        assertArrayEquals(new int[]{0}, t.topCompletions("ca", 1));
+        assertArrayEquals(new int[]{2}, t.topCompletions("ch", 10));
+        assertArrayEquals(new int[]{0, 1}, t.topCompletions("", 10));
+        assertArrayEquals(new int[0], t.topCompletions("x", 10));
+        assertArrayEquals(new int[0], t.topCompletions("cart", 10));
+        assertEquals(3, t.indexOf("ca"));
+        assertEquals(-1, t.indexOf("c"));
+    }
+
+    @Test
+    public void testRandomAgainstScan() {
+        Random r = new Random(SEED);
+        for (int trial = 0; trial < 20; trial++) {
+            Set<String> keySet = new LinkedHashSet<>();
+            int n = 1 + r.nextInt(2000);
+            while (keySet.size() < n) {
+                keySet.add(randomString(r, 1 + r.nextInt(8)));
+            }
+            String[] keys = keySet.toArray(new String[0]);
+            int k = 1 + r.nextInt(12);
+            TernarySearchTree t = new TernarySearchTree(keys, k);
+            for (int q = 0; q < 200; q++) {
+                String key = keys[r.nextInt(n)];
+                String prefix = key.substring(0, r.nextInt(key.length() + 1));
+                int limit = r.nextInt(15);
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < n && expected.size() < Math.min(limit, k); i++) {
+                    if (keys[i].startsWith(prefix)) {
+                        expected.add(i);
+                    }
+                }
+                int[] actual = t.topCompletions(prefix, limit);
+                assertEquals(prefix, expected.toString(), Arrays.toString(actual));
+            }
+        }
+    }
+
+    private static String randomString(Random r, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + r.nextInt(4)));
+        }
+        return sb.toString();
+    }
+}
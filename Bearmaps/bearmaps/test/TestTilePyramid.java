@@ -0,0 +1,99 @@
+package bearmaps.test;
+
+import bearmaps.server.raster.TilePyramid;
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that TilePyramid serves tiles from its cache folder only while they
+ * were drawn from the current graph. Each test starts with an empty tile set
+ * and a cache holding a 1 by 1 pixel root tile, which no render would make.
+ */
+public class TestTilePyramid {
+    private static final String OSM = "<osm>\n"
+            + "<node id=\"1\" lon=\"-122.25\" lat=\"37.87\"/>\n"
+            + "<node id=\"2\" lon=\"-122.24\" lat=\"37.87\"/>\n"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "</osm>\n";
+
+    private static CompactStreetMapGraph graph;
+    private Path imgRoot;
+    private Path cacheRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        graph = OsmFixtures.build(OSM);
+        imgRoot = Files.createTempDirectory("tiles");
+        cacheRoot = Files.createTempDirectory("tile-cache");
+        imgRoot.toFile().deleteOnExit();
+        cacheRoot.toFile().deleteOnExit();
+        File stale = cacheRoot.resolve("d0_x0_y0.png").toFile();
+        stale.deleteOnExit();
+        ImageIO.write(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), "png", stale);
+    }
+
+    @Test
+    public void testDiscardsTilesOfOtherGraph() throws IOException {
+        writeFingerprint("0");
+        BufferedImage root = pyramid(graph).tile(0, 0, 0);
+        assertEquals(Constants.TILE_SIZE, root.getWidth());
+        assertEquals(fingerprint(), readFingerprint());
+    }
+
+    @Test
+    public void testDiscardsTilesWithoutFingerprint() {
+        BufferedImage root = pyramid(graph).tile(0, 0, 0);
+        assertEquals(Constants.TILE_SIZE, root.getWidth());
+        assertEquals(fingerprint(), readFingerprint());
+    }
+
+    @Test
+    public void testKeepsTilesOfSameGraph() throws IOException {
+        writeFingerprint(fingerprint());
+        assertEquals(1, pyramid(graph).tile(0, 0, 0).getWidth());
+    }
+
+    @Test
+    public void testIgnoresCacheWithoutGraph() {
+        assertNull(pyramid(null).tile(0, 0, 0));
+        assertTrue(Files.isRegularFile(cacheRoot.resolve("d0_x0_y0.png")));
+    }
+
+    private TilePyramid pyramid(CompactStreetMapGraph g) {
+        cacheRoot.resolve(TilePyramid.FINGERPRINT_FILE).toFile().deleteOnExit();
+        return new TilePyramid(imgRoot.toString(), cacheRoot.toString(), () -> g);
+    }
+
+    private static String fingerprint() {
+        return Long.toHexString(graph.fingerprint());
+    }
+
+    private void writeFingerprint(String fingerprint) throws IOException {
+        Files.write(cacheRoot.resolve(TilePyramid.FINGERPRINT_FILE),
+                fingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String readFingerprint() {
+        try {
+            return new String(Files.readAllBytes(cacheRoot.resolve(TilePyramid.FINGERPRINT_FILE)),
+                    StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
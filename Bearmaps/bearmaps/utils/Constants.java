@@ -1,10 +1,9 @@
 package bearmaps.utils;
 
 import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.server.route.RouteStore;
 
 import java.awt.*;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  * A class holding all the constant values used throughout the project
@@ -39,11 +38,99 @@ public class Constants {
     /** Each tile is 256x256 pixels. */
     public static final int TILE_SIZE = 256;
 
+    /**
+     * The deepest tile level of a tile folder without a pyramid.properties,
+     * such as the Berkeley tiles in IMG_ROOT.
+     */
+    public static final int RASTER_MAX_DEPTH = 7;
+
+    /** Tiles missing from IMG_ROOT are drawn from the street graph and kept here. */
+    public static final String TILE_CACHE_ROOT = "tile-cache/";
+
+    /** The most decoded tile pixel data to keep in memory: 64 MB, or 256 tiles. */
+    public static final long TILE_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /** Whether to decode the tiles around each raster request in the background. */
+    public static final boolean TILE_PREFETCH = true;
+
+    /** The most Base64-encoded raster responses to keep in memory, in bytes: 32 MB. */
+    public static final long RASTER_CACHE_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Deflate level (0 - 9) for raster PNGs, or -1 for ImageIO's default. Low
+     * levels encode much faster for a somewhat larger image.
+     */
+    public static final int RASTER_PNG_COMPRESSION = -1;
+
+    /** Threads that load and composite raster tiles in parallel; 1 composites serially. */
+    public static final int RASTER_COMPOSITE_THREADS =
+            Math.min(8, Runtime.getRuntime().availableProcessors());
+
     public static AugmentedStreetMapGraph SEMANTIC_STREET_GRAPH;
 
     /**
-     * This is used to maintain a single List of route so that the same instance(object) is accessed
-     * from everywhere in the code. Enum is a cleaner way to achieve such a singleton pattern.
+     * The most solved routes to cache, weighed by node count: a million nodes,
+     * about 8 MB of ids plus their directions.
+     */
+    public static final long ROUTE_CACHE_NODES = 1_000_000;
+
+    /** Threads that compute the rows of a distance matrix in parallel. */
+    public static final int MATRIX_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** The most sources, and the most targets, one distance matrix request may have. */
+    public static final int MATRIX_MAX_POINTS = 250;
+
+    /** Assumed travel speed for isochrone time budgets: walking, 3 miles per hour. */
+    public static final double ISOCHRONE_SPEED_MPH = 3.0;
+
+    /** The largest isochrone budget accepted, in miles. */
+    public static final double ISOCHRONE_MAX_MILES = 10.0;
+
+    /** Number of angular sectors in an isochrone's outline; its most corners. */
+    public static final int ISOCHRONE_HULL_SECTORS = 72;
+
+    /** The most completions a location autocomplete request returns. */
+    public static final int AUTOCOMPLETE_TOP_K = 10;
+
+    /** Number of recent autocomplete results to keep. */
+    public static final int AUTOCOMPLETE_CACHE_ENTRIES = 1024;
+
+    /** Radius in miles around a search's location within which places rank higher. */
+    public static final double SEARCH_BIAS_MILES = 2.0;
+
+    /*
+     * The request pools (see bearmaps.server.handler.RequestPool): the most
+     * requests of each kind that run at once, that wait for a thread, and the
+     * seconds each may take from its arrival.
+     */
+
+    public static final int ROUTING_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int ROUTING_QUEUE = 32;
+    /** As long as Router gives a single route search. */
+    public static final double ROUTING_DEADLINE_SECONDS = 20;
+
+    public static final int RASTER_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int RASTER_QUEUE = 64;
+    public static final double RASTER_DEADLINE_SECONDS = 10;
+
+    public static final int SEARCH_THREADS = 2;
+    public static final int SEARCH_QUEUE = 64;
+    /** An autocomplete answer is only useful while the user is still typing. */
+    public static final double SEARCH_DEADLINE_SECONDS = 2;
+
+    /**
+     * Jetty threads. A pooled request holds one while it waits for its pool,
+     * so this must exceed the in-flight limits of all pooled endpoints
+     * together (see APIRouteHandlerFactory), with room for the rest.
+     */
+    public static final int SERVER_THREADS = 256;
+
+    /** How long a route is kept after it was last drawn or replaced: 30 minutes. */
+    public static final long ROUTE_TTL_MILLIS = 30L * 60 * 1000;
+
+    /**
+     * The current route of each client, keyed by session or route token, so
+     * that concurrent users no longer draw and clear each other's routes.
      */
-    public static final List<Long> ROUTE_LIST = new LinkedList<>();
+    public static final RouteStore ROUTE_STORE = new RouteStore(ROUTE_TTL_MILLIS);
 }
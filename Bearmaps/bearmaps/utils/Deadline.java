@@ -0,0 +1,37 @@
+package bearmaps.utils;
+
+/**
+ * The deadline of the request the current thread is working on, as a
+ * System.nanoTime value. The request's pool (see
+ * bearmaps.server.handler.RequestPool) sets it around the request, so that a
+ * search deep inside the request can give up when the request would, rather
+ * than run its full timeout for a client that has been answered.
+ */
+public class Deadline {
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private Deadline() {
+    }
+
+    /** Sets the current thread's deadline to NANOTIME. */
+    public static void set(long nanoTime) {
+        DEADLINE.set(nanoTime);
+    }
+
+    /** Removes the current thread's deadline. */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * Returns the seconds left until the current thread's deadline, but at
+     * most MAXSECONDS, and MAXSECONDS if it has none. Never negative.
+     */
+    public static double remainingSeconds(double maxSeconds) {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return maxSeconds;
+        }
+        return Math.max(0, Math.min(maxSeconds, (deadline - System.nanoTime()) / 1e9));
+    }
+}
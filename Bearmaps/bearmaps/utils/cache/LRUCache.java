@@ -0,0 +1,151 @@
+package bearmaps.utils.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe least-recently-used cache bounded by total weight rather than
+ * entry count. Each value's weight (for example its size in bytes) is given by
+ * a weigher; whenever the total exceeds the limit, least recently used entries
+ * are evicted until it fits again. A single value heavier than the limit is
+ * never kept.
+ *
+ * Hits, misses and evictions are counted so callers can report them.
+ */
+public class LRUCache<K, V> {
+    private final long maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    /* Access-ordered, so iteration starts at the least recently used entry. */
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Creates a cache holding at most MAXENTRIES entries. */
+    public LRUCache(long maxEntries) {
+        this(maxEntries, v -> 1);
+    }
+
+    /** Creates a cache whose values' WEIGHER weights sum to at most MAXWEIGHT. */
+    public LRUCache(long maxWeight, ToLongFunction<? super V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /** Returns the value cached for KEY, or null, counting a hit or a miss. */
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /** Returns whether KEY is cached, without counting or touching it. */
+    public synchronized boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Returns the value cached for KEY, computing it with LOADER on a miss. The
+     * loader runs outside the lock, so a slow load does not block other keys;
+     * two threads missing on the same key may both load it, and the first
+     * result stored wins. Null results are returned but not cached.
+     */
+    public V getOrLoad(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        V loaded = loader.apply(key);
+        if (loaded == null) {
+            return null;
+        }
+        synchronized (this) {
+            V existing = map.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            put(key, loaded);
+        }
+        return loaded;
+    }
+
+    /** Caches VALUE under KEY, replacing any previous value. */
+    public synchronized void put(K key, V value) {
+        long w = weigher.applyAsLong(value);
+        V old = map.remove(key);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        if (w > maxWeight) {
+            return;
+        }
+        map.put(key, value);
+        weight += w;
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Map.Entry<K, V> eldest = it.next();
+            weight -= weigher.applyAsLong(eldest.getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /** Removes KEY, if cached. */
+    public synchronized void remove(K key) {
+        V old = map.remove(key);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+    }
+
+    /** Removes every entry. Counters are kept. */
+    public synchronized void clear() {
+        map.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /** Returns the total weight of the cached values. */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Returns the fraction of counted lookups that were hits, or 0 if there were none. */
+    public synchronized double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entries, %d/%d weight, %d hits, %d misses, %d evictions",
+                map.size(), weight, maxWeight, hits, misses, evictions);
+    }
+}
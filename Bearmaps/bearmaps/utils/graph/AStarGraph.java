@@ -10,6 +10,15 @@ public interface AStarGraph<Vertex> {
     /* Provides a list of all edges that go out from V to its neighbors. */
     List<WeightedEdge<Vertex>> neighbors(Vertex v);
 
+    /* Calls ACTION once for each edge that goes out from V. Graphs that can walk
+       their edges without building a list should override this; the default
+       adapts neighbors(V). */
+    default void forEachNeighbor(Vertex v, EdgeConsumer<Vertex> action) {
+        for (WeightedEdge<Vertex> e : neighbors(v)) {
+            action.accept(e.from(), e.to(), e.weight());
+        }
+    }
+
     /* Provides an estimate of the "distance" to reach the goal from
        the start position. For results to be correct, this estimate must
        be less than or equal to the correct "distance". */
@@ -1,7 +1,7 @@
 package bearmaps.utils.graph;
-import edu.princeton.cs.algs4.Stopwatch;
 import java.util.List;
 import bearmaps.utils.pq.DoubleMapPQ;
+import bearmaps.utils.pq.PriorityQueue;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -10,67 +10,90 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex>  {
     private SolverOutcome outcome;
     private double solutionWeight;
     private LinkedList<Vertex> solution;
+    private int numStatesExplored;
     private double timeSpent;
 
     /* Constructor which finds the solution, computing everything necessary for all other
     methods to return their results in constant time. Note that timeout passed in is in seconds. */
     public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, double timeout) {
-        Stopwatch sw = new Stopwatch();
+        this(input, start, end, timeout, new DoubleMapPQ<>());
+    }
+
+    /* Same as above, but uses the given empty FRINGE as the priority queue, so that
+    PriorityQueue implementations can be compared on the same search. */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, double timeout,
+                       PriorityQueue<Vertex> fringe) {
+        long startTime = System.nanoTime();
+        long deadline = startTime + (long) (timeout * 1e9);
 
-        DoubleMapPQ<Vertex> fringe = new DoubleMapPQ<>();
-        HashMap<Vertex, Double> distTo = new HashMap<>();
-        HashMap<Vertex, WeightedEdge<Vertex>> edgeTo = new HashMap<>();
-        HashSet<Vertex> visited = new HashSet<>();
+        Relaxer relaxer = new Relaxer(input, end, fringe);
+        HashMap<Vertex, Double> distTo = relaxer.distTo;
+        HashMap<Vertex, Vertex> edgeTo = relaxer.edgeTo;
 
         distTo.put(start, 0.0);
         fringe.insert(start, distTo.get(start) + input.estimatedDistanceToGoal(start, end));
 
-
-        while (!fringe.peek().equals(end)) {
-            if (sw.elapsedTime() >= timeout) {
+        outcome = SolverOutcome.UNSOLVABLE;
+        while (fringe.size() > 0) {
+            if (System.nanoTime() >= deadline) {
                 outcome = SolverOutcome.TIMEOUT;
                 break;
             }
-            if (fringe.size() == 0) {
-                outcome = SolverOutcome.UNSOLVABLE;
-                break;
-            }
             Vertex v = fringe.poll();
-            visited.add(v);
+            numStatesExplored++;
+            relaxer.visited.add(v);
             if (v.equals(end)) {
+                outcome = SolverOutcome.SOLVED;
                 break;
             }
 
-            for (WeightedEdge<Vertex> e : input.neighbors(v)) {
-                Vertex q = e.to();
-                if (visited.contains(q)) {
-                    continue;
-                }
-                Vertex p = e.from();
-                double w = e.weight();
-                if (!fringe.contains(q)) {
-                    distTo.put(q, distTo.get(p) + w);
-                    edgeTo.put(q, e);
-                    fringe.insert(q, distTo.get(q) + input.estimatedDistanceToGoal(q, end));
-                    solutionWeight += w;
-                } else if (distTo.get(p) + w < distTo.get(q)) {
-                    distTo.put(q, distTo.get(p) + w);
-                    fringe.changePriority(q, distTo.get(q) + input.estimatedDistanceToGoal(q, end));
-                    solutionWeight = solutionWeight - edgeTo.get(q).weight() + w;
-                    edgeTo.put(q, e);
-                }
-            }
+            /* The same relaxer for every vertex, so the walk allocates nothing
+               for graphs that implement forEachNeighbor natively. */
+            input.forEachNeighbor(v, relaxer);
         }
-        outcome = SolverOutcome.SOLVED;
         solution = new LinkedList<>();
-        solution.addFirst(end);
-        while (!end.equals(start)) {
-            Vertex prev = edgeTo.get(end).from();
-            solution.addFirst(prev);
-            solutionWeight += edgeTo.get(end).weight();
-            end = prev;
+        if (outcome == SolverOutcome.SOLVED) {
+            solution.addFirst(end);
+            solutionWeight = distTo.get(end);
+            while (!end.equals(start)) {
+                Vertex prev = edgeTo.get(end);
+                solution.addFirst(prev);
+                end = prev;
+            }
+        }
+        timeSpent = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /* Relaxes the edges handed to it by forEachNeighbor, keeping the search state. */
+    private class Relaxer implements EdgeConsumer<Vertex> {
+        final AStarGraph<Vertex> input;
+        final Vertex end;
+        final PriorityQueue<Vertex> fringe;
+        final HashMap<Vertex, Double> distTo = new HashMap<>();
+        final HashMap<Vertex, Vertex> edgeTo = new HashMap<>();
+        final HashSet<Vertex> visited = new HashSet<>();
+
+        Relaxer(AStarGraph<Vertex> input, Vertex end, PriorityQueue<Vertex> fringe) {
+            this.input = input;
+            this.end = end;
+            this.fringe = fringe;
+        }
+
+        @Override
+        public void accept(Vertex p, Vertex q, double w) {
+            if (visited.contains(q)) {
+                return;
+            }
+            if (!fringe.contains(q)) {
+                distTo.put(q, distTo.get(p) + w);
+                edgeTo.put(q, p);
+                fringe.insert(q, distTo.get(q) + input.estimatedDistanceToGoal(q, end));
+            } else if (distTo.get(p) + w < distTo.get(q)) {
+                distTo.put(q, distTo.get(p) + w);
+                fringe.changePriority(q, distTo.get(q) + input.estimatedDistanceToGoal(q, end));
+                edgeTo.put(q, p);
+            }
         }
-        timeSpent = sw.elapsedTime();
     }
 
 
@@ -105,7 +128,7 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex>  {
     /* The total number of priority queue poll() operations.
     Should be the number of states explored so far if result was TIMEOUT or UNSOLVABLE. */
     public int numStatesExplored() {
-        return solution.size();
+        return numStatesExplored;
     }
 
     /* The total time spent in seconds by the constructor. */
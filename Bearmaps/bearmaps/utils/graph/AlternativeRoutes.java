@@ -0,0 +1,217 @@
+package bearmaps.utils.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Up to k reasonably different start -> end routes, found by the plateau
+ * method in the two trees of one bidirectional A* search, rather than by k
+ * separate searches.
+ *
+ * The search runs on past the shortest path until both trees hold every
+ * vertex on a path of up to STRETCH times its weight, or it has done as much
+ * work again (see BidirectionalAStarSolver), so asking for alternatives costs
+ * at most about twice a single search. A plateau is a chain of
+ * edges that lies in both trees: each of its vertices is reached from the
+ * start through the one before, and reaches the end through the one after.
+ * The forward tree path to a plateau, the plateau and the backward tree path
+ * from it make up a route that is a shortest path along the whole plateau, so
+ * a long plateau makes for a sensible route rather than a detour for its own
+ * sake. The shortest path is itself the longest plateau.
+ *
+ * Candidates at most STRETCH times the shortest path's weight, with a plateau
+ * of at least MIN_PLATEAU times it, are taken in order of the weight off
+ * their plateau, and kept unless they repeat a vertex or share more than
+ * MAX_SHARING of the weight of a route already kept.
+ */
+public class AlternativeRoutes {
+    /** The most an alternative may weigh, relative to the shortest path. */
+    public static final double STRETCH = 1.25;
+    /** The most of a kept route's weight an alternative may share with it. */
+    public static final double MAX_SHARING = 0.8;
+    /** The least an alternative's plateau may weigh, relative to the shortest path. */
+    public static final double MIN_PLATEAU = 0.1;
+
+    private final BidirectionalAStarSolver search;
+    private final IntAStarGraph input;
+    private final List<int[]> routes = new ArrayList<>();
+    private final List<Double> weights = new ArrayList<>();
+    private final List<Double> shared = new ArrayList<>();
+
+    /**
+     * Finds up to MAXROUTES routes from START to END in INPUT, the shortest
+     * first, with one search guided by HEURISTIC. Note that timeout passed in
+     * is in seconds; a search that runs out of time after finding the
+     * shortest path returns whatever alternatives its trees already hold.
+     */
+    public AlternativeRoutes(IntAStarGraph input, IntHeuristic heuristic, int start, int end,
+                             int maxRoutes, double timeout) {
+        this.input = input;
+        this.search = new BidirectionalAStarSolver(input, heuristic, start, end, timeout,
+                maxRoutes > 1 ? STRETCH : 1);
+        if (search.outcome() != SolverOutcome.SOLVED || maxRoutes < 1) {
+            return;
+        }
+        int[] shortest = search.solutionArray();
+        routes.add(shortest);
+        weights.add(search.solutionWeight());
+        shared.add(search.solutionWeight());
+        if (maxRoutes > 1 && start != end) {
+            choose(maxRoutes);
+        }
+    }
+
+    /** Returns the search that found the routes, for its outcome and work counts. */
+    public IntShortestPathsSolver search() {
+        return search;
+    }
+
+    /** Returns the number of routes found: 0 if there is none, else 1 to maxRoutes. */
+    public int size() {
+        return routes.size();
+    }
+
+    /** Returns the vertices of the Ith route; the 0th is the shortest path. */
+    public int[] route(int i) {
+        return routes.get(i);
+    }
+
+    /** Returns the weight of the Ith route. */
+    public double weight(int i) {
+        return weights.get(i);
+    }
+
+    /** Returns the weight of the edges the Ith route shares with the shortest path. */
+    public double sharedWeight(int i) {
+        return shared.get(i);
+    }
+
+    /* Adds the best candidates, until there are MAXROUTES routes. */
+    private void choose(int maxRoutes) {
+        int n = input.numVertices();
+        double best = weights.get(0);
+        double limit = STRETCH * best;
+
+        /* Every plateau, from a vertex a to a vertex b, as {weight off the
+           plateau, a, route weight}: a starts a plateau if it has a next
+           plateau vertex but is not itself the next of its forward parent. */
+        List<double[]> candidates = new ArrayList<>();
+        for (int a = 0; a < n; a++) {
+            if (plateauNext(a) < 0) {
+                continue;
+            }
+            int before = search.parentFromStart(a);
+            if (a != search.start() && plateauNext(before) == a) {
+                continue;
+            }
+            int b = a;
+            while (plateauNext(b) >= 0) {
+                b = plateauNext(b);
+            }
+            double total = search.distanceFromStart(b) + search.distanceToEnd(b);
+            double plateau = search.distanceFromStart(b) - search.distanceFromStart(a);
+            if (total <= limit && plateau >= MIN_PLATEAU * best) {
+                candidates.add(new double[]{total - plateau, a, total});
+            }
+        }
+        candidates.sort((x, y) -> Double.compare(x[0], y[0]));
+
+        /* next[i][v] is the vertex after v on route i, or -1. */
+        List<int[]> next = new ArrayList<>();
+        next.add(successors(routes.get(0), n));
+        int[] seen = new int[n];
+        int stamp = 0;
+        for (double[] candidate : candidates) {
+            if (routes.size() >= maxRoutes) {
+                break;
+            }
+            int[] route = viaPath((int) candidate[1]);
+            stamp++;
+            boolean simple = true;
+            for (int v : route) {
+                simple &= seen[v] != stamp;
+                seen[v] = stamp;
+            }
+            if (!simple) {
+                continue;
+            }
+            double[] sharing = new double[routes.size()];
+            boolean distinct = true;
+            for (int i = 0; i < routes.size() && distinct; i++) {
+                int[] nextOnRoute = next.get(i);
+                for (int j = 1; j < route.length; j++) {
+                    if (nextOnRoute[route[j - 1]] == route[j]) {
+                        sharing[i] += edgeWeight(route[j - 1], route[j]);
+                    }
+                }
+                distinct = sharing[i] <= MAX_SHARING * weights.get(i);
+            }
+            if (distinct) {
+                routes.add(route);
+                weights.add(candidate[2]);
+                shared.add(sharing[0]);
+                next.add(successors(route, n));
+            }
+        }
+    }
+
+    /* Returns the vertex after V on its plateau, or -1 if V is not followed by one. */
+    private int plateauNext(int v) {
+        if (v == search.end() || !settledBoth(v)) {
+            return -1;
+        }
+        int w = search.parentToEnd(v);
+        return settledBoth(w) && search.parentFromStart(w) == v ? w : -1;
+    }
+
+    private boolean settledBoth(int v) {
+        return search.settledFromStart(v) && search.settledToEnd(v);
+    }
+
+    /* Returns the forward tree path to A, then the backward tree path from A,
+       which starts with the plateau from A. */
+    private int[] viaPath(int a) {
+        List<Integer> toA = new ArrayList<>();
+        for (int v = a; v != search.start(); v = search.parentFromStart(v)) {
+            toA.add(v);
+        }
+        toA.add(search.start());
+        int length = toA.size();
+        for (int v = a; v != search.end(); v = search.parentToEnd(v)) {
+            length++;
+        }
+        int[] path = new int[length];
+        int i = 0;
+        for (int j = toA.size() - 1; j >= 0; j--) {
+            path[i++] = toA.get(j);
+        }
+        for (int v = a; v != search.end(); ) {
+            v = search.parentToEnd(v);
+            path[i++] = v;
+        }
+        return path;
+    }
+
+    /* Returns an array mapping each vertex of ROUTE to the next one, and every
+       other vertex below N to -1. */
+    private static int[] successors(int[] route, int n) {
+        int[] next = new int[n];
+        Arrays.fill(next, -1);
+        for (int i = 1; i < route.length; i++) {
+            next[route[i - 1]] = route[i];
+        }
+        return next;
+    }
+
+    /* Returns the weight of the lightest edge from V to W. */
+    private double edgeWeight(int v, int w) {
+        double weight = Double.POSITIVE_INFINITY;
+        for (int e = input.edgesBegin(v); e < input.edgesEnd(v); e++) {
+            if (input.edgeTarget(e) == w) {
+                weight = Math.min(weight, input.edgeWeight(e));
+            }
+        }
+        return weight;
+    }
+}
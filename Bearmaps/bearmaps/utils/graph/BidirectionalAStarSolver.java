@@ -0,0 +1,302 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bidirectional A* over an IntAStarGraph: one search grows forward from the
+ * start and another backward from the end, and they stop once no shorter
+ * meeting point can exist.
+ *
+ * Both searches use the average potential pf(v) = (h(v, end) - h(v, start)) / 2
+ * (and pr = -pf for the backward side), which keeps the reduced edge costs
+ * identical in both directions so the usual bidirectional Dijkstra stopping
+ * rule applies: stop when topForward + topBackward >= the best path seen.
+ *
+ * The backward search walks the same outgoing edges as the forward one, so
+ * the graph must be symmetric (every edge has a reverse edge of equal weight).
+ * StreetMapGraph satisfies this since every way is added in both directions.
+ *
+ * Given a stretch above 1, both searches keep going after the shortest path
+ * is found, until each has settled every vertex on a start -> end path of
+ * weight up to stretch times the shortest, or together they have settled as
+ * many vertices again as finding the path took (at least MIN_EXTRA_SETTLED),
+ * so that the work of a long route at most doubles; AlternativeRoutes looks
+ * for other routes in the two search trees this leaves.
+ */
+public class BidirectionalAStarSolver implements IntShortestPathsSolver {
+    /** The fewest vertices settled past the solution when asked for a stretch. */
+    private static final int MIN_EXTRA_SETTLED = 256;
+
+    private SolverOutcome outcome;
+    private double solutionWeight;
+    private int[] solution = new int[0];
+    private int numStatesExplored;
+    private int numEdgesRelaxed;
+    private int numQueueOperations;
+    private double timeSpent;
+
+    private final IntAStarGraph input;
+    private final IntHeuristic heuristic;
+    private final int start;
+    private final int end;
+
+    /* The two search trees: the distance of every vertex from the start and
+       to the end, its parent towards the start and towards the end, and
+       whether that distance is final. */
+    private final double[] distF;
+    private final double[] distB;
+    private final int[] edgeToF;
+    private final int[] edgeToB;
+    private final boolean[] settledF;
+    private final boolean[] settledB;
+
+    /* The weight of the best path seen so far, and where its halves meet. */
+    private double best;
+    private int meet;
+
+    public BidirectionalAStarSolver(IntAStarGraph input, int start, int end, double timeout) {
+        this(input, input::estimatedDistanceToGoal, start, end, timeout);
+    }
+
+    /* Finds the solution guided by HEURISTIC. Note that timeout passed in is in seconds. */
+    public BidirectionalAStarSolver(IntAStarGraph input, IntHeuristic heuristic, int start,
+                                    int end, double timeout) {
+        this(input, heuristic, start, end, timeout, 1);
+    }
+
+    /* Same as above, then grows both search trees towards paths of STRETCH
+       times the solution's weight, within the same timeout. */
+    public BidirectionalAStarSolver(IntAStarGraph input, IntHeuristic heuristic, int start,
+                                    int end, double timeout, double stretch) {
+        long startTime = System.nanoTime();
+        long deadline = startTime + (long) (timeout * 1e9);
+        this.input = input;
+        this.heuristic = heuristic;
+        this.start = start;
+        this.end = end;
+
+        int n = input.numVertices();
+        IndexedMinHeap forward = new IndexedMinHeap(n);
+        IndexedMinHeap backward = new IndexedMinHeap(n);
+        distF = new double[n];
+        distB = new double[n];
+        edgeToF = new int[n];
+        edgeToB = new int[n];
+        settledF = new boolean[n];
+        settledB = new boolean[n];
+        Arrays.fill(distF, Double.POSITIVE_INFINITY);
+        Arrays.fill(distB, Double.POSITIVE_INFINITY);
+
+        distF[start] = 0;
+        distB[end] = 0;
+        edgeToF[start] = start;
+        edgeToB[end] = end;
+        forward.insert(start, potential(start));
+        backward.insert(end, -potential(end));
+        numQueueOperations += 2;
+
+        best = start == end ? 0 : Double.POSITIVE_INFINITY;
+        meet = start == end ? start : -1;
+        outcome = SolverOutcome.UNSOLVABLE;
+
+        while (!forward.isEmpty() && !backward.isEmpty()) {
+            if (System.nanoTime() >= deadline) {
+                outcome = SolverOutcome.TIMEOUT;
+                break;
+            }
+            if (forward.peekPriority() + backward.peekPriority() >= best) {
+                break;
+            }
+            if (forward.peekPriority() <= backward.peekPriority()) {
+                settle(forward, true);
+            } else {
+                settle(backward, false);
+            }
+        }
+
+        if (outcome != SolverOutcome.TIMEOUT && meet >= 0) {
+            outcome = SolverOutcome.SOLVED;
+            solutionWeight = best;
+            solution = join(meet);
+            /* A vertex v on a path of weight at most limit has
+               distF(v) + pf(v) <= limit + pf(end), since pf(v) - pf(end) is a
+               lower bound on distB(v); and likewise for the backward side.
+               The side further from its limit goes next, so both trees grow
+               alike. Running out of time here still leaves the solution. */
+            double limit = stretch * best;
+            double limitF = limit + potential(end);
+            double limitB = limit - potential(start);
+            int budget = numStatesExplored + Math.max(numStatesExplored, MIN_EXTRA_SETTLED);
+            while (stretch > 1 && numStatesExplored < budget
+                    && System.nanoTime() < deadline) {
+                double slackF = forward.isEmpty() ? -1 : limitF - forward.peekPriority();
+                double slackB = backward.isEmpty() ? -1 : limitB - backward.peekPriority();
+                if (slackF < 0 && slackB < 0) {
+                    break;
+                } else if (slackF >= slackB) {
+                    settle(forward, true);
+                } else {
+                    settle(backward, false);
+                }
+            }
+        } else if (outcome != SolverOutcome.TIMEOUT) {
+            outcome = SolverOutcome.UNSOLVABLE;
+        }
+        timeSpent = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /* Settles the top vertex of FRINGE, the forward search's if ISFORWARD, and
+       relaxes its edges, noting any shorter path through them. */
+    private void settle(IndexedMinHeap fringe, boolean isForward) {
+        double[] dist = isForward ? distF : distB;
+        double[] otherDist = isForward ? distB : distF;
+        int[] edgeTo = isForward ? edgeToF : edgeToB;
+        boolean[] settled = isForward ? settledF : settledB;
+        double sign = isForward ? 1 : -1;
+
+        int v = fringe.poll();
+        numStatesExplored++;
+        numQueueOperations++;
+        settled[v] = true;
+
+        numEdgesRelaxed += input.edgesEnd(v) - input.edgesBegin(v);
+        for (int e = input.edgesBegin(v); e < input.edgesEnd(v); e++) {
+            int q = input.edgeTarget(e);
+            if (settled[q]) {
+                continue;
+            }
+            double d = dist[v] + input.edgeWeight(e);
+            if (d < dist[q]) {
+                dist[q] = d;
+                edgeTo[q] = v;
+                double priority = d + sign * potential(q);
+                if (fringe.contains(q)) {
+                    fringe.changePriority(q, priority);
+                } else {
+                    fringe.insert(q, priority);
+                }
+                numQueueOperations++;
+                if (d + otherDist[q] < best) {
+                    best = d + otherDist[q];
+                    meet = q;
+                }
+            }
+        }
+    }
+
+    /* The forward potential of V; the backward potential is its negation. */
+    private double potential(int v) {
+        return (heuristic.estimate(v, end) - heuristic.estimate(v, start)) / 2;
+    }
+
+    /* Concatenates start -> MEET from the forward tree with MEET -> end from
+       the backward tree. */
+    private int[] join(int meet) {
+        int lengthF = 1;
+        for (int v = meet; v != start; v = edgeToF[v]) {
+            lengthF++;
+        }
+        int lengthB = 0;
+        for (int v = meet; v != end; v = edgeToB[v]) {
+            lengthB++;
+        }
+        int[] path = new int[lengthF + lengthB];
+        int i = lengthF - 1;
+        for (int v = meet; i >= 0; v = edgeToF[v], i--) {
+            path[i] = v;
+        }
+        i = lengthF;
+        for (int v = meet; v != end; i++) {
+            v = edgeToB[v];
+            path[i] = v;
+        }
+        return path;
+    }
+
+    /* The search trees, for AlternativeRoutes. A vertex's distances and
+       parents are only final where settledFromStart or settledToEnd holds. */
+
+    int start() {
+        return start;
+    }
+
+    int end() {
+        return end;
+    }
+
+    boolean settledFromStart(int v) {
+        return settledF[v];
+    }
+
+    boolean settledToEnd(int v) {
+        return settledB[v];
+    }
+
+    double distanceFromStart(int v) {
+        return distF[v];
+    }
+
+    double distanceToEnd(int v) {
+        return distB[v];
+    }
+
+    /* The vertex before V on the tree path from the start; the start itself for the start. */
+    int parentFromStart(int v) {
+        return edgeToF[v];
+    }
+
+    /* The vertex after V on the tree path to the end; the end itself for the end. */
+    int parentToEnd(int v) {
+        return edgeToB[v];
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Integer> solution() {
+        List<Integer> list = new ArrayList<>(solution.length);
+        for (int v : solution) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    /* The solution as a primitive array of vertex indices; empty if not SOLVED. */
+    @Override
+    public int[] solutionArray() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    /* The number of vertices settled by both searches together. */
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    @Override
+    public int numEdgesRelaxed() {
+        return numEdgesRelaxed;
+    }
+
+    @Override
+    public int numQueueOperations() {
+        return numQueueOperations;
+    }
+
+    @Override
+    public double explorationTime() {
+        return timeSpent;
+    }
+}
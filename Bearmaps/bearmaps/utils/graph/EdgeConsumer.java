@@ -0,0 +1,12 @@
+package bearmaps.utils.graph;
+
+/**
+ * Receives the edges of a vertex one at a time from
+ * AStarGraph.forEachNeighbor, with the weight as a primitive, so that walking
+ * the edges needs no list or edge objects.
+ */
+@FunctionalInterface
+public interface EdgeConsumer<Vertex> {
+    /* Called once for each edge FROM -> TO of weight WEIGHT. */
+    void accept(Vertex from, Vertex to, double weight);
+}
@@ -0,0 +1,28 @@
+package bearmaps.utils.graph;
+
+/**
+ * Represents a graph whose vertices are the dense ints 0 through
+ * numVertices() - 1, with edges addressed by int index. This is the primitive
+ * counterpart of AStarGraph: nothing here boxes or allocates, so solvers can
+ * walk it with plain arrays.
+ */
+public interface IntAStarGraph {
+    /* Returns the number of vertices in this graph. */
+    int numVertices();
+
+    /* The outgoing edges of V are the edge indices in [edgesBegin(V), edgesEnd(V)). */
+    int edgesBegin(int v);
+
+    int edgesEnd(int v);
+
+    /* Returns the vertex that edge E points to. */
+    int edgeTarget(int e);
+
+    /* Returns the weight of edge E. */
+    double edgeWeight(int e);
+
+    /* Provides an estimate of the "distance" to reach the goal from
+       the start position. For results to be correct, this estimate must
+       be less than or equal to the correct "distance". */
+    double estimatedDistanceToGoal(int s, int goal);
+}
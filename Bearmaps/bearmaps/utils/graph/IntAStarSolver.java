@@ -0,0 +1,151 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A* over an IntAStarGraph. The fringe is an IndexedMinHeap and all per-vertex
+ * state lives in primitive arrays, so the search loop neither boxes nor
+ * allocates. Vertices in the solution are the graph's dense int indices.
+ */
+public class IntAStarSolver implements IntShortestPathsSolver {
+    private SolverOutcome outcome;
+    private double solutionWeight;
+    private int[] solution = new int[0];
+    private int numStatesExplored;
+    private int numEdgesRelaxed;
+    private int numQueueOperations;
+    private double timeSpent;
+
+    /* Constructor which finds the solution, computing everything necessary for all other
+    methods to return their results in constant time. Note that timeout passed in is in seconds. */
+    public IntAStarSolver(IntAStarGraph input, int start, int end, double timeout) {
+        this(input, input::estimatedDistanceToGoal, start, end, timeout);
+    }
+
+    /* Same as above, but guided by HEURISTIC instead of the graph's own estimate. */
+    public IntAStarSolver(IntAStarGraph input, IntHeuristic heuristic, int start, int end,
+                          double timeout) {
+        long startTime = System.nanoTime();
+        long deadline = startTime + (long) (timeout * 1e9);
+
+        int n = input.numVertices();
+        IndexedMinHeap fringe = new IndexedMinHeap(n);
+        double[] distTo = new double[n];
+        int[] edgeTo = new int[n];
+        boolean[] visited = new boolean[n];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+
+        distTo[start] = 0.0;
+        edgeTo[start] = start;
+        fringe.insert(start, heuristic.estimate(start, end));
+        numQueueOperations++;
+
+        outcome = SolverOutcome.UNSOLVABLE;
+        while (!fringe.isEmpty()) {
+            if (System.nanoTime() >= deadline) {
+                outcome = SolverOutcome.TIMEOUT;
+                break;
+            }
+            int v = fringe.poll();
+            numStatesExplored++;
+            numQueueOperations++;
+            visited[v] = true;
+            if (v == end) {
+                outcome = SolverOutcome.SOLVED;
+                break;
+            }
+
+            numEdgesRelaxed += input.edgesEnd(v) - input.edgesBegin(v);
+            for (int e = input.edgesBegin(v); e < input.edgesEnd(v); e++) {
+                int q = input.edgeTarget(e);
+                if (visited[q]) {
+                    continue;
+                }
+                double d = distTo[v] + input.edgeWeight(e);
+                if (d < distTo[q]) {
+                    distTo[q] = d;
+                    edgeTo[q] = v;
+                    double priority = d + heuristic.estimate(q, end);
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, priority);
+                    } else {
+                        fringe.insert(q, priority);
+                    }
+                    numQueueOperations++;
+                }
+            }
+        }
+
+        if (outcome == SolverOutcome.SOLVED) {
+            solutionWeight = distTo[end];
+            int length = 1;
+            for (int v = end; v != start; v = edgeTo[v]) {
+                length++;
+            }
+            solution = new int[length];
+            for (int v = end, i = length - 1; i >= 0; v = edgeTo[v], i--) {
+                solution[i] = v;
+            }
+        }
+        timeSpent = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /* Returns one of SolverOutcome.SOLVED, SolverOutcome.TIMEOUT, or SolverOutcome.UNSOLVABLE. */
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    /* A list of vertices corresponding to a solution.
+    Should be empty if result was TIMEOUT or UNSOLVABLE. */
+    @Override
+    public List<Integer> solution() {
+        List<Integer> list = new ArrayList<>(solution.length);
+        for (int v : solution) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    /* The solution as a primitive array of vertex indices; empty if not SOLVED. */
+    @Override
+    public int[] solutionArray() {
+        return solution;
+    }
+
+    /* The total weight of the given solution, taking into account edge weights.
+    Should be 0 if result was TIMEOUT or UNSOLVABLE. */
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    /* The total number of priority queue poll() operations. */
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    /* The number of edges looked at from settled vertices, whether or not
+    they improved the distance to their target. */
+    @Override
+    public int numEdgesRelaxed() {
+        return numEdgesRelaxed;
+    }
+
+    /* The number of priority queue insert, changePriority and poll operations. */
+    @Override
+    public int numQueueOperations() {
+        return numQueueOperations;
+    }
+
+    /* The total time spent in seconds by the constructor. */
+    @Override
+    public double explorationTime() {
+        return timeSpent;
+    }
+}
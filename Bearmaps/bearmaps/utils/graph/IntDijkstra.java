@@ -0,0 +1,113 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.util.Arrays;
+
+/**
+ * One-to-all Dijkstra over an IntAStarGraph, for preprocessing steps that need
+ * full distance arrays rather than a single path, and one-to-many Dijkstra for
+ * the paths to a set of targets.
+ */
+public class IntDijkstra {
+
+    private IntDijkstra() {
+    }
+
+    /**
+     * Returns the distance from SOURCE to every vertex of G, with
+     * Double.POSITIVE_INFINITY for vertices that cannot be reached.
+     */
+    public static double[] distancesFrom(IntAStarGraph g, int source) {
+        int n = g.numVertices();
+        double[] distTo = new double[n];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        IndexedMinHeap fringe = new IndexedMinHeap(n);
+        distTo[source] = 0;
+        fringe.insert(source, 0);
+        while (!fringe.isEmpty()) {
+            int v = fringe.poll();
+            for (int e = g.edgesBegin(v); e < g.edgesEnd(v); e++) {
+                int q = g.edgeTarget(e);
+                double d = distTo[v] + g.edgeWeight(e);
+                if (d < distTo[q]) {
+                    distTo[q] = d;
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, d);
+                    } else {
+                        fringe.insert(q, d);
+                    }
+                }
+            }
+        }
+        return distTo;
+    }
+
+    /**
+     * Returns the shortest paths from SOURCE to each of TARGETS as vertex
+     * indices, SOURCE first, with an empty path for targets that cannot be
+     * reached. The search stops as soon as every target is settled. Returns
+     * null if that takes more than TIMEOUT seconds.
+     */
+    public static int[][] pathsFrom(IntAStarGraph g, int source, int[] targets,
+                                    double timeout) {
+        long deadline = System.nanoTime() + (long) (timeout * 1e9);
+        int n = g.numVertices();
+        double[] distTo = new double[n];
+        int[] edgeTo = new int[n];
+        boolean[] isTarget = new boolean[n];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        int remaining = 0;
+        for (int t : targets) {
+            if (!isTarget[t]) {
+                isTarget[t] = true;
+                remaining++;
+            }
+        }
+        IndexedMinHeap fringe = new IndexedMinHeap(n);
+        distTo[source] = 0;
+        edgeTo[source] = source;
+        fringe.insert(source, 0);
+        while (!fringe.isEmpty() && remaining > 0) {
+            if (System.nanoTime() >= deadline) {
+                return null;
+            }
+            int v = fringe.poll();
+            if (isTarget[v]) {
+                remaining--;
+            }
+            for (int e = g.edgesBegin(v); e < g.edgesEnd(v); e++) {
+                int q = g.edgeTarget(e);
+                double d = distTo[v] + g.edgeWeight(e);
+                if (d < distTo[q]) {
+                    distTo[q] = d;
+                    edgeTo[q] = v;
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, d);
+                    } else {
+                        fringe.insert(q, d);
+                    }
+                }
+            }
+        }
+
+        int[][] paths = new int[targets.length][];
+        for (int i = 0; i < targets.length; i++) {
+            int t = targets[i];
+            if (distTo[t] == Double.POSITIVE_INFINITY) {
+                paths[i] = new int[0];
+                continue;
+            }
+            int length = 1;
+            for (int v = t; v != source; v = edgeTo[v]) {
+                length++;
+            }
+            int[] path = new int[length];
+            for (int v = t, k = length - 1; k >= 0; v = edgeTo[v], k--) {
+                path[k] = v;
+            }
+            paths[i] = path;
+        }
+        return paths;
+    }
+}
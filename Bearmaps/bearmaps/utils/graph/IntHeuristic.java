@@ -0,0 +1,13 @@
+package bearmaps.utils.graph;
+
+/**
+ * A lower bound on the distance between two vertices of an IntAStarGraph.
+ * Solvers that accept one use it in place of the graph's own
+ * estimatedDistanceToGoal, which lets preprocessed bounds such as landmark
+ * distances be plugged in without changing the graph.
+ */
+public interface IntHeuristic {
+    /* Returns an estimate of the distance from V to GOAL that is less than or
+       equal to the true distance, and consistent across edges. */
+    double estimate(int v, int goal);
+}
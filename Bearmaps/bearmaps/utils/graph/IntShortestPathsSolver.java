@@ -0,0 +1,17 @@
+package bearmaps.utils.graph;
+
+/**
+ * A shortest paths solver over integer vertex indices that can hand back its
+ * solution without boxing.
+ */
+public interface IntShortestPathsSolver extends ShortestPathsSolver<Integer> {
+    /* The solution as a primitive array of vertex indices; empty if not SOLVED. */
+    int[] solutionArray();
+
+    /* The number of edges looked at from settled vertices, whether or not
+    they improved the distance to their target. */
+    int numEdgesRelaxed();
+
+    /* The number of priority queue insert, changePriority and poll operations. */
+    int numQueueOperations();
+}
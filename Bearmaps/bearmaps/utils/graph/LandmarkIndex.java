@@ -0,0 +1,234 @@
+package bearmaps.utils.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Preprocessed landmark distances for ALT (A*, Landmarks, Triangle inequality)
+ * search. For every landmark L and vertex v we store d(L, v); by the triangle
+ * inequality |d(L, t) - d(L, v)| is then a lower bound on d(v, t), which is
+ * usually far tighter than the straight-line distance and is consistent, so it
+ * can guide both A* and bidirectional A*.
+ *
+ * Landmarks are chosen by farthest selection: each new landmark is the vertex
+ * farthest from all landmarks chosen so far. Distances are kept as one float
+ * array per landmark and can be saved to and loaded from a flat binary file.
+ *
+ * Assumes a symmetric graph, so that d(L, v) = d(v, L).
+ */
+public class LandmarkIndex implements IntHeuristic {
+    /** Identifies a landmark file, and its layout version. */
+    private static final int MAGIC = 0x414c5431;
+    /** Header: magic, numVertices, numEdges, numLandmarks, then the graph fingerprint. */
+    private static final int HEADER_BYTES = 4 * Integer.BYTES + Long.BYTES;
+    /** Relative slack subtracted from each bound to absorb float rounding. */
+    private static final double SLACK = 1e-6;
+
+    private final IntAStarGraph graph;
+    private final int[] landmarks;
+    /** dist[i][v] is the distance from landmarks[i] to v, or +Infinity. */
+    private final float[][] dist;
+
+    private LandmarkIndex(IntAStarGraph graph, int[] landmarks, float[][] dist) {
+        this.graph = graph;
+        this.landmarks = landmarks;
+        this.dist = dist;
+    }
+
+    /**
+     * Chooses NUMLANDMARKS landmarks for G by farthest selection and computes
+     * their distances to every vertex. Costs one Dijkstra per landmark.
+     */
+    public static LandmarkIndex build(IntAStarGraph g, int numLandmarks) {
+        int n = g.numVertices();
+        numLandmarks = Math.min(numLandmarks, n);
+        int[] landmarks = new int[numLandmarks];
+        float[][] dist = new float[numLandmarks][];
+
+        /* Seed from the farthest vertex from a well-connected vertex, so the
+           first landmark lands on the rim of the main component. */
+        int hub = 0;
+        for (int v = 1; v < n; v++) {
+            if (g.edgesEnd(v) - g.edgesBegin(v) > g.edgesEnd(hub) - g.edgesBegin(hub)) {
+                hub = v;
+            }
+        }
+        double[] minDist = n == 0 ? new double[0] : IntDijkstra.distancesFrom(g, hub);
+
+        for (int i = 0; i < numLandmarks; i++) {
+            int far = -1;
+            for (int v = 0; v < n; v++) {
+                if (minDist[v] != Double.POSITIVE_INFINITY
+                        && (far < 0 || minDist[v] > minDist[far])) {
+                    far = v;
+                }
+            }
+            if (far < 0 || (i > 0 && minDist[far] == 0)) {
+                landmarks = Arrays.copyOf(landmarks, i);
+                dist = Arrays.copyOf(dist, i);
+                break;
+            }
+            landmarks[i] = far;
+            double[] d = IntDijkstra.distancesFrom(g, far);
+            dist[i] = new float[n];
+            for (int v = 0; v < n; v++) {
+                dist[i][v] = (float) d[v];
+                if (i == 0) {
+                    minDist[v] = d[v];
+                } else {
+                    minDist[v] = Math.min(minDist[v], d[v]);
+                }
+            }
+        }
+        return new LandmarkIndex(g, landmarks, dist);
+    }
+
+    /**
+     * Loads the landmark file at PATH if it exists, is newer than SOURCEFILE and
+     * matches G; otherwise builds a fresh index and tries to save it to PATH.
+     * A failure to save is reported but not fatal.
+     * @param fingerprint A value identifying the exact graph G was built from.
+     */
+    public static LandmarkIndex loadOrBuild(IntAStarGraph g, long fingerprint, String path,
+                                            String sourceFile, int numLandmarks) {
+        File file = new File(path);
+        if (file.isFile() && file.lastModified() >= new File(sourceFile).lastModified()) {
+            try {
+                LandmarkIndex index = load(g, fingerprint, path);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        LandmarkIndex index = build(g, numLandmarks);
+        try {
+            index.save(fingerprint, path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    /**
+     * Reads a landmark file written by save. Returns null if the file was
+     * written for a different graph.
+     */
+    public static LandmarkIndex load(IntAStarGraph g, long fingerprint, String path)
+            throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < HEADER_BYTES || buf.getInt() != MAGIC) {
+                return null;
+            }
+            int n = buf.getInt();
+            int m = buf.getInt();
+            int k = buf.getInt();
+            long storedFingerprint = buf.getLong();
+            if (n != g.numVertices() || m != numEdges(g) || storedFingerprint != fingerprint
+                    || channel.size() != HEADER_BYTES + (long) k * Integer.BYTES
+                    + (long) k * n * Float.BYTES) {
+                return null;
+            }
+            int[] landmarks = new int[k];
+            buf.asIntBuffer().get(landmarks);
+            buf.position(buf.position() + k * Integer.BYTES);
+            float[][] dist = new float[k][n];
+            for (int i = 0; i < k; i++) {
+                buf.asFloatBuffer().get(dist[i]);
+                buf.position(buf.position() + n * Float.BYTES);
+            }
+            return new LandmarkIndex(g, landmarks, dist);
+        }
+    }
+
+    /**
+     * Writes this index to PATH, through a temporary file in the same folder,
+     * so that no process ever reads a half written index.
+     */
+    public void save(long fingerprint, String path) throws IOException {
+        int n = graph.numVertices();
+        int k = landmarks.length;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + k * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(n).putInt(numEdges(graph)).putInt(k).putLong(fingerprint);
+        for (int l : landmarks) {
+            header.putInt(l);
+        }
+        header.flip();
+        ByteBuffer row = ByteBuffer.allocate(n * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        Path target = Paths.get(path).toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(),
+                ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                for (float[] d : dist) {
+                    row.clear();
+                    row.asFloatBuffer().put(d);
+                    row.limit(n * Float.BYTES);
+                    while (row.hasRemaining()) {
+                        channel.write(row);
+                    }
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static int numEdges(IntAStarGraph g) {
+        int n = g.numVertices();
+        return n == 0 ? 0 : g.edgesEnd(n - 1) - g.edgesBegin(0);
+    }
+
+    /** Returns the number of landmarks. */
+    public int size() {
+        return landmarks.length;
+    }
+
+    /** Returns the vertex index of landmark I. */
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /**
+     * Returns the largest landmark lower bound on the distance from V to GOAL,
+     * or the graph's own estimate if that is larger.
+     */
+    @Override
+    public double estimate(int v, int goal) {
+        double best = graph.estimatedDistanceToGoal(v, goal);
+        for (float[] d : dist) {
+            double dv = d[v];
+            double dg = d[goal];
+            if (dv == Double.POSITIVE_INFINITY || dg == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            double bound = Math.abs(dg - dv) - SLACK * (dv + dg);
+            if (bound > best) {
+                best = bound;
+            }
+        }
+        return best;
+    }
+}
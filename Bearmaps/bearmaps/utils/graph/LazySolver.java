@@ -1,7 +1,5 @@
 package bearmaps.utils.graph;
 
-import edu.princeton.cs.algs4.Stopwatch;
-
 import java.util.List;
 
 /**
@@ -18,19 +16,19 @@ public class LazySolver<Vertex> implements ShortestPathsSolver<Vertex> {
 
     /* ignores timeout since algorithm is so fast. */
     public LazySolver(AStarGraph<Vertex> G, Vertex start, Vertex goal, double timeout) {
-        Stopwatch sw = new Stopwatch();
+        long startTime = System.nanoTime();
         List<WeightedEdge<Vertex>> neighborEdges = G.neighbors(start);
         for (WeightedEdge<Vertex> e : neighborEdges) {
             if (e.to().equals(goal)) {
                 solution = List.of(start, goal);
                 solutionWeight = e.weight();
                 outcome = SolverOutcome.SOLVED;
-                timeSpent = sw.elapsedTime();
+                timeSpent = (System.nanoTime() - startTime) / 1e9;
                 return;
             }
         }
         outcome = SolverOutcome.UNSOLVABLE;
-        timeSpent = sw.elapsedTime();
+        timeSpent = (System.nanoTime() - startTime) / 1e9;
     }
 
     @Override
@@ -55,6 +53,6 @@ public class LazySolver<Vertex> implements ShortestPathsSolver<Vertex> {
 
     @Override
     public double explorationTime() {
-        return 0;
+        return timeSpent;
     }
 }
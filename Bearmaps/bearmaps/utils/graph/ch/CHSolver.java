@@ -0,0 +1,282 @@
+package bearmaps.utils.graph.ch;
+
+import bearmaps.utils.graph.IntShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers a shortest path query on a ContractionHierarchy: a forward Dijkstra
+ * from the start and a backward one from the end, each relaxing upward edges
+ * only. The best meeting vertex is the highest-ranked vertex of the shortest
+ * path, and a side stops once its smallest key reaches the best path seen.
+ * Shortcuts on the resulting path are then unpacked recursively through their
+ * middle vertices, so the solution is a path in the original graph.
+ *
+ * A query settles a few hundred vertices at most, far fewer than the graph
+ * has, so the per-vertex arrays are kept per thread and reset through a list of
+ * touched vertices instead of being allocated and filled for every query.
+ */
+public class CHSolver implements IntShortestPathsSolver {
+    private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<>();
+
+    private SolverOutcome outcome;
+    private double solutionWeight;
+    private int[] solution = new int[0];
+    private int numStatesExplored;
+    private int numEdgesRelaxed;
+    private int numQueueOperations;
+    private double timeSpent;
+
+    /* Finds the solution. Note that timeout passed in is in seconds. */
+    public CHSolver(ContractionHierarchy ch, int start, int end, double timeout) {
+        long startTime = System.nanoTime();
+        long deadline = startTime + (long) (timeout * 1e9);
+
+        Workspace ws = WORKSPACE.get();
+        if (ws == null || ws.distF.length != ch.numVertices()) {
+            ws = new Workspace(ch.numVertices());
+            WORKSPACE.set(ws);
+        }
+        IndexedMinHeap forward = ws.forward;
+        IndexedMinHeap backward = ws.backward;
+        double[] distF = ws.distF;
+        double[] distB = ws.distB;
+        int[] edgeToF = ws.edgeToF;
+        int[] edgeToB = ws.edgeToB;
+
+        ws.touch(start);
+        ws.touch(end);
+        distF[start] = 0;
+        distB[end] = 0;
+        edgeToF[start] = start;
+        edgeToB[end] = end;
+        forward.insert(start, 0);
+        backward.insert(end, 0);
+        numQueueOperations += 2;
+
+        double best = start == end ? 0 : Double.POSITIVE_INFINITY;
+        int meet = start == end ? start : -1;
+        outcome = SolverOutcome.UNSOLVABLE;
+
+        while (true) {
+            boolean doneF = forward.isEmpty() || forward.peekPriority() >= best;
+            boolean doneB = backward.isEmpty() || backward.peekPriority() >= best;
+            if (doneF && doneB) {
+                break;
+            }
+            if (System.nanoTime() >= deadline) {
+                outcome = SolverOutcome.TIMEOUT;
+                break;
+            }
+            boolean isForward = doneB
+                    || (!doneF && forward.peekPriority() <= backward.peekPriority());
+            IndexedMinHeap fringe = isForward ? forward : backward;
+            double[] dist = isForward ? distF : distB;
+            double[] otherDist = isForward ? distB : distF;
+            int[] edgeTo = isForward ? edgeToF : edgeToB;
+
+            int v = fringe.poll();
+            numStatesExplored++;
+            numQueueOperations++;
+            if (dist[v] + otherDist[v] < best) {
+                best = dist[v] + otherDist[v];
+                meet = v;
+            }
+            if (stalled(ch, dist, v)) {
+                continue;
+            }
+            numEdgesRelaxed += ch.upEnd(v) - ch.upBegin(v);
+            for (int e = ch.upBegin(v); e < ch.upEnd(v); e++) {
+                int q = ch.target(e);
+                double d = dist[v] + ch.weight(e);
+                if (d < dist[q]) {
+                    ws.touch(q);
+                    dist[q] = d;
+                    edgeTo[q] = v;
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, d);
+                    } else {
+                        fringe.insert(q, d);
+                    }
+                    numQueueOperations++;
+                }
+            }
+        }
+
+        if (outcome != SolverOutcome.TIMEOUT && meet >= 0) {
+            outcome = SolverOutcome.SOLVED;
+            solutionWeight = best;
+            solution = unpack(ch, edgeToF, edgeToB, start, end, meet);
+        }
+        ws.reset();
+        timeSpent = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /* Stall-on-demand: V need not be expanded if some higher-ranked vertex
+       already reached reaches V more cheaply than dist[V], since then no
+       shortest path climbs through V. By symmetry, the edges from higher-ranked
+       vertices into V are V's own upward edges. */
+    private static boolean stalled(ContractionHierarchy ch, double[] dist, int v) {
+        for (int e = ch.upBegin(v); e < ch.upEnd(v); e++) {
+            if (dist[ch.target(e)] + ch.weight(e) < dist[v]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Builds start -> MEET -> end in the original graph. */
+    private static int[] unpack(ContractionHierarchy ch, int[] edgeToF, int[] edgeToB,
+                                int start, int end, int meet) {
+        /* The vertices of the path in the hierarchy, start first. */
+        int lengthF = 1;
+        for (int v = meet; v != start; v = edgeToF[v]) {
+            lengthF++;
+        }
+        int lengthB = 0;
+        for (int v = meet; v != end; v = edgeToB[v]) {
+            lengthB++;
+        }
+        int[] upPath = new int[lengthF + lengthB];
+        int i = lengthF - 1;
+        for (int v = meet; i >= 0; v = edgeToF[v], i--) {
+            upPath[i] = v;
+        }
+        i = lengthF;
+        for (int v = meet; v != end; i++) {
+            v = edgeToB[v];
+            upPath[i] = v;
+        }
+
+        int[] path = new int[Math.max(16, upPath.length)];
+        int length = 0;
+        path[length++] = start;
+        /* Each pending pair (a, b) is an edge still to be expanded; the stack
+           holds the right half of a split on top of the left. */
+        int[] stack = new int[32];
+        for (int k = 0; k + 1 < upPath.length; k++) {
+            int top = 0;
+            stack[top++] = upPath[k];
+            stack[top++] = upPath[k + 1];
+            while (top > 0) {
+                int b = stack[--top];
+                int a = stack[--top];
+                int middle = ch.middle(ch.findEdge(a, b));
+                if (middle < 0) {
+                    if (length == path.length) {
+                        path = Arrays.copyOf(path, length * 2);
+                    }
+                    path[length++] = b;
+                } else {
+                    if (top + 4 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = middle;
+                    stack[top++] = b;
+                    stack[top++] = a;
+                    stack[top++] = middle;
+                }
+            }
+        }
+        return Arrays.copyOf(path, length);
+    }
+
+    /* Per-vertex search state for one thread. Every entry of distF and distB
+       is +Infinity between queries. */
+    private static class Workspace {
+        final IndexedMinHeap forward;
+        final IndexedMinHeap backward;
+        final double[] distF;
+        final double[] distB;
+        final int[] edgeToF;
+        final int[] edgeToB;
+        final boolean[] isTouched;
+        int[] touched = new int[64];
+        int numTouched;
+
+        Workspace(int n) {
+            forward = new IndexedMinHeap(n);
+            backward = new IndexedMinHeap(n);
+            distF = new double[n];
+            distB = new double[n];
+            edgeToF = new int[n];
+            edgeToB = new int[n];
+            isTouched = new boolean[n];
+            Arrays.fill(distF, Double.POSITIVE_INFINITY);
+            Arrays.fill(distB, Double.POSITIVE_INFINITY);
+        }
+
+        /* Records that V's distances are about to change. */
+        void touch(int v) {
+            if (!isTouched[v]) {
+                isTouched[v] = true;
+                if (numTouched == touched.length) {
+                    touched = Arrays.copyOf(touched, numTouched * 2);
+                }
+                touched[numTouched++] = v;
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < numTouched; i++) {
+                int v = touched[i];
+                distF[v] = Double.POSITIVE_INFINITY;
+                distB[v] = Double.POSITIVE_INFINITY;
+                isTouched[v] = false;
+            }
+            numTouched = 0;
+            forward.clear();
+            backward.clear();
+        }
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Integer> solution() {
+        List<Integer> list = new ArrayList<>(solution.length);
+        for (int v : solution) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    /* The solution as a primitive array of vertex indices; empty if not SOLVED. */
+    @Override
+    public int[] solutionArray() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    /* The number of vertices settled by both searches together, stalled ones included. */
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    @Override
+    public int numEdgesRelaxed() {
+        return numEdgesRelaxed;
+    }
+
+    @Override
+    public int numQueueOperations() {
+        return numQueueOperations;
+    }
+
+    @Override
+    public double explorationTime() {
+        return timeSpent;
+    }
+}
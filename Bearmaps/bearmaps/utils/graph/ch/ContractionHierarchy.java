@@ -0,0 +1,514 @@
+package bearmaps.utils.graph.ch;
+
+import bearmaps.utils.graph.IntAStarGraph;
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A Contraction Hierarchy over a symmetric IntAStarGraph.
+ *
+ * Preprocessing contracts vertices one at a time in order of increasing
+ * importance. Contracting v removes it from the remaining graph and, for every
+ * pair of remaining neighbors u, w whose shortest connection ran through v,
+ * adds a shortcut edge u - w remembering v as its middle vertex. Importance is
+ * the edge difference (shortcuts added minus edges removed) plus the number of
+ * already-contracted neighbors, kept up to date lazily.
+ *
+ * What remains is the upward graph: every original or shortcut edge stored at
+ * its lower-ranked endpoint, in CSR form. A query is a bidirectional Dijkstra
+ * that only ever goes up in rank; see CHSolver. Since the input is symmetric,
+ * the backward search uses the same upward edges.
+ */
+public class ContractionHierarchy {
+    /** Appended to an OSM file's path to name the hierarchy file built from it. */
+    public static final String FILE_SUFFIX = ".ch";
+    /** Identifies a hierarchy file, and its layout version. */
+    private static final int MAGIC = 0x43484731;
+    /** Header: magic, numVertices, numUpEdges, then the graph fingerprint. */
+    private static final int HEADER_BYTES = 3 * Integer.BYTES + Long.BYTES;
+    /** Witness searches for actual contractions give up after settling this many vertices. */
+    private static final int CONTRACT_SETTLE_LIMIT = 200;
+    /** Witness searches that only estimate a priority give up sooner. */
+    private static final int SIMULATE_SETTLE_LIMIT = 20;
+
+    private final int[] rank;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    /** The vertex a shortcut skips over, or -1 for an original edge. */
+    private final int[] middles;
+
+    private ContractionHierarchy(int[] rank, int[] offsets, int[] targets, double[] weights,
+                                 int[] middles) {
+        this.rank = rank;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+    }
+
+    /** Returns the number of vertices. */
+    public int numVertices() {
+        return rank.length;
+    }
+
+    /** Returns the number of upward edges, shortcuts included. */
+    public int numUpEdges() {
+        return targets.length;
+    }
+
+    /** Returns the contraction order of V; higher is more important. */
+    public int rank(int v) {
+        return rank[v];
+    }
+
+    /* The upward edges of V are the edge indices in [upBegin(V), upEnd(V)). */
+    int upBegin(int v) {
+        return offsets[v];
+    }
+
+    int upEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    int target(int e) {
+        return targets[e];
+    }
+
+    double weight(int e) {
+        return weights[e];
+    }
+
+    int middle(int e) {
+        return middles[e];
+    }
+
+    /** Returns the upward edge between A and B, or -1 if there is none. */
+    int findEdge(int a, int b) {
+        int lo = rank[a] < rank[b] ? a : b;
+        int hi = lo == a ? b : a;
+        int best = -1;
+        for (int e = offsets[lo]; e < offsets[lo + 1]; e++) {
+            if (targets[e] == hi && (best < 0 || weights[e] < weights[best])) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Contracts every vertex of G and returns the resulting hierarchy.
+     * G must be symmetric.
+     */
+    public static ContractionHierarchy build(IntAStarGraph g) {
+        return new Builder(g).build();
+    }
+
+    /**
+     * Loads the hierarchy file at PATH if it exists, is newer than SOURCEFILE and
+     * matches G; otherwise builds a fresh hierarchy and tries to save it to PATH.
+     * @param fingerprint A value identifying the exact graph G was built from.
+     */
+    public static ContractionHierarchy loadOrBuild(IntAStarGraph g, long fingerprint,
+                                                   String path, String sourceFile) {
+        File file = new File(path);
+        if (file.isFile() && file.lastModified() >= new File(sourceFile).lastModified()) {
+            try {
+                ContractionHierarchy ch = load(g.numVertices(), fingerprint, path);
+                if (ch != null) {
+                    return ch;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        ContractionHierarchy ch = build(g);
+        try {
+            ch.save(fingerprint, path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return ch;
+    }
+
+    /**
+     * Reads a hierarchy file written by save. Returns null if it was written for
+     * a different graph.
+     */
+    public static ContractionHierarchy load(int numVertices, long fingerprint, String path)
+            throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < HEADER_BYTES || buf.getInt() != MAGIC) {
+                return null;
+            }
+            int n = buf.getInt();
+            int m = buf.getInt();
+            long storedFingerprint = buf.getLong();
+            long expectedSize = HEADER_BYTES + (long) Integer.BYTES * (2 * n + 1)
+                    + (long) m * (2 * Integer.BYTES + Double.BYTES);
+            if (n != numVertices || storedFingerprint != fingerprint
+                    || channel.size() != expectedSize) {
+                return null;
+            }
+            int[] rank = new int[n];
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] middles = new int[m];
+            readInts(buf, rank);
+            readInts(buf, offsets);
+            readInts(buf, targets);
+            buf.asDoubleBuffer().get(weights);
+            buf.position(buf.position() + m * Double.BYTES);
+            readInts(buf, middles);
+            return new ContractionHierarchy(rank, offsets, targets, weights, middles);
+        }
+    }
+
+    private static void readInts(ByteBuffer buf, int[] dst) {
+        buf.asIntBuffer().get(dst);
+        buf.position(buf.position() + dst.length * Integer.BYTES);
+    }
+
+    /**
+     * Writes this hierarchy to PATH, through a temporary file in the same
+     * folder, so that no process ever reads a half written hierarchy.
+     */
+    public void save(long fingerprint, String path) throws IOException {
+        int n = rank.length;
+        int m = targets.length;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + Integer.BYTES * (2 * n + 1)
+                + m * (2 * Integer.BYTES + Double.BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(n).putInt(m).putLong(fingerprint);
+        writeInts(buf, rank);
+        writeInts(buf, offsets);
+        writeInts(buf, targets);
+        buf.asDoubleBuffer().put(weights);
+        buf.position(buf.position() + m * Double.BYTES);
+        writeInts(buf, middles);
+        buf.flip();
+        Path target = Paths.get(path).toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(),
+                ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeInts(ByteBuffer buf, int[] src) {
+        buf.asIntBuffer().put(src);
+        buf.position(buf.position() + src.length * Integer.BYTES);
+    }
+
+    /**
+     * Holds the mutable state of preprocessing: an undirected adjacency list per
+     * vertex that grows as shortcuts are added, plus reusable witness search
+     * arrays.
+     */
+    private static class Builder {
+        private final int n;
+        private int[][] adjTo;
+        private double[][] adjWeight;
+        private int[][] adjMiddle;
+        private final int[] adjSize;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+        private final int[] level;
+
+        /* Witness search state; dist entries are reset through touched. */
+        private final IndexedMinHeap witnessPQ;
+        private final double[] dist;
+        private final int[] touched;
+        private int numTouched;
+        /* targetStamp[w] == stamp marks w as a target of the current search. */
+        private final int[] targetStamp;
+        private int stamp;
+
+        /* Scratch lists of the live neighbors of the vertex being contracted. */
+        private int[] nbr = new int[16];
+        private double[] nbrWeight = new double[16];
+
+        Builder(IntAStarGraph g) {
+            n = g.numVertices();
+            adjTo = new int[n][];
+            adjWeight = new double[n][];
+            adjMiddle = new int[n][];
+            adjSize = new int[n];
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            level = new int[n];
+            witnessPQ = new IndexedMinHeap(n);
+            dist = new double[n];
+            touched = new int[n];
+            targetStamp = new int[n];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+
+            for (int v = 0; v < n; v++) {
+                int degree = g.edgesEnd(v) - g.edgesBegin(v);
+                adjTo[v] = new int[Math.max(degree, 2)];
+                adjWeight[v] = new double[Math.max(degree, 2)];
+                adjMiddle[v] = new int[Math.max(degree, 2)];
+            }
+            for (int v = 0; v < n; v++) {
+                for (int e = g.edgesBegin(v); e < g.edgesEnd(v); e++) {
+                    int t = g.edgeTarget(e);
+                    if (t != v) {
+                        addOrImprove(v, t, g.edgeWeight(e), -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            IndexedMinHeap order = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                order.insert(v, priority(v));
+            }
+            int[] rank = new int[n];
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.poll();
+                /* Lazy update: the stored priority may be stale, so recompute it
+                   and put v back if it is no longer the minimum. */
+                double p = priority(v);
+                if (!order.isEmpty() && p > order.peekPriority()) {
+                    order.insert(v, p);
+                    continue;
+                }
+                contract(v);
+                rank[v] = next++;
+                for (int i = 0; i < adjSize[v]; i++) {
+                    int u = adjTo[v][i];
+                    if (!contracted[u]) {
+                        contractedNeighbors[u]++;
+                        level[u] = Math.max(level[u], level[v] + 1);
+                        if (order.contains(u)) {
+                            order.changePriority(u, priority(u));
+                        }
+                    }
+                }
+            }
+            return upwardGraph(rank);
+        }
+
+        /* Edge difference plus contracted-neighbor count. */
+        private double priority(int v) {
+            int live = collectNeighbors(v);
+            int shortcuts = shortcuts(v, live, false);
+            return shortcuts - live + contractedNeighbors[v] + level[v];
+        }
+
+        /* Removes V from the remaining graph, adding any needed shortcuts. V keeps
+           its own edges, which become its upward edges, but is dropped from its
+           neighbors' lists so later searches do not wade through it. */
+        private void contract(int v) {
+            int live = collectNeighbors(v);
+            shortcuts(v, live, true);
+            contracted[v] = true;
+            for (int i = 0; i < live; i++) {
+                remove(nbr[i], v);
+            }
+        }
+
+        /* Removes the edge U -> X, if any, by moving the last edge into its slot. */
+        private void remove(int u, int x) {
+            for (int i = 0; i < adjSize[u]; i++) {
+                if (adjTo[u][i] == x) {
+                    int last = --adjSize[u];
+                    adjTo[u][i] = adjTo[u][last];
+                    adjWeight[u][i] = adjWeight[u][last];
+                    adjMiddle[u][i] = adjMiddle[u][last];
+                    return;
+                }
+            }
+        }
+
+        /* Copies the live neighbors of V into nbr / nbrWeight; returns their count. */
+        private int collectNeighbors(int v) {
+            int count = 0;
+            for (int i = 0; i < adjSize[v]; i++) {
+                int u = adjTo[v][i];
+                if (contracted[u]) {
+                    continue;
+                }
+                if (count == nbr.length) {
+                    nbr = Arrays.copyOf(nbr, count * 2);
+                    nbrWeight = Arrays.copyOf(nbrWeight, count * 2);
+                }
+                nbr[count] = u;
+                nbrWeight[count] = adjWeight[v][i];
+                count++;
+            }
+            return count;
+        }
+
+        /* Counts (and if ADD, inserts) the shortcuts needed to contract V, whose
+           LIVE neighbors are in nbr. Each unordered pair is checked once, with a
+           witness search from the first vertex of the pair. */
+        private int shortcuts(int v, int live, boolean add) {
+            int[] from = Arrays.copyOf(nbr, live);
+            double[] fromWeight = Arrays.copyOf(nbrWeight, live);
+            int count = 0;
+            for (int i = 0; i < live - 1; i++) {
+                int u = from[i];
+                double maxVia = 0;
+                for (int j = i + 1; j < live; j++) {
+                    maxVia = Math.max(maxVia, fromWeight[i] + fromWeight[j]);
+                }
+                stamp++;
+                for (int j = i + 1; j < live; j++) {
+                    targetStamp[from[j]] = stamp;
+                }
+                witnessSearch(u, v, maxVia, live - i - 1,
+                        add ? CONTRACT_SETTLE_LIMIT : SIMULATE_SETTLE_LIMIT);
+                for (int j = i + 1; j < live; j++) {
+                    int w = from[j];
+                    double via = fromWeight[i] + fromWeight[j];
+                    if (w != u && dist[w] > via) {
+                        count++;
+                        if (add) {
+                            addOrImprove(u, w, via, v);
+                            addOrImprove(w, u, via, v);
+                        }
+                    }
+                }
+                resetWitness();
+            }
+            return count;
+        }
+
+        /* Dijkstra from SOURCE over live vertices other than AVOID, stopping once
+           all NUMTARGETS marked targets are settled, past LIMIT, or after
+           SETTLELIMIT settled vertices. */
+        private void witnessSearch(int source, int avoid, double limit, int numTargets,
+                                   int settleLimit) {
+            touch(source, 0);
+            witnessPQ.insert(source, 0);
+            int settled = 0;
+            while (!witnessPQ.isEmpty() && settled < settleLimit) {
+                if (witnessPQ.peekPriority() > limit) {
+                    break;
+                }
+                int x = witnessPQ.poll();
+                settled++;
+                if (targetStamp[x] == stamp && --numTargets == 0) {
+                    break;
+                }
+                for (int i = 0; i < adjSize[x]; i++) {
+                    int y = adjTo[x][i];
+                    if (y == avoid || contracted[y]) {
+                        continue;
+                    }
+                    double d = dist[x] + adjWeight[x][i];
+                    if (d < dist[y]) {
+                        touch(y, d);
+                        if (witnessPQ.contains(y)) {
+                            witnessPQ.changePriority(y, d);
+                        } else {
+                            witnessPQ.insert(y, d);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void touch(int v, double d) {
+            if (dist[v] == Double.POSITIVE_INFINITY) {
+                touched[numTouched++] = v;
+            }
+            dist[v] = d;
+        }
+
+        private void resetWitness() {
+            for (int i = 0; i < numTouched; i++) {
+                dist[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            numTouched = 0;
+            witnessPQ.clear();
+        }
+
+        /* Adds the edge U -> X, or lowers the weight of an existing one. */
+        private void addOrImprove(int u, int x, double w, int middle) {
+            for (int i = 0; i < adjSize[u]; i++) {
+                if (adjTo[u][i] == x) {
+                    if (w < adjWeight[u][i]) {
+                        adjWeight[u][i] = w;
+                        adjMiddle[u][i] = middle;
+                    }
+                    return;
+                }
+            }
+            int size = adjSize[u];
+            if (size == adjTo[u].length) {
+                adjTo[u] = Arrays.copyOf(adjTo[u], size * 2);
+                adjWeight[u] = Arrays.copyOf(adjWeight[u], size * 2);
+                adjMiddle[u] = Arrays.copyOf(adjMiddle[u], size * 2);
+            }
+            adjTo[u][size] = x;
+            adjWeight[u][size] = w;
+            adjMiddle[u][size] = middle;
+            adjSize[u]++;
+        }
+
+        /* Keeps, for every vertex, only the edges to higher-ranked vertices.
+           No edge is added to a vertex after it is contracted and edges to
+           contracted vertices are removed, so these are exactly the edges it
+           had to its live neighbors when it was contracted. */
+        private ContractionHierarchy upwardGraph(int[] rank) {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                int up = 0;
+                for (int i = 0; i < adjSize[v]; i++) {
+                    if (rank[adjTo[v][i]] > rank[v]) {
+                        up++;
+                    }
+                }
+                offsets[v + 1] = offsets[v] + up;
+            }
+            int m = offsets[n];
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] middles = new int[m];
+            for (int v = 0; v < n; v++) {
+                int e = offsets[v];
+                for (int i = 0; i < adjSize[v]; i++) {
+                    if (rank[adjTo[v][i]] > rank[v]) {
+                        targets[e] = adjTo[v][i];
+                        weights[e] = adjWeight[v][i];
+                        middles[e] = adjMiddle[v][i];
+                        e++;
+                    }
+                }
+                /* The adjacency lists are no longer needed; free them as we go. */
+                adjTo[v] = null;
+                adjWeight[v] = null;
+                adjMiddle[v] = null;
+            }
+            return new ContractionHierarchy(rank, offsets, targets, weights, middles);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package bearmaps.utils.graph.ch;
+
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Computes a dense matrix of shortest path distances between many sources and
+ * many targets on a ContractionHierarchy with the bucket method. Every target
+ * runs one backward upward search and leaves (target, distance) entries in a
+ * bucket at each vertex it settles. Every source then runs one forward upward
+ * search and, at each vertex it settles, scans the bucket there: a shortest
+ * source - target path meets at its highest-ranked vertex, which both searches
+ * settle with their exact distances.
+ *
+ * An S x T matrix thus costs S + T small searches instead of S * T queries.
+ * Target searches and source rows each run in parallel on the given pool.
+ */
+public class ManyToManySolver {
+    private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<>();
+
+    private ManyToManySolver() {
+    }
+
+    /**
+     * Returns the distance from each of SOURCES to each of TARGETS, given as
+     * vertex indices of CH, with Double.POSITIVE_INFINITY where there is no
+     * path. Row i holds the distances from SOURCES[i]. Returns null if the
+     * matrix is not done within TIMEOUT seconds.
+     */
+    public static double[][] distances(ContractionHierarchy ch, int[] sources, int[] targets,
+                                       ForkJoinPool pool, double timeout) {
+        long deadline = System.nanoTime() + (long) (timeout * 1e9);
+
+        /* Backward searches, one per target. */
+        SearchSpace[] spaces = new SearchSpace[targets.length];
+        run(pool, targets.length, j -> spaces[j] = search(ch, targets[j], deadline));
+        if (Arrays.asList(spaces).contains(null)) {
+            return null;
+        }
+
+        /* Buckets as CSR arrays: the entries left at v are bucketBegin[v] up to
+           bucketBegin[v + 1] of bucketTarget and bucketDist. */
+        int n = ch.numVertices();
+        int[] bucketBegin = new int[n + 1];
+        for (SearchSpace space : spaces) {
+            for (int i = 0; i < space.size; i++) {
+                bucketBegin[space.vertices[i] + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            bucketBegin[v + 1] += bucketBegin[v];
+        }
+        int[] bucketTarget = new int[bucketBegin[n]];
+        double[] bucketDist = new double[bucketBegin[n]];
+        int[] next = Arrays.copyOf(bucketBegin, n);
+        for (int j = 0; j < spaces.length; j++) {
+            SearchSpace space = spaces[j];
+            for (int i = 0; i < space.size; i++) {
+                int slot = next[space.vertices[i]]++;
+                bucketTarget[slot] = j;
+                bucketDist[slot] = space.dists[i];
+            }
+        }
+
+        /* Forward searches, one per source row, scanning the buckets. */
+        double[][] result = new double[sources.length][];
+        run(pool, sources.length, i -> {
+            SearchSpace space = search(ch, sources[i], deadline);
+            if (space == null) {
+                return;
+            }
+            double[] row = new double[targets.length];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            for (int k = 0; k < space.size; k++) {
+                int v = space.vertices[k];
+                double d = space.dists[k];
+                for (int b = bucketBegin[v]; b < bucketBegin[v + 1]; b++) {
+                    double total = d + bucketDist[b];
+                    if (total < row[bucketTarget[b]]) {
+                        row[bucketTarget[b]] = total;
+                    }
+                }
+            }
+            result[i] = row;
+        });
+        return Arrays.asList(result).contains(null) ? null : result;
+    }
+
+    /* Runs TASK for 0 through COUNT - 1 in parallel on POOL, waiting for all of them. */
+    private static void run(ForkJoinPool pool, int count, IntConsumer task) {
+        try {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(task)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing a distance matrix", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /* Runs a complete upward Dijkstra from SOURCE and returns the vertices it
+       settles without stalling them, with their distances, or null if it
+       reaches DEADLINE first. The hierarchy is undirected, so the same search
+       serves as a backward search. */
+    private static SearchSpace search(ContractionHierarchy ch, int source, long deadline) {
+        Workspace ws = WORKSPACE.get();
+        if (ws == null || ws.dist.length != ch.numVertices()) {
+            ws = new Workspace(ch.numVertices());
+            WORKSPACE.set(ws);
+        }
+        IndexedMinHeap fringe = ws.fringe;
+        double[] dist = ws.dist;
+        SearchSpace space = new SearchSpace();
+
+        ws.touch(source);
+        dist[source] = 0;
+        fringe.insert(source, 0);
+        while (!fringe.isEmpty()) {
+            if (System.nanoTime() >= deadline) {
+                ws.reset();
+                return null;
+            }
+            int v = fringe.poll();
+            if (stalled(ch, dist, v)) {
+                continue;
+            }
+            space.add(v, dist[v]);
+            for (int e = ch.upBegin(v); e < ch.upEnd(v); e++) {
+                int q = ch.target(e);
+                double d = dist[v] + ch.weight(e);
+                if (d < dist[q]) {
+                    ws.touch(q);
+                    dist[q] = d;
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, d);
+                    } else {
+                        fringe.insert(q, d);
+                    }
+                }
+            }
+        }
+        ws.reset();
+        return space;
+    }
+
+    /* Stall-on-demand, as in CHSolver: a vertex reached more cheaply from a
+       higher-ranked one is on no shortest path and need not be expanded. */
+    private static boolean stalled(ContractionHierarchy ch, double[] dist, int v) {
+        for (int e = ch.upBegin(v); e < ch.upEnd(v); e++) {
+            if (dist[ch.target(e)] + ch.weight(e) < dist[v]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* The vertices settled by one upward search and their distances. */
+    private static class SearchSpace {
+        int[] vertices = new int[64];
+        double[] dists = new double[64];
+        int size;
+
+        void add(int v, double d) {
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, size * 2);
+                dists = Arrays.copyOf(dists, size * 2);
+            }
+            vertices[size] = v;
+            dists[size] = d;
+            size++;
+        }
+    }
+
+    /* Per-vertex search state for one thread. Every entry of dist is
+       +Infinity between searches. */
+    private static class Workspace {
+        final IndexedMinHeap fringe;
+        final double[] dist;
+        final boolean[] isTouched;
+        int[] touched = new int[64];
+        int numTouched;
+
+        Workspace(int n) {
+            fringe = new IndexedMinHeap(n);
+            dist = new double[n];
+            isTouched = new boolean[n];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        }
+
+        /* Records that V's distance is about to change. */
+        void touch(int v) {
+            if (!isTouched[v]) {
+                isTouched[v] = true;
+                if (numTouched == touched.length) {
+                    touched = Arrays.copyOf(touched, numTouched * 2);
+                }
+                touched[numTouched++] = v;
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < numTouched; i++) {
+                int v = touched[i];
+                dist[v] = Double.POSITIVE_INFINITY;
+                isTouched[v] = false;
+            }
+            numTouched = 0;
+            fringe.clear();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package bearmaps.utils.graph.ch;
+
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.CompactStreetMapGraph;
+import bearmaps.utils.graph.streetmap.RoutingProfile;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+
+import java.io.IOException;
+
+/**
+ * Command line tool that contracts the street graph of an OSM file and saves
+ * the hierarchy next to it, where AugmentedStreetMapGraph.hierarchy() will find
+ * it. Run it whenever the OSM file changes, so the server never has to
+ * contract the graph itself.
+ *
+ * Usage: PrecomputeHierarchy [osm file] [output file] [profile]
+ * The OSM file defaults to Constants.OSM_DB_PATH, the profile to SHORTEST and
+ * the output file to the OSM file's path plus the profile's file suffix plus
+ * ContractionHierarchy.FILE_SUFFIX. Use "-" for the default output file.
+ */
+public class PrecomputeHierarchy {
+    public static void main(String[] args) throws IOException {
+        String osmPath = args.length > 0 ? args[0] : Constants.OSM_DB_PATH;
+        RoutingProfile profile = RoutingProfile.fromString(args.length > 2 ? args[2] : null,
+                RoutingProfile.SHORTEST);
+        String outPath = args.length > 1 && !args[1].equals("-") ? args[1]
+                : osmPath + profile.fileSuffix() + ContractionHierarchy.FILE_SUFFIX;
+
+        long t0 = System.nanoTime();
+        CompactStreetMapGraph g = new StreetMapGraph(osmPath).compact().forProfile(profile);
+        long t1 = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        long t2 = System.nanoTime();
+        ch.save(g.fingerprint(), outPath);
+        long t3 = System.nanoTime();
+
+        System.out.printf("Parsed %s: %d vertices, %d edges in %.2f s%n",
+                osmPath, g.numVertices(), g.numEdges(), (t1 - t0) / 1e9);
+        System.out.printf("Contracted to %d upward edges (%d shortcuts) in %.2f s%n",
+                ch.numUpEdges(), ch.numUpEdges() - g.numEdges() / 2, (t2 - t1) / 1e9);
+        System.out.printf("Wrote %s in %.2f s%n", outPath, (t3 - t2) / 1e9);
+    }
+}
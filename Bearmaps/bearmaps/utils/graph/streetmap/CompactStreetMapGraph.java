@@ -0,0 +1,287 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.IntAStarGraph;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An immutable, array-backed street graph. OSM ids are remapped to dense int
+ * indices (in ascending id order), node attributes live in parallel arrays, and
+ * edges are stored in compressed sparse row form: the outgoing edges of vertex
+ * v are the slots offsets[v] through offsets[v + 1] - 1 of targets, weights,
+ * wayNameIds, roadClasses and maxSpeeds. Way names are interned, so each
+ * distinct name is stored once.
+ *
+ * Edges are weighed by their length in miles. forProfile returns a view of
+ * the same graph weighed for another RoutingProfile: it shares every array
+ * but the weights, which are computed once, when the view is first asked
+ * for, so that searching it costs the same as searching this graph.
+ */
+public class CompactStreetMapGraph implements IntAStarGraph {
+    private final long[] ids;
+    private final double[] lons;
+    private final double[] lats;
+    private final String[] names;
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final float[] weights;
+    private final int[] wayNameIds;
+    /* The RoadClass ordinal of every edge, and its maxspeed in miles per
+       hour, 0 if unknown. */
+    private final byte[] roadClasses;
+    private final byte[] maxSpeeds;
+    private final String[] wayNames;
+
+    /* The profile the weights are for, and the graph weighed in miles that
+       this one is a view of; itself, for SHORTEST. */
+    private final RoutingProfile profile;
+    private final CompactStreetMapGraph base;
+    /* Converts a great-circle distance in miles into a lower bound on the
+       weight of any path of that length. */
+    private final double heuristicScale;
+    /* The views of the base graph, by profile. */
+    private final Map<RoutingProfile, CompactStreetMapGraph> views;
+
+    CompactStreetMapGraph(long[] ids, double[] lons, double[] lats, String[] names,
+                          int[] offsets, int[] targets, float[] weights,
+                          int[] wayNameIds, byte[] roadClasses, byte[] maxSpeeds,
+                          String[] wayNames) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.wayNameIds = wayNameIds;
+        this.roadClasses = roadClasses;
+        this.maxSpeeds = maxSpeeds;
+        this.wayNames = wayNames;
+        this.profile = RoutingProfile.SHORTEST;
+        this.base = this;
+        this.heuristicScale = 1;
+        this.views = new EnumMap<>(RoutingProfile.class);
+    }
+
+    /* A view of BASE with WEIGHTS for PROFILE. */
+    private CompactStreetMapGraph(CompactStreetMapGraph base, RoutingProfile profile,
+                                  float[] weights, double heuristicScale) {
+        this.ids = base.ids;
+        this.lons = base.lons;
+        this.lats = base.lats;
+        this.names = base.names;
+        this.offsets = base.offsets;
+        this.targets = base.targets;
+        this.weights = weights;
+        this.wayNameIds = base.wayNameIds;
+        this.roadClasses = base.roadClasses;
+        this.maxSpeeds = base.maxSpeeds;
+        this.wayNames = base.wayNames;
+        this.profile = profile;
+        this.base = base;
+        this.heuristicScale = heuristicScale;
+        this.views = base.views;
+    }
+
+    /**
+     * Returns this graph weighed for PROFILE: the graph itself for SHORTEST,
+     * and otherwise a view whose edge weights are the profile's, infinite on
+     * roads closed to it, and whose estimatedDistanceToGoal is the time it
+     * takes to cover the great-circle distance at the profile's top speed.
+     */
+    public CompactStreetMapGraph forProfile(RoutingProfile p) {
+        if (p == RoutingProfile.SHORTEST) {
+            return base;
+        }
+        synchronized (views) {
+            CompactStreetMapGraph view = views.get(p);
+            if (view == null) {
+                float[] profileWeights = new float[targets.length];
+                double topSpeed = 0;
+                for (int e = 0; e < targets.length; e++) {
+                    profileWeights[e] = (float) p.weight(base.weights[e], roadClasses[e],
+                            maxSpeeds[e] & 0xff);
+                    topSpeed = Math.max(topSpeed, p.speed(roadClasses[e], maxSpeeds[e] & 0xff));
+                }
+                double scale = p.byTime() ? 60 / Math.max(topSpeed, 1) : 1;
+                view = new CompactStreetMapGraph(base, p, profileWeights, scale);
+                views.put(p, view);
+            }
+            return view;
+        }
+    }
+
+    /** Returns the profile this graph's edges are weighed for. */
+    public RoutingProfile profile() {
+        return profile;
+    }
+
+    @Override
+    public int numVertices() {
+        return ids.length;
+    }
+
+    /** Returns the total number of directed edges. */
+    public int numEdges() {
+        return targets.length;
+    }
+
+    @Override
+    public int edgesBegin(int v) {
+        return offsets[v];
+    }
+
+    @Override
+    public int edgesEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    /** Returns the number of outgoing edges of V. */
+    public int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    @Override
+    public int edgeTarget(int e) {
+        return targets[e];
+    }
+
+    @Override
+    public double edgeWeight(int e) {
+        return weights[e];
+    }
+
+    /**
+     * Returns the index of the edge from V to W, or -1 if there is none.
+     * Street vertices have a handful of edges, so this is a short scan.
+     */
+    public int findEdge(int v, int w) {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            if (targets[e] == w) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the edge from V to W of least weight under PROFILE,
+     * skipping roads closed to it, or -1 if there is none. This is the edge a
+     * search under PROFILE takes from V to W, where findEdge may return any of
+     * several parallel ones.
+     */
+    public int cheapestEdge(int v, int w, RoutingProfile p) {
+        float[] profileWeights = forProfile(p).weights;
+        int best = -1;
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            if (targets[e] == w && profileWeights[e] < Float.POSITIVE_INFINITY
+                    && (best < 0 || profileWeights[e] < profileWeights[best])) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the length of edge E in miles, whatever the graph's profile. */
+    public double edgeLength(int e) {
+        return base.weights[e];
+    }
+
+    /** Returns the RoadClass of edge E. */
+    public RoadClass roadClass(int e) {
+        return RoadClass.of(roadClasses[e]);
+    }
+
+    /** Returns the maxspeed of edge E in miles per hour, or 0 if unknown. */
+    public int maxSpeed(int e) {
+        return maxSpeeds[e] & 0xff;
+    }
+
+    /**
+     * Returns the minutes it takes to travel edge E under PROFILE, or infinity
+     * if its road is closed to PROFILE.
+     */
+    public double edgeMinutes(int e, RoutingProfile p) {
+        return p.minutes(base.weights[e], roadClasses[e], maxSpeeds[e] & 0xff);
+    }
+
+    /** Returns the interned way name id of edge E. */
+    public int wayNameId(int e) {
+        return wayNameIds[e];
+    }
+
+    /** Returns the way name with the given interned id; "" for unnamed ways. */
+    public String wayName(int nameId) {
+        return wayNames[nameId];
+    }
+
+    /** Returns the number of distinct way names. */
+    public int numWayNames() {
+        return wayNames.length;
+    }
+
+    /** Returns the great-circle distance between V and W, in miles. */
+    public double distance(int v, int w) {
+        return StreetMapGraph.distance(lons[v], lons[w], lats[v], lats[w]);
+    }
+
+    /**
+     * Returns the great-circle distance between S and GOAL, in miles, or for a
+     * profile weighed by time, the minutes it takes to cover it at top speed.
+     */
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        return heuristicScale * StreetMapGraph.distance(lons[s], lons[goal], lats[s], lats[goal]);
+    }
+
+    /**
+     * Returns the dense index of the vertex with OSM id ID, or -1 if there is none.
+     */
+    public int indexOf(long id) {
+        int i = Arrays.binarySearch(ids, id);
+        return i < 0 ? -1 : i;
+    }
+
+    /**
+     * Returns a hash of the vertex ids, edge structure and edge weights, so that
+     * files derived from this graph, or from one of its profiles, can tell
+     * whether they still match it.
+     */
+    public long fingerprint() {
+        long h = 1125899906842597L;
+        for (long id : ids) {
+            h = 31 * h + id;
+        }
+        for (int o : offsets) {
+            h = 31 * h + o;
+        }
+        for (int t : targets) {
+            h = 31 * h + t;
+        }
+        for (float w : weights) {
+            h = 31 * h + Float.floatToIntBits(w);
+        }
+        return h;
+    }
+
+    /** Returns the OSM id of vertex V. */
+    public long id(int v) {
+        return ids[v];
+    }
+
+    public double lon(int v) {
+        return lons[v];
+    }
+
+    public double lat(int v) {
+        return lats[v];
+    }
+
+    /** Returns the name of vertex V, or null if it has none. */
+    public String name(int v) {
+        return names[v];
+    }
+}
@@ -0,0 +1,328 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.metrics.Metrics;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a CompactStreetMapGraph from an OSM XML file in separate phases, so
+ * that no per-node or per-edge objects are ever created:
+ *
+ * parse: GraphBuildingHandler streams the file and hands every node and every
+ * routable way to this builder, which appends ids, coordinates and way node
+ * refs to growable primitive arrays, about 24 bytes a node and 8 a ref;
+ * index: the node ids are sorted, in parallel, into the vertex order, and
+ * every way ref is resolved to its node by binary search in parallel chunks;
+ * edges: one pass over the ways counts the edges of every vertex, drops the
+ * vertices with no edges and no name, and fills the compressed sparse row
+ * arrays in file order, with the way name, road class and maxspeed of every
+ * edge;
+ * weights: the great-circle length of every edge, in parallel chunks of
+ * vertices.
+ *
+ * The duration of each phase is recorded in the timer "ingest.PHASE".
+ */
+public class GraphBuilder {
+    /** Vertices, or refs, handled by one parallel task. */
+    private static final int CHUNK = 1 << 14;
+
+    /* Every node parsed, in file order. */
+    private final LongList nodeIds = new LongList();
+    private final DoubleList nodeLons = new DoubleList();
+    private final DoubleList nodeLats = new DoubleList();
+    /* The file positions of the named nodes, and their names. */
+    private final IntList namedNodes = new IntList();
+    private final List<String> nodeNames = new ArrayList<>();
+
+    /* The node refs of every routable way, back to back: those of way w are
+       wayRefs[wayBegins[w]] through wayRefs[wayBegins[w + 1] - 1]. */
+    private final LongList wayRefs = new LongList();
+    private final IntList wayBegins = new IntList();
+    private final IntList wayNameIds = new IntList();
+    /* The RoadClass ordinal and the maxspeed, in miles per hour, of every way. */
+    private final IntList wayRoadClasses = new IntList();
+    private final IntList wayMaxSpeeds = new IntList();
+    private final Map<String, Integer> wayNameToId = new HashMap<>();
+    private final List<String> wayNames = new ArrayList<>();
+
+    GraphBuilder() {
+        wayBegins.add(0);
+    }
+
+    /**
+     * Parses the OSM XML file at FILENAME and returns its street graph. Assumes
+     * the file is correctly formatted; a file that cannot be read is reported
+     * and yields the graph of what was read before the error.
+     */
+    public static CompactStreetMapGraph fromXML(String filename) {
+        GraphBuilder builder = new GraphBuilder();
+        long start = System.nanoTime();
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(filename))) {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            SAXParser saxParser = factory.newSAXParser();
+            saxParser.parse(inputStream, new GraphBuildingHandler(builder));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            e.printStackTrace();
+        }
+        Metrics.timer("ingest.parse").recordSince(start);
+        return builder.build();
+    }
+
+    /** Adds a node. Of nodes with the same id, the first one added is kept. */
+    void addNode(long id, double lon, double lat) {
+        nodeIds.add(id);
+        nodeLons.add(lon);
+        nodeLats.add(lat);
+    }
+
+    /** Names the node added last. */
+    void nameLastNode(String name) {
+        int node = nodeIds.size() - 1;
+        if (namedNodes.size() > 0 && namedNodes.get(namedNodes.size() - 1) == node) {
+            nodeNames.set(nodeNames.size() - 1, name);
+        } else {
+            namedNodes.add(node);
+            nodeNames.add(name);
+        }
+    }
+
+    /**
+     * Adds a routable way called NAME, of class ROADCLASS and with a maxspeed
+     * of MAXSPEED miles per hour (0 if unknown), through the nodes REFS[0]
+     * through REFS[NUMREFS - 1]. Each pair of consecutive nodes that both exist
+     * becomes an edge in each direction.
+     */
+    void addWay(long[] refs, int numRefs, String name, RoadClass roadClass, int maxSpeed) {
+        if (numRefs < 2) {
+            return;
+        }
+        for (int i = 0; i < numRefs; i++) {
+            wayRefs.add(refs[i]);
+        }
+        wayBegins.add(wayRefs.size());
+        Integer nameId = wayNameToId.get(name);
+        if (nameId == null) {
+            nameId = wayNames.size();
+            wayNameToId.put(name, nameId);
+            wayNames.add(name);
+        }
+        wayNameIds.add(nameId);
+        wayRoadClasses.add(roadClass.ordinal());
+        wayMaxSpeeds.add(maxSpeed);
+    }
+
+    /** Builds the graph of everything added so far. */
+    CompactStreetMapGraph build() {
+        long start = System.nanoTime();
+        long[] fileIds = nodeIds.array();
+        int numNodes = nodeIds.size();
+        long[] sortedIds = Arrays.copyOf(fileIds, numNodes);
+        Arrays.parallelSort(sortedIds);
+        int numDistinct = 0;
+        for (int i = 0; i < numNodes; i++) {
+            if (numDistinct == 0 || sortedIds[i] != sortedIds[numDistinct - 1]) {
+                sortedIds[numDistinct++] = sortedIds[i];
+            }
+        }
+        /* The file position of each distinct node; the first one wins, so
+           with duplicate ids the file is walked backwards, in one thread. */
+        int[] filePosition = new int[numDistinct];
+        int distinct = numDistinct;
+        if (numDistinct == numNodes) {
+            parallelChunks(numNodes, i ->
+                    filePosition[Arrays.binarySearch(sortedIds, 0, distinct, fileIds[i])] = i);
+        } else {
+            for (int i = numNodes - 1; i >= 0; i--) {
+                filePosition[Arrays.binarySearch(sortedIds, 0, distinct, fileIds[i])] = i;
+            }
+        }
+        long[] refs = wayRefs.array();
+        int[] refNodes = new int[wayRefs.size()];
+        parallelChunks(refNodes.length, r -> {
+            int node = Arrays.binarySearch(sortedIds, 0, distinct, refs[r]);
+            refNodes[r] = node < 0 ? -1 : node;
+        });
+        Metrics.timer("ingest.index").recordSince(start);
+
+        start = System.nanoTime();
+        int numWays = wayNameIds.size();
+        int[] begins = wayBegins.array();
+        int[] degrees = new int[numDistinct];
+        for (int w = 0; w < numWays; w++) {
+            for (int r = begins[w]; r < begins[w + 1] - 1; r++) {
+                int a = refNodes[r];
+                int b = refNodes[r + 1];
+                if (a >= 0 && b >= 0) {
+                    degrees[a]++;
+                    degrees[b]++;
+                }
+            }
+        }
+        boolean[] named = new boolean[numDistinct];
+        String[] distinctNames = new String[numDistinct];
+        for (int i = 0; i < namedNodes.size(); i++) {
+            int position = namedNodes.get(i);
+            int node = Arrays.binarySearch(sortedIds, 0, numDistinct, fileIds[position]);
+            if (filePosition[node] == position) {
+                named[node] = true;
+                distinctNames[node] = nodeNames.get(i);
+            }
+        }
+
+        /* Keep the nodes with an edge or a name, in id order. */
+        int[] vertexOf = new int[numDistinct];
+        int n = 0;
+        for (int node = 0; node < numDistinct; node++) {
+            vertexOf[node] = degrees[node] > 0 || named[node] ? n++ : -1;
+        }
+        long[] ids = new long[n];
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        String[] names = new String[n];
+        int[] offsets = new int[n + 1];
+        double[] fileLons = nodeLons.array();
+        double[] fileLats = nodeLats.array();
+        for (int node = 0; node < numDistinct; node++) {
+            int v = vertexOf[node];
+            if (v >= 0) {
+                ids[v] = sortedIds[node];
+                lons[v] = fileLons[filePosition[node]];
+                lats[v] = fileLats[filePosition[node]];
+                names[v] = distinctNames[node];
+                offsets[v + 1] = offsets[v] + degrees[node];
+            }
+        }
+
+        int m = offsets[n];
+        int[] targets = new int[m];
+        int[] edgeWayNameIds = new int[m];
+        byte[] roadClasses = new byte[m];
+        byte[] maxSpeeds = new byte[m];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int w = 0; w < numWays; w++) {
+            int nameId = wayNameIds.get(w);
+            byte roadClass = (byte) wayRoadClasses.get(w);
+            byte maxSpeed = (byte) wayMaxSpeeds.get(w);
+            for (int r = begins[w]; r < begins[w + 1] - 1; r++) {
+                if (refNodes[r] >= 0 && refNodes[r + 1] >= 0) {
+                    int a = vertexOf[refNodes[r]];
+                    int b = vertexOf[refNodes[r + 1]];
+                    int ab = next[a]++;
+                    targets[ab] = b;
+                    edgeWayNameIds[ab] = nameId;
+                    roadClasses[ab] = roadClass;
+                    maxSpeeds[ab] = maxSpeed;
+                    int ba = next[b]++;
+                    targets[ba] = a;
+                    edgeWayNameIds[ba] = nameId;
+                    roadClasses[ba] = roadClass;
+                    maxSpeeds[ba] = maxSpeed;
+                }
+            }
+        }
+        Metrics.timer("ingest.edges").recordSince(start);
+
+        start = System.nanoTime();
+        float[] weights = new float[m];
+        int numVertices = n;
+        IntStream.range(0, (n + CHUNK - 1) / CHUNK).parallel().forEach(chunk -> {
+            for (int v = chunk * CHUNK; v < Math.min(numVertices, (chunk + 1) * CHUNK); v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int t = targets[e];
+                    weights[e] = (float) StreetMapGraph.distance(lons[v], lons[t], lats[v],
+                            lats[t]);
+                }
+            }
+        });
+        Metrics.timer("ingest.weights").recordSince(start);
+
+        return new CompactStreetMapGraph(ids, lons, lats, names, offsets, targets, weights,
+                edgeWayNameIds, roadClasses, maxSpeeds, wayNames.toArray(new String[0]));
+    }
+
+    /* Calls ACTION on every index below SIZE, in parallel chunks. */
+    private static void parallelChunks(int size, IntConsumer action) {
+        IntStream.range(0, (size + CHUNK - 1) / CHUNK).parallel().forEach(chunk -> {
+            for (int i = chunk * CHUNK; i < Math.min(size, (chunk + 1) * CHUNK); i++) {
+                action.accept(i);
+            }
+        });
+    }
+
+    /* Growable arrays of primitives. array() returns the backing array, which
+       is valid up to size() and replaced as the list grows. */
+
+    private static class LongList {
+        private long[] items = new long[1024];
+        private int size;
+
+        void add(long x) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = x;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] array() {
+            return items;
+        }
+    }
+
+    private static class DoubleList {
+        private double[] items = new double[1024];
+        private int size;
+
+        void add(double x) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = x;
+        }
+
+        double[] array() {
+            return items;
+        }
+    }
+
+    private static class IntList {
+        private int[] items = new int[1024];
+        private int size;
+
+        void add(int x) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = x;
+        }
+
+        int get(int i) {
+            return items[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] array() {
+            return items;
+        }
+    }
+}
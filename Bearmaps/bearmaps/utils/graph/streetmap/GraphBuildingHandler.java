@@ -5,7 +5,7 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
  *  Parses OSM XML files using an XML SAX parser. Used to construct the graph of roads for
@@ -24,29 +24,26 @@ import java.util.*;
  *  element in the file. This is a very common but strange-when-you-first-see it pattern.
  *  It is similar to the Visitor pattern we discussed for graphs.
  *
+ *  Nodes and routable ways are handed to a GraphBuilder as they are read, as primitives;
+ *  the graph itself is built after the whole file has been parsed.
+ *
  *  @author Alan Yao, Maurice Lee, with minor modifications by Lucas Pan for HW4, Spring 2019
  */
 public class GraphBuildingHandler extends DefaultHandler {
-    /**
-     * Only allow for non-service roads; this prevents going on pedestrian streets as much as
-     * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
-     * roads, but in practice we walk all over them with such impunity that we forget cars can
-     * actually drive on them.
-     */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
-            ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
-                    "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
-                    "secondary_link", "tertiary_link"));
     private String activeState = "";
-    private Node activeNode = null;
-    private boolean validWay = false;
-    private List<Long> nodePath = new ArrayList<>();
-    private final StreetMapGraph g;
+    /* The class of the current way, or null if it is not routable (see RoadClass). */
+    private RoadClass roadClass = null;
+    /* The maxspeed of the current way in miles per hour, 0 if unknown. */
+    private int maxSpeed = 0;
+    /* The node refs of the current way; reused from way to way. */
+    private long[] nodePath = new long[64];
+    private int nodePathSize = 0;
+    private final GraphBuilder builder;
 
     private String wayName = "";
 
-    public GraphBuildingHandler(StreetMapGraph g) {
-        this.g = g;
+    public GraphBuildingHandler(GraphBuilder builder) {
+        this.builder = builder;
     }
 
     /**
@@ -73,9 +70,9 @@ public class GraphBuildingHandler extends DefaultHandler {
 //            System.out.println("Node lon: " + attributes.getValue("lon"));
 //            System.out.println("Node lat: " + attributes.getValue("lat"));
 
-            activeNode = Node.of(Long.parseLong(attributes.getValue("id")),
-                    Double.parseDouble(attributes.getValue("lat")),
-                    Double.parseDouble(attributes.getValue("lon")));
+            builder.addNode(Long.parseLong(attributes.getValue("id")),
+                    Double.parseDouble(attributes.getValue("lon")),
+                    Double.parseDouble(attributes.getValue("lat")));
         } else if (qName.equals("way")) {
             /* We encountered a new <way...> tag. */
             activeState = "way";
@@ -83,14 +80,19 @@ public class GraphBuildingHandler extends DefaultHandler {
         } else if (activeState.equals("way") && qName.equals("nd")) {
             /* While looking at a way, we found a <nd...> tag. */
             //System.out.println("Id of a node in this way: " + attributes.getValue("ref"));
-            nodePath.add(Long.parseLong(attributes.getValue("ref")));
+            if (nodePathSize == nodePath.length) {
+                nodePath = Arrays.copyOf(nodePath, nodePathSize * 2);
+            }
+            nodePath[nodePathSize++] = Long.parseLong(attributes.getValue("ref"));
         } else if (activeState.equals("way") && qName.equals("tag")) {
             /* While looking at a way, we found a <tag...> tag. */
             String k = attributes.getValue("k");
             String v = attributes.getValue("v");
             if (k.equals("highway")) {
                 //System.out.println("Highway type: " + v);
-                validWay = ALLOWED_HIGHWAY_TYPES.contains(v);
+                roadClass = RoadClass.fromTag(v);
+            } else if (k.equals("maxspeed")) {
+                maxSpeed = RoadClass.parseMaxSpeed(v);
             } else if (k.equals("name")) {
                 //System.out.println("Way Name: " + v);
                 wayName = v;
@@ -99,7 +101,7 @@ public class GraphBuildingHandler extends DefaultHandler {
         } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
                 .equals("name")) {
 //            System.out.println("Node's name: " + attributes.getValue("v"));
-            activeNode.setName(attributes.getValue("v"));
+            builder.nameLastNode(attributes.getValue("v"));
         }
     }
 
@@ -118,28 +120,20 @@ public class GraphBuildingHandler extends DefaultHandler {
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (qName.equals("way")) {
             /* We are done looking at a way. (We finished looking at the nodes, speeds, etc...)*/
-            if (validWay) {
-                for (int i = 0; i < nodePath.size() - 1; i++) {
-                    long fromID = nodePath.get(i);
-                    long toID = nodePath.get(i + 1);
-                    g.addWeightedEdge(fromID, toID, wayName);
-                    g.addWeightedEdge(toID, fromID, wayName);
-                }
+            if (roadClass != null) {
+                builder.addWay(nodePath, nodePathSize, wayName, roadClass, maxSpeed);
             }
             clearStates();
         } else if (qName.equals("node")) {
-            if (activeNode != null) {
-                g.addNode(activeNode);
-            }
             clearStates();
         }
     }
 
     private void clearStates() {
         activeState = "";
-        activeNode = null;
-        validWay = false;
-        nodePath = new ArrayList<>();
+        roadClass = null;
+        maxSpeed = 0;
+        nodePathSize = 0;
         wayName = "";
     }
 }
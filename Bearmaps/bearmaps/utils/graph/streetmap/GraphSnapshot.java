@@ -0,0 +1,241 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A flat binary image of a CompactStreetMapGraph, so that the server can skip
+ * parsing the OSM XML on startup. The file holds, in order:
+ *
+ * a header (magic, vertex / edge / string counts, and the length and
+ * modification time of the OSM file it was built from), the id, lon and lat
+ * arrays, the CSR offsets, targets, weights and way name ids, a node name id
+ * per vertex (-1 for unnamed vertices), a byte per edge for its road class and
+ * one for its maxspeed, and finally the interned way name and node name
+ * tables as length-prefixed UTF-8 strings.
+ *
+ * Everything is little-endian. A snapshot whose recorded source length or
+ * modification time no longer matches the OSM file is stale and is ignored.
+ */
+public class GraphSnapshot {
+    /** Appended to an OSM file's path to name its snapshot. */
+    public static final String FILE_SUFFIX = ".snapshot";
+    /** Identifies a snapshot file, and its layout version. */
+    private static final int MAGIC = 0x534d4732;
+    /** Header: magic, n, m, numWayNames, numNodeNames, sourceLength, sourceModified. */
+    private static final int HEADER_BYTES = 5 * Integer.BYTES + 2 * Long.BYTES;
+
+    private GraphSnapshot() {
+    }
+
+    /**
+     * Returns the graph stored in the snapshot of the OSM file at OSMPATH, or
+     * null if there is no snapshot or it does not match the OSM file.
+     */
+    public static CompactStreetMapGraph load(String osmPath) {
+        File source = new File(osmPath);
+        File file = new File(osmPath + FILE_SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC) {
+                return null;
+            }
+            int n = buf.getInt();
+            int m = buf.getInt();
+            int numWayNames = buf.getInt();
+            int numNodeNames = buf.getInt();
+            if (buf.getLong() != source.length() || buf.getLong() != source.lastModified()) {
+                return null;
+            }
+
+            long[] ids = new long[n];
+            double[] lons = new double[n];
+            double[] lats = new double[n];
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[m];
+            float[] weights = new float[m];
+            int[] wayNameIds = new int[m];
+            int[] nodeNameIds = new int[n];
+            byte[] roadClasses = new byte[m];
+            byte[] maxSpeeds = new byte[m];
+            buf.asLongBuffer().get(ids);
+            buf.position(buf.position() + n * Long.BYTES);
+            buf.asDoubleBuffer().get(lons);
+            buf.position(buf.position() + n * Double.BYTES);
+            buf.asDoubleBuffer().get(lats);
+            buf.position(buf.position() + n * Double.BYTES);
+            buf.asIntBuffer().get(offsets);
+            buf.position(buf.position() + (n + 1) * Integer.BYTES);
+            buf.asIntBuffer().get(targets);
+            buf.position(buf.position() + m * Integer.BYTES);
+            buf.asFloatBuffer().get(weights);
+            buf.position(buf.position() + m * Float.BYTES);
+            buf.asIntBuffer().get(wayNameIds);
+            buf.position(buf.position() + m * Integer.BYTES);
+            buf.asIntBuffer().get(nodeNameIds);
+            buf.position(buf.position() + n * Integer.BYTES);
+            buf.get(roadClasses);
+            buf.get(maxSpeeds);
+
+            String[] wayNames = readStrings(buf, numWayNames);
+            String[] nodeNames = readStrings(buf, numNodeNames);
+            String[] names = new String[n];
+            for (int v = 0; v < n; v++) {
+                names[v] = nodeNameIds[v] < 0 ? null : nodeNames[nodeNameIds[v]];
+            }
+            return new CompactStreetMapGraph(ids, lons, lats, names, offsets, targets, weights,
+                    wayNameIds, roadClasses, maxSpeeds, wayNames);
+        } catch (IOException | RuntimeException e) {
+            /* A truncated or otherwise corrupt snapshot is as good as none. */
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Writes G as the snapshot of the OSM file at OSMPATH. The file is written
+     * under a unique temporary name and then moved into place, so a concurrent
+     * reader never sees a partial snapshot, nor two writers each other's.
+     * @throws IOException If the snapshot would exceed 2 GB, the most that
+     * load can map, or it cannot be written.
+     */
+    public static void save(CompactStreetMapGraph g, String osmPath) throws IOException {
+        File source = new File(osmPath);
+        int n = g.numVertices();
+        int m = g.numEdges();
+
+        Map<String, Integer> nodeNameToId = new HashMap<>();
+        int[] nodeNameIds = new int[n];
+        for (int v = 0; v < n; v++) {
+            String name = g.name(v);
+            if (name == null) {
+                nodeNameIds[v] = -1;
+            } else {
+                Integer id = nodeNameToId.get(name);
+                if (id == null) {
+                    id = nodeNameToId.size();
+                    nodeNameToId.put(name, id);
+                }
+                nodeNameIds[v] = id;
+            }
+        }
+        byte[][] wayNames = new byte[g.numWayNames()][];
+        for (int i = 0; i < wayNames.length; i++) {
+            wayNames[i] = g.wayName(i).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[][] nodeNames = new byte[nodeNameToId.size()][];
+        for (Map.Entry<String, Integer> entry : nodeNameToId.entrySet()) {
+            nodeNames[entry.getValue()] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        }
+
+        long size = HEADER_BYTES + (long) n * (Long.BYTES + 2 * Double.BYTES + Integer.BYTES)
+                + (long) (n + 1) * Integer.BYTES
+                + (long) m * (2 * Integer.BYTES + Float.BYTES + 2)
+                + stringsBytes(wayNames) + stringsBytes(nodeNames);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Graph too large for a snapshot: " + size
+                    + " bytes, over the 2 GB limit");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(n).putInt(m).putInt(wayNames.length).putInt(nodeNames.length);
+        buf.putLong(source.length()).putLong(source.lastModified());
+        for (int v = 0; v < n; v++) {
+            buf.putLong(g.id(v));
+        }
+        for (int v = 0; v < n; v++) {
+            buf.putDouble(g.lon(v));
+        }
+        for (int v = 0; v < n; v++) {
+            buf.putDouble(g.lat(v));
+        }
+        for (int v = 0; v < n; v++) {
+            buf.putInt(g.edgesBegin(v));
+        }
+        buf.putInt(m);
+        for (int e = 0; e < m; e++) {
+            buf.putInt(g.edgeTarget(e));
+        }
+        for (int e = 0; e < m; e++) {
+            buf.putFloat((float) g.edgeLength(e));
+        }
+        for (int e = 0; e < m; e++) {
+            buf.putInt(g.wayNameId(e));
+        }
+        for (int v = 0; v < n; v++) {
+            buf.putInt(nodeNameIds[v]);
+        }
+        for (int e = 0; e < m; e++) {
+            buf.put((byte) g.roadClass(e).ordinal());
+        }
+        for (int e = 0; e < m; e++) {
+            buf.put((byte) g.maxSpeed(e));
+        }
+        writeStrings(buf, wayNames);
+        writeStrings(buf, nodeNames);
+        buf.flip();
+
+        Path path = Paths.get(osmPath + FILE_SUFFIX).toAbsolutePath();
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static long stringsBytes(byte[][] strings) {
+        long total = 0;
+        for (byte[] s : strings) {
+            total += Integer.BYTES + s.length;
+        }
+        return total;
+    }
+
+    private static void writeStrings(ByteBuffer buf, byte[][] strings) {
+        for (byte[] s : strings) {
+            buf.putInt(s.length);
+            buf.put(s);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer buf, int count) {
+        String[] strings = new String[count];
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int length = buf.getInt();
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, 2 * scratch.length)];
+            }
+            buf.get(scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+}
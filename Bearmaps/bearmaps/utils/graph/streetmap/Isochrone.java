@@ -0,0 +1,182 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.util.Arrays;
+
+/**
+ * The vertices of a CompactStreetMapGraph within a distance budget of a source
+ * vertex, with their distances, found by a Dijkstra search that stops at the
+ * budget. Small budgets settle a tiny part of the graph, so the per-vertex
+ * arrays are kept per thread and reset through the list of settled vertices
+ * instead of being allocated for every search.
+ */
+public class Isochrone {
+    private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<>();
+
+    private final CompactStreetMapGraph g;
+    private final int source;
+    private final double budget;
+    private final int[] vertices;
+    private final double[] dists;
+
+    private Isochrone(CompactStreetMapGraph g, int source, double budget, int[] vertices,
+                      double[] dists) {
+        this.g = g;
+        this.source = source;
+        this.budget = budget;
+        this.vertices = vertices;
+        this.dists = dists;
+    }
+
+    /**
+     * Returns every vertex of G whose shortest distance from SOURCE is at most
+     * BUDGET, in the order settled (so by increasing distance).
+     */
+    public static Isochrone compute(CompactStreetMapGraph g, int source, double budget) {
+        int n = g.numVertices();
+        Workspace ws = WORKSPACE.get();
+        if (ws == null || ws.distTo.length != n) {
+            ws = new Workspace(n);
+            WORKSPACE.set(ws);
+        }
+        double[] distTo = ws.distTo;
+        IndexedMinHeap fringe = ws.fringe;
+
+        int[] vertices = new int[64];
+        double[] dists = new double[64];
+        int size = 0;
+
+        ws.touch(source);
+        distTo[source] = 0;
+        fringe.insert(source, 0);
+        while (!fringe.isEmpty()) {
+            int v = fringe.poll();
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, size * 2);
+                dists = Arrays.copyOf(dists, size * 2);
+            }
+            vertices[size] = v;
+            dists[size] = distTo[v];
+            size++;
+            for (int e = g.edgesBegin(v); e < g.edgesEnd(v); e++) {
+                int q = g.edgeTarget(e);
+                double d = distTo[v] + g.edgeWeight(e);
+                /* Vertices beyond the budget never enter the fringe. */
+                if (d <= budget && d < distTo[q]) {
+                    ws.touch(q);
+                    distTo[q] = d;
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, d);
+                    } else {
+                        fringe.insert(q, d);
+                    }
+                }
+            }
+        }
+        ws.reset();
+        return new Isochrone(g, source, budget, Arrays.copyOf(vertices, size),
+                Arrays.copyOf(dists, size));
+    }
+
+    public int source() {
+        return source;
+    }
+
+    public double budget() {
+        return budget;
+    }
+
+    /** Returns the number of reachable vertices, the source included. */
+    public int size() {
+        return vertices.length;
+    }
+
+    /** Returns the Ith reachable vertex; they are in order of distance. */
+    public int vertex(int i) {
+        return vertices[i];
+    }
+
+    /** Returns the distance from the source to the Ith reachable vertex. */
+    public double distance(int i) {
+        return dists[i];
+    }
+
+    /**
+     * Returns a concave polygon around the reachable vertices as {lon, lat}
+     * corners in counterclockwise order. The plane around the source is split
+     * into SECTORS equal angles, and the farthest reachable vertex in each is a
+     * corner, so the outline follows the reachable area into every direction
+     * instead of bridging over it as a convex hull would. Empty sectors are
+     * skipped; fewer than three corners are returned as they are.
+     */
+    public double[][] hull(int sectors) {
+        double lon0 = g.lon(source);
+        double lat0 = g.lat(source);
+        /* Scale longitude so that angles are measured in a locally flat plane. */
+        double lonScale = Math.cos(Math.toRadians(lat0));
+        int[] farthest = new int[sectors];
+        double[] farthestDist = new double[sectors];
+        Arrays.fill(farthest, -1);
+        for (int v : vertices) {
+            double dx = (g.lon(v) - lon0) * lonScale;
+            double dy = g.lat(v) - lat0;
+            double r = dx * dx + dy * dy;
+            if (r == 0) {
+                continue;
+            }
+            double angle = Math.atan2(dy, dx) + Math.PI;
+            int s = Math.min((int) (angle / (2 * Math.PI) * sectors), sectors - 1);
+            if (farthest[s] < 0 || r > farthestDist[s]) {
+                farthest[s] = v;
+                farthestDist[s] = r;
+            }
+        }
+
+        double[][] corners = new double[sectors][];
+        int numCorners = 0;
+        for (int s = 0; s < sectors; s++) {
+            if (farthest[s] >= 0) {
+                corners[numCorners++] = new double[]{g.lon(farthest[s]), g.lat(farthest[s])};
+            }
+        }
+        if (numCorners == 0) {
+            return new double[][]{{lon0, lat0}};
+        }
+        return Arrays.copyOf(corners, numCorners);
+    }
+
+    /* Per-vertex search state for one thread. Every entry of distTo is
+       +Infinity between searches. */
+    private static class Workspace {
+        final IndexedMinHeap fringe;
+        final double[] distTo;
+        int[] touched = new int[64];
+        int numTouched;
+
+        Workspace(int n) {
+            fringe = new IndexedMinHeap(n);
+            distTo = new double[n];
+            Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        }
+
+        /* Records that V's distance is about to change. A vertex's distance is
+           infinite until its first touch, so that is when it is recorded. */
+        void touch(int v) {
+            if (distTo[v] == Double.POSITIVE_INFINITY) {
+                if (numTouched == touched.length) {
+                    touched = Arrays.copyOf(touched, numTouched * 2);
+                }
+                touched[numTouched++] = v;
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < numTouched; i++) {
+                distTo[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            numTouched = 0;
+            fringe.clear();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The classes of OSM highway that are routable, by the value of their
+ * "highway" tag. Only non-service roads are allowed; this prevents going on
+ * pedestrian streets as much as possible. Note that in Berkeley, many of the
+ * campus roads are tagged as motor vehicle roads, but in practice we walk all
+ * over them with such impunity that we forget cars can actually drive on them.
+ *
+ * Graphs and their snapshots store a class as its ordinal, so new classes go
+ * at the end.
+ */
+public enum RoadClass {
+    MOTORWAY, TRUNK, PRIMARY, SECONDARY, TERTIARY, UNCLASSIFIED, RESIDENTIAL, LIVING_STREET,
+    MOTORWAY_LINK, TRUNK_LINK, PRIMARY_LINK, SECONDARY_LINK, TERTIARY_LINK;
+
+    private static final RoadClass[] VALUES = values();
+    private static final Map<String, RoadClass> BY_TAG = new HashMap<>();
+
+    static {
+        for (RoadClass c : VALUES) {
+            BY_TAG.put(c.tag(), c);
+        }
+    }
+
+    /** Returns the value of the highway tag of this class, such as "living_street". */
+    public String tag() {
+        return name().toLowerCase();
+    }
+
+    /** Returns the class whose ordinal is ORDINAL. */
+    public static RoadClass of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /** Returns the class of highway tag value TAG, or null if it is not routable. */
+    public static RoadClass fromTag(String tag) {
+        return BY_TAG.get(tag);
+    }
+
+    /**
+     * Parses the value of a maxspeed tag: a number of kilometres per hour, or
+     * of miles per hour when followed by "mph". Of a list of values separated
+     * by ';', the first is used.
+     * @return The speed in whole miles per hour, capped at 255, or 0 if VALUE
+     * is null or not a number, as for "none" or "signals".
+     */
+    public static int parseMaxSpeed(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int semicolon = value.indexOf(';');
+        String s = (semicolon < 0 ? value : value.substring(0, semicolon)).trim();
+        boolean mph = s.endsWith("mph");
+        if (mph) {
+            s = s.substring(0, s.length() - 3).trim();
+        }
+        double speed;
+        try {
+            speed = Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        if (!(speed > 0)) {
+            return 0;
+        }
+        long rounded = Math.round(mph ? speed : speed / 1.609344);
+        return (int) Math.max(1, Math.min(255, rounded));
+    }
+}
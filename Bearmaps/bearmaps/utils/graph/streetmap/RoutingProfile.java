@@ -0,0 +1,97 @@
+package bearmaps.utils.graph.streetmap;
+
+/**
+ * The ways a route can be weighed. Each profile has a speed in miles per hour
+ * for every RoadClass, 0 where the class is closed to it. The fastest
+ * profiles weigh an edge by its travel time in minutes; SHORTEST weighs it by
+ * its length in miles, as routes always were. FASTEST_CAR drives at a way's
+ * maxspeed where it has one. Walking and cycling use the same road network as
+ * driving, less the motorways.
+ */
+public enum RoutingProfile {
+    FASTEST_CAR(true, true, Speeds.CAR),
+    SHORTEST(false, true, Speeds.CAR),
+    WALK(true, false, Speeds.WALK),
+    BIKE(true, false, Speeds.BIKE);
+
+    /* Speeds in miles per hour, indexed by RoadClass ordinal. */
+    private static class Speeds {
+        static final double[] CAR =
+                {65, 55, 40, 35, 30, 25, 25, 10, 45, 40, 30, 30, 25};
+        static final double[] WALK =
+                {0, 3, 3, 3, 3, 3, 3, 3, 0, 3, 3, 3, 3};
+        static final double[] BIKE =
+                {0, 12, 12, 12, 12, 12, 12, 10, 0, 12, 12, 12, 12};
+    }
+
+    private final boolean byTime;
+    private final boolean usesMaxSpeed;
+    private final double[] speeds;
+
+    RoutingProfile(boolean byTime, boolean usesMaxSpeed, double[] speeds) {
+        this.byTime = byTime;
+        this.usesMaxSpeed = usesMaxSpeed;
+        this.speeds = speeds;
+    }
+
+    /** Returns whether edges are weighed in minutes, rather than in miles. */
+    public boolean byTime() {
+        return byTime;
+    }
+
+    /**
+     * Returns the speed in miles per hour on a road of class ROADCLASS (an
+     * ordinal) with a maxspeed of MAXSPEED miles per hour, 0 if unknown.
+     * @return The speed, or 0 if the road is closed to this profile.
+     */
+    public double speed(int roadClass, int maxSpeed) {
+        double speed = speeds[roadClass];
+        return speed > 0 && usesMaxSpeed && maxSpeed > 0 ? maxSpeed : speed;
+    }
+
+    /**
+     * Returns the minutes it takes to travel MILES on a road of class
+     * ROADCLASS with a maxspeed of MAXSPEED, or infinity if it is closed.
+     */
+    public double minutes(double miles, int roadClass, int maxSpeed) {
+        double speed = speed(roadClass, maxSpeed);
+        return speed > 0 ? miles / speed * 60 : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the weight of an edge of length MILES on a road of class
+     * ROADCLASS with a maxspeed of MAXSPEED, or infinity if it is closed.
+     */
+    public double weight(double miles, int roadClass, int maxSpeed) {
+        if (byTime) {
+            return minutes(miles, roadClass, maxSpeed);
+        }
+        return speed(roadClass, maxSpeed) > 0 ? miles : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns what is added to the name of a file derived from a graph, such
+     * as its contraction hierarchy, to name the file for this profile. Empty
+     * for SHORTEST, whose files keep the names they had before profiles.
+     */
+    public String fileSuffix() {
+        return this == SHORTEST ? "" : "." + name().toLowerCase();
+    }
+
+    /**
+     * Parses a profile name, ignoring case and treating '-' as '_', so both
+     * "fastest-car" and "FASTEST_CAR" name FASTEST_CAR.
+     * @return The matching RoutingProfile, or DEFAULTPROFILE if NAME is null or unknown.
+     */
+    public static RoutingProfile fromString(String name, RoutingProfile defaultProfile) {
+        if (name != null) {
+            String normalized = name.replace('-', '_');
+            for (RoutingProfile p : values()) {
+                if (p.name().equalsIgnoreCase(normalized)) {
+                    return p;
+                }
+            }
+        }
+        return defaultProfile;
+    }
+}
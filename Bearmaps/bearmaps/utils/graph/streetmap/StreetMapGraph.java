@@ -1,28 +1,49 @@
 package bearmaps.utils.graph.streetmap;
 
 import bearmaps.utils.graph.AStarGraph;
+import bearmaps.utils.graph.EdgeConsumer;
 import bearmaps.utils.graph.WeightedEdge;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class StreetMapGraph implements AStarGraph<Long> {
-    private Map<Long, Node> nodes = new HashMap<>();
-    private Map<Long, Set<WeightedEdge<Long>>> neighbors = new HashMap<>();
+    private CompactStreetMapGraph compact;
+    /* The vertex ids, boxed once, so that forEachNeighbor hands out the same
+       Long objects every time instead of boxing a new one per edge. */
+    private Long[] boxedIds;
 
-    private StreetMapGraph() {
+    /**
+     * Loads the graph from the binary snapshot next to FILENAME if it is up to
+     * date, and otherwise parses the OSM XML at FILENAME with a GraphBuilder
+     * and writes a fresh snapshot for the next start. A failure to write it is
+     * reported but not fatal.
+     */
+    public StreetMapGraph(String filename) {
+        this.compact = GraphSnapshot.load(filename);
+        if (compact == null) {
+            this.compact = GraphBuilder.fromXML(filename);
+            try {
+                GraphSnapshot.save(compact, filename);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        boxedIds = new Long[compact.numVertices()];
+        for (int v = 0; v < boxedIds.length; v++) {
+            boxedIds[v] = compact.id(v);
+        }
     }
 
-    public StreetMapGraph(String filename) {
-        StreetMapGraph smg = StreetMapGraph.readFromXML(filename);
-        this.nodes = smg.nodes;
-        this.neighbors = smg.neighbors;
+    /**
+     * Returns the array-backed form of this graph, which routing code should
+     * prefer over the boxed AStarGraph methods.
+     */
+    public CompactStreetMapGraph compact() {
+        return compact;
     }
 
     /**
@@ -31,24 +52,39 @@ public class StreetMapGraph implements AStarGraph<Long> {
      **/
     @Override
     public List<WeightedEdge<Long>> neighbors(Long v) {
-        Set<WeightedEdge<Long>> incidentSet = neighbors.get(v);
-        List<WeightedEdge<Long>> incidentList = new ArrayList<>();
-        for (WeightedEdge<Long> e : incidentSet) {
-            incidentList.add(e);
+        int i = compact.indexOf(v);
+        List<WeightedEdge<Long>> incidentList = new ArrayList<>(compact.degree(i));
+        for (int e = compact.edgesBegin(i); e < compact.edgesEnd(i); e++) {
+            WeightedEdge<Long> edge = new WeightedEdge<>(v, compact.id(compact.edgeTarget(e)),
+                    compact.edgeWeight(e));
+            edge.setName(compact.wayName(compact.wayNameId(e)));
+            incidentList.add(edge);
         }
 
         return incidentList;
     }
 
+    /**
+     * Calls ACTION for each outgoing edge of V, straight from the compact
+     * graph's arrays: no list, edge or Long is allocated. Assumes V exists in
+     * this graph.
+     */
+    @Override
+    public void forEachNeighbor(Long v, EdgeConsumer<Long> action) {
+        int i = compact.indexOf(v);
+        Long from = boxedIds[i];
+        for (int e = compact.edgesBegin(i); e < compact.edgesEnd(i); e++) {
+            action.accept(from, boxedIds[compact.edgeTarget(e)], compact.edgeWeight(e));
+        }
+    }
+
     /**
      * Returns the great-circle distance between S and GOAL. Assumes
      * S and GOAL exist in this graph.
      */
     @Override
     public double estimatedDistanceToGoal(Long s, Long goal) {
-        Node sNode = nodes.get(s);
-        Node goalNode = nodes.get(goal);
-        return distance(sNode.lon(), goalNode.lon(), sNode.lat(), goalNode.lat());
+        return compact.estimatedDistanceToGoal(compact.indexOf(s), compact.indexOf(goal));
     }
 
     /**
@@ -57,76 +93,13 @@ public class StreetMapGraph implements AStarGraph<Long> {
      **/
     private Set<Long> vertices() {
         Set<Long> vertices = new HashSet<>();
-        for (long id : nodes.keySet()) {
-            vertices.add(id);
+        for (int v = 0; v < compact.numVertices(); v++) {
+            vertices.add(compact.id(v));
         }
 
         return vertices;
     }
 
-    /**
-     * Factory method. Creates and returns a graph from an OSM XML
-     * file. Assumes file is correctly formatted.
-     */
-    private static StreetMapGraph readFromXML(String filename) {
-        StreetMapGraph smg = new StreetMapGraph();
-        try {
-            File inputFile = new File(filename);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(smg);
-            saxParser.parse(inputStream, gbh);
-        } catch (ParserConfigurationException | SAXException | IOException e) {
-            e.printStackTrace();
-        }
-
-        smg.clean();
-        return smg;
-    }
-
-    /** Adds a node to this graph, if it doesn't yet exist. **/
-    void addNode(Node node) {
-        if (!nodes.containsKey(node.id())) {
-            nodes.put(node.id(), node);
-            neighbors.put(node.id(), new HashSet<>());
-        }
-    }
-
-    /** Adds an edge to this graph, if FROMID and TOID are in this graph. Does
-     *  not add additional edge if edge already exists.
-     **/
-    void addWeightedEdge(long fromID, long toID, String name) {
-        if (nodes.containsKey(fromID) && nodes.containsKey(toID)) {
-            Node from = nodes.get(fromID);
-            Node to = nodes.get(toID);
-            double weight = distance(from.lon(), to.lon(), from.lat(), to.lat());
-
-            Set<WeightedEdge<Long>> edgeSet = neighbors.get(fromID);
-            WeightedEdge<Long> weightedEdge = new WeightedEdge<>(from.id(), to.id(), weight);
-            weightedEdge.setName(name);
-            edgeSet.add(weightedEdge);
-        }
-    }
-
-    /**
-     * Removes vertices with 0 out-degree from graph. Note that this will
-     * cause issues if edges are not bidirectional.
-     **/
-    private void clean() {
-        List<Long> toRemove = new ArrayList<>();
-        for (long id : nodes.keySet()) {
-            if (neighbors(id).size() == 0 && nodes.get(id).name() == null) {
-                toRemove.add(id);
-            }
-        }
-
-        for (long id : toRemove) {
-            nodes.remove(id);
-            neighbors.remove(id);
-        }
-    }
-
     /**
      * We don't override hashCode(), so hash at your peril!
      */
@@ -179,7 +152,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
      *
      * @source Kevin Lowe & Antares Chen, and https://www.movable-type.co.uk/scripts/latlong.html
      **/
-    private double distance(double lonV, double lonW, double latV, double latW) {
+    static double distance(double lonV, double lonW, double latV, double latW) {
         double phi1 = Math.toRadians(latV);
         double phi2 = Math.toRadians(latW);
         double dphi = Math.toRadians(latW - latV);
@@ -197,10 +170,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The longitude of the vertex.
      */
     public double lon(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = compact.indexOf(v);
+        if (i < 0) {
             return 0.0;
         }
-        return nodes.get(v).lon();
+        return compact.lon(i);
     }
 
     /**
@@ -209,10 +183,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The latitude of the vertex.
      */
     public double lat(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = compact.indexOf(v);
+        if (i < 0) {
             return 0.0;
         }
-        return nodes.get(v).lat();
+        return compact.lat(i);
     }
 
     /**
@@ -221,16 +196,23 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The name of the vertex.
      */
     public String name(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = compact.indexOf(v);
+        if (i < 0) {
             return null;
         }
-        return nodes.get(v).name();
+        return compact.name(i);
     }
 
+    /**
+     * Returns a Node for every vertex, in the same order as the vertex indices
+     * of compact().
+     */
     protected List<Node> getNodes() {
-        List<Node> nodes = new ArrayList<>();
-        for(Map.Entry<Long, Node> nodeEntry: this.nodes.entrySet()){
-            nodes.add(nodeEntry.getValue());
+        List<Node> nodes = new ArrayList<>(compact.numVertices());
+        for (int v = 0; v < compact.numVertices(); v++) {
+            Node node = Node.of(compact.id(v), compact.lat(v), compact.lon(v));
+            node.setName(compact.name(v));
+            nodes.add(node);
         }
         return nodes;
     }
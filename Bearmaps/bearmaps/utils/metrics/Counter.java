@@ -0,0 +1,38 @@
+package bearmaps.utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A running total of some event, such as vertices settled or bytes encoded.
+ * Safe to update from many threads at once.
+ */
+public class Counter {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    /** Adds N, which should not be negative. */
+    public void add(long n) {
+        count.add(n);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + count();
+    }
+}
@@ -0,0 +1,84 @@
+package bearmaps.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts non-negative long values, typically durations in nanoseconds, in
+ * log-linear buckets in the manner of HdrHistogram: every power of two range
+ * is split into SUB_BUCKETS equal buckets, so any value is known to within
+ * 1 / SUB_BUCKETS of itself (about 3%) while the whole range of a long fits
+ * in under two thousand counters. Values below SUB_BUCKETS are counted
+ * exactly.
+ *
+ * Recording is a single atomic increment, safe from many threads at once.
+ * Quantiles read the counters without locking, so they reflect the values
+ * recorded so far, give or take those being recorded meanwhile.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    /** Records one VALUE; negative values are recorded as 0. */
+    public void record(long value) {
+        counts.incrementAndGet(bucket(Math.max(0, value)));
+    }
+
+    /** Returns the number of values recorded. */
+    public long count() {
+        long n = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the value at quantile Q, between 0 and 1, rounded up to the top
+     * of its bucket, or 0 if nothing was recorded. For example Q = 0.99 gives
+     * a value at least 99% of the recorded values are at most.
+     */
+    public long valueAtQuantile(double q) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        int last = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c == 0) {
+                continue;
+            }
+            seen += c;
+            last = i;
+            if (seen >= rank) {
+                break;
+            }
+        }
+        return highestValue(last);
+    }
+
+    /* Returns the bucket counting VALUE >= 0. */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /* Returns the largest value counted by BUCKET. */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+}
@@ -0,0 +1,60 @@
+package bearmaps.utils.metrics;
+
+import bearmaps.utils.cache.LRUCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The process-wide registry of named timers, counters and caches. Names are
+ * dotted and start with the component they measure, for example
+ * "raster.encode". PrometheusFormat writes all of them out for /metrics.
+ */
+public class Metrics {
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LRUCache<?, ?>> CACHES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /** Returns the timer called NAME, creating it on first use. */
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, Timer::new);
+    }
+
+    /** Returns every registered timer, sorted by name. */
+    public static List<Timer> timers() {
+        List<Timer> timers = new ArrayList<>(TIMERS.values());
+        timers.sort((a, b) -> a.name().compareTo(b.name()));
+        return timers;
+    }
+
+    /** Returns the counter called NAME, creating it on first use. */
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, Counter::new);
+    }
+
+    /** Returns every registered counter, sorted by name. */
+    public static List<Counter> counters() {
+        List<Counter> counters = new ArrayList<>(COUNTERS.values());
+        counters.sort((a, b) -> a.name().compareTo(b.name()));
+        return counters;
+    }
+
+    /**
+     * Registers CACHE under NAME so its hit rate and size are reported,
+     * replacing any cache registered under NAME before.
+     */
+    public static void cache(String name, LRUCache<?, ?> cache) {
+        CACHES.put(name, cache);
+    }
+
+    /** Returns every registered cache by name, sorted by name. */
+    public static Map<String, LRUCache<?, ?>> caches() {
+        return new TreeMap<>(CACHES);
+    }
+}
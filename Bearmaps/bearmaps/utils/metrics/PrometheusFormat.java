@@ -0,0 +1,103 @@
+package bearmaps.utils.metrics;
+
+import bearmaps.utils.cache.LRUCache;
+
+import java.util.Map;
+
+/**
+ * Writes the registered metrics in the Prometheus text exposition format
+ * (version 0.0.4), for /metrics. A metric called "a.b" becomes "bearmaps_a_b":
+ *
+ * a timer becomes a summary, "bearmaps_a_b_seconds", with the quantiles in
+ * QUANTILES, a sum and a count, and a gauge "bearmaps_a_b_seconds_max";
+ * a counter becomes the counter "bearmaps_a_b_total";
+ * every cache is one series, labelled cache="a.b", of each of the counters
+ * bearmaps_cache_{hits,misses,evictions}_total and the gauges
+ * bearmaps_cache_entries and bearmaps_cache_weight.
+ */
+public class PrometheusFormat {
+    /** The content type of the format, for the response header. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "bearmaps_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private PrometheusFormat() {
+    }
+
+    /** Returns every registered timer, counter and cache in the text format. */
+    public static String write() {
+        StringBuilder out = new StringBuilder();
+        for (Timer t : Metrics.timers()) {
+            String name = PREFIX + sanitize(t.name()) + "_seconds";
+            type(out, name, "summary");
+            for (double q : QUANTILES) {
+                sample(out, name + "{quantile=\"" + q + "\"}", t.quantileNanos(q) / 1e9);
+            }
+            sample(out, name + "_sum", t.totalNanos() / 1e9);
+            sample(out, name + "_count", t.count());
+            type(out, name + "_max", "gauge");
+            sample(out, name + "_max", t.maxNanos() / 1e9);
+        }
+        for (Counter c : Metrics.counters()) {
+            String name = PREFIX + sanitize(c.name()) + "_total";
+            type(out, name, "counter");
+            sample(out, name, c.count());
+        }
+
+        Map<String, LRUCache<?, ?>> caches = Metrics.caches();
+        if (!caches.isEmpty()) {
+            String[][] families = {{"hits_total", "counter"}, {"misses_total", "counter"},
+                    {"evictions_total", "counter"}, {"entries", "gauge"}, {"weight", "gauge"}};
+            for (String[] family : families) {
+                String name = PREFIX + "cache_" + family[0];
+                type(out, name, family[1]);
+                for (Map.Entry<String, LRUCache<?, ?>> e : caches.entrySet()) {
+                    sample(out, name + "{cache=\"" + e.getKey() + "\"}",
+                            cacheValue(e.getValue(), family[0]));
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /* Returns the value of CACHE for the family named FAMILY. */
+    private static long cacheValue(LRUCache<?, ?> cache, String family) {
+        switch (family) {
+            case "hits_total":
+                return cache.hits();
+            case "misses_total":
+                return cache.misses();
+            case "evictions_total":
+                return cache.evictions();
+            case "entries":
+                return cache.size();
+            default:
+                return cache.weight();
+        }
+    }
+
+    /* Returns NAME with every character a metric name cannot hold replaced by '_'. */
+    static String sanitize(String name) {
+        StringBuilder s = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (c >= '0' && c <= '9') || c == '_';
+            s.append(ok ? c : '_');
+        }
+        return s.toString();
+    }
+
+    private static void type(StringBuilder out, String name, String type) {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String series, double value) {
+        out.append(series).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String series, long value) {
+        out.append(series).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,72 @@
+package bearmaps.utils.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the durations of one kind of operation: how many were recorded,
+ * their total, the longest, and a Histogram of them for percentiles. Safe to
+ * update from many threads at once.
+ */
+public class Timer {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final Histogram histogram = new Histogram();
+
+    Timer(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Records one operation that took NANOS nanoseconds. */
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        histogram.record(nanos);
+    }
+
+    /** Records one operation that started at System.nanoTime() STARTNANOS. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the duration at quantile Q, between 0 and 1, in nanoseconds, to
+     * within about 3%: for example Q = 0.99 gives the 99th percentile.
+     */
+    public long quantileNanos(double q) {
+        return histogram.valueAtQuantile(q);
+    }
+
+    /** Returns the mean duration in milliseconds, or 0 if nothing was recorded. */
+    public double meanMillis() {
+        long n = count();
+        return n == 0 ? 0 : totalNanos() / (double) n / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms", name,
+                count(), meanMillis(), quantileNanos(0.5) / 1e6, quantileNanos(0.99) / 1e6,
+                maxNanos() / 1e6);
+    }
+}
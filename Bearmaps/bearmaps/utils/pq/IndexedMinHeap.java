@@ -0,0 +1,163 @@
+package bearmaps.utils.pq;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/* A min priority queue over the dense int keys 0 through capacity - 1, backed
+   by a binary heap of ints. pos records where each key sits in the heap (-1 if
+   absent), so contains is O(1) and changePriority is O(log n). Nothing is
+   boxed and nothing is allocated after construction. */
+public class IndexedMinHeap {
+
+    /* heap[0 .. size - 1] holds the keys in heap order. */
+    private final int[] heap;
+    /* pos[v] is the index of V in heap, or -1 if V is not in the queue. */
+    private final int[] pos;
+    /* prio[v] is the priority of V while it is in the queue. */
+    private final double[] prio;
+    private int size;
+
+    /* Initializes an empty queue for the keys 0 through CAPACITY - 1. */
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        pos = new int[capacity];
+        prio = new double[capacity];
+        Arrays.fill(pos, -1);
+    }
+
+    /* Returns the number of keys this queue can hold. */
+    public int capacity() {
+        return heap.length;
+    }
+
+    /* Returns the number of keys in the queue. */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /* Returns true if V is in the queue. */
+    public boolean contains(int v) {
+        return pos[v] >= 0;
+    }
+
+    /* Returns the priority of V. Assumes V is in the queue. */
+    public double priority(int v) {
+        return prio[v];
+    }
+
+    /* Inserts V with priority PRIORITYVALUE. If V is already in the queue,
+       throw an IllegalArgumentException. */
+    public void insert(int v, double priorityValue) {
+        if (pos[v] >= 0) {
+            throw new IllegalArgumentException("Already contains " + v);
+        }
+        heap[size] = v;
+        pos[v] = size;
+        prio[v] = priorityValue;
+        size++;
+        bubbleUp(size - 1);
+    }
+
+    /* Returns the key with the smallest priority without removing it. */
+    public int peek() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty.");
+        }
+        return heap[0];
+    }
+
+    /* Returns the smallest priority in the queue. */
+    public double peekPriority() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty.");
+        }
+        return prio[heap[0]];
+    }
+
+    /* Removes and returns the key with the smallest priority. */
+    public int poll() {
+        if (size == 0) {
+            throw new NoSuchElementException("PQ is empty.");
+        }
+        int min = heap[0];
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            pos[heap[0]] = 0;
+            bubbleDown(0);
+        }
+        pos[min] = -1;
+        return min;
+    }
+
+    /* Changes the priority of V to PRIORITYVALUE, in either direction. If V is
+       not in the queue, throw an IllegalArgumentException. */
+    public void changePriority(int v, double priorityValue) {
+        int i = pos[v];
+        if (i < 0) {
+            throw new IllegalArgumentException(v + " not in PQ.");
+        }
+        double old = prio[v];
+        prio[v] = priorityValue;
+        if (priorityValue < old) {
+            bubbleUp(i);
+        } else {
+            bubbleDown(i);
+        }
+    }
+
+    /* Removes every key. Only the slots that are in use are touched, so this
+       costs O(size) rather than O(capacity). */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            pos[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /* Moves the key at heap index I up until its parent is no larger. */
+    private void bubbleUp(int i) {
+        int v = heap[i];
+        double p = prio[v];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int u = heap[parent];
+            if (prio[u] <= p) {
+                break;
+            }
+            heap[i] = u;
+            pos[u] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    /* Moves the key at heap index I down until both children are no smaller. */
+    private void bubbleDown(int i) {
+        int v = heap[i];
+        double p = prio[v];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && prio[heap[child + 1]] < prio[heap[child]]) {
+                child++;
+            }
+            int u = heap[child];
+            if (prio[u] >= p) {
+                break;
+            }
+            heap[i] = u;
+            pos[u] = i;
+            i = child;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+}
@@ -0,0 +1,367 @@
+package bearmaps.utils.ps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable k-d tree over a fixed set of points, where x is a longitude and
+ * y is a latitude. Distances are great-circle distances, matching
+ * Point.distance, so results agree with the other PointSet implementations.
+ *
+ * The tree is stored implicitly: the points are permuted so that the median of
+ * every subrange [lo, hi) sits at (lo + hi) / 2, splitting on longitude at even
+ * depths and latitude at odd depths. Nothing is mutated after construction, so
+ * a single instance can be queried from any number of threads.
+ *
+ * Comparisons are done on the haversine term a = sin^2(dphi / 2) +
+ * cos(phi1) cos(phi2) sin^2(dlambda / 2), which is monotonic in the distance,
+ * so queries never need the atan2 or sqrt of the full formula.
+ */
+public class KDTreePointSet implements PointSet {
+    /** Mean earth radius in miles, as used by Point.distance. */
+    private static final double EARTH_RADIUS = 3963;
+
+    /** Points in input order, and the same points in tree order. */
+    private final Point[] inputPoints;
+    private final Point[] points;
+    /** For each tree slot, the index of that point in the input list. */
+    private final int[] inputIndex;
+    /** Longitudes, latitudes (radians) and cosines of latitudes, in tree order. */
+    private final double[] lambda;
+    private final double[] phi;
+    private final double[] cosPhi;
+
+    /**
+     * Builds the tree. The list itself is left untouched, and indices
+     * returned by the *Index methods refer to positions in it.
+     * @param points The points to index.
+     */
+    public KDTreePointSet(List<Point> points) {
+        int n = points.size();
+        this.inputPoints = points.toArray(new Point[0]);
+        this.points = inputPoints.clone();
+        this.inputIndex = new int[n];
+        for (int i = 0; i < n; i++) {
+            inputIndex[i] = i;
+        }
+        build(0, n, 0);
+
+        lambda = new double[n];
+        phi = new double[n];
+        cosPhi = new double[n];
+        for (int i = 0; i < n; i++) {
+            lambda[i] = Math.toRadians(this.points[i].getX());
+            phi[i] = Math.toRadians(this.points[i].getY());
+            cosPhi[i] = Math.cos(phi[i]);
+        }
+    }
+
+    /** Returns the number of points in this set. */
+    public int size() {
+        return points.length;
+    }
+
+    /**
+     * Returns the point closest to (x, y), or null if the set is empty.
+     * Allocates nothing; the returned Point is the one passed in at construction.
+     */
+    @Override
+    public Point nearest(double x, double y) {
+        int i = nearestIndex(x, y);
+        return i < 0 ? null : inputPoints[i];
+    }
+
+    /**
+     * Returns the input-list index of the point closest to (x, y), or -1 if
+     * the set is empty. Allocates nothing.
+     */
+    public int nearestIndex(double x, double y) {
+        if (points.length == 0) {
+            return -1;
+        }
+        double ql = Math.toRadians(x);
+        double qp = Math.toRadians(y);
+        double cq = Math.cos(qp);
+        int mid = points.length >>> 1;
+        int best = nearest(0, points.length, true, ql, qp, cq, mid, hav(mid, ql, qp, cq));
+        return inputIndex[best];
+    }
+
+    /**
+     * Returns up to K points closest to (x, y), nearest first.
+     */
+    public List<Point> kNearest(double x, double y, int k) {
+        int[] idx = kNearestIndices(x, y, k);
+        List<Point> result = new ArrayList<>(idx.length);
+        for (int i : idx) {
+            result.add(inputPoints[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the input-list indices of up to K points closest to (x, y),
+     * nearest first.
+     */
+    public int[] kNearestIndices(double x, double y, int k) {
+        k = Math.min(k, points.length);
+        if (k <= 0) {
+            return new int[0];
+        }
+        double ql = Math.toRadians(x);
+        double qp = Math.toRadians(y);
+        double cq = Math.cos(qp);
+
+        /* Bounded max-heap of tree slots keyed by haversine term. */
+        int[] heap = new int[k];
+        double[] keys = new double[k];
+        int size = kNearest(0, points.length, true, ql, qp, cq, heap, keys, 0);
+
+        /* Drain the max-heap back to front to get the points nearest first. */
+        int[] result = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = inputIndex[heap[0]];
+            heap[0] = heap[i];
+            keys[0] = keys[i];
+            siftDown(heap, keys, 0, i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns every point within RADIUS miles of (x, y), in no particular order.
+     */
+    public List<Point> withinRadius(double x, double y, double radius) {
+        int[] idx = withinRadiusIndices(x, y, radius);
+        List<Point> result = new ArrayList<>(idx.length);
+        for (int i : idx) {
+            result.add(inputPoints[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the input-list indices of every point within RADIUS miles of
+     * (x, y), in no particular order.
+     */
+    public int[] withinRadiusIndices(double x, double y, double radius) {
+        if (points.length == 0 || radius < 0) {
+            return new int[0];
+        }
+        double ql = Math.toRadians(x);
+        double qp = Math.toRadians(y);
+        double cq = Math.cos(qp);
+        double s = Math.sin(Math.min(radius / EARTH_RADIUS, Math.PI) / 2);
+        double limit = s * s;
+
+        IntBuffer out = new IntBuffer();
+        withinRadius(0, points.length, true, ql, qp, cq, limit, out);
+        int[] result = new int[out.size];
+        for (int i = 0; i < out.size; i++) {
+            result[i] = inputIndex[out.data[i]];
+        }
+        return result;
+    }
+
+    /* Recursive nearest-neighbor search over the subrange [lo, hi). Returns the
+       best slot found so far; BESTA is the haversine term of BEST. */
+    private int nearest(int lo, int hi, boolean splitX, double ql, double qp, double cq,
+                        int best, double bestA) {
+        if (lo >= hi) {
+            return best;
+        }
+        int mid = (lo + hi) >>> 1;
+        double a = hav(mid, ql, qp, cq);
+        if (a < bestA) {
+            best = mid;
+            bestA = a;
+        }
+
+        boolean goLeft = splitX ? ql < lambda[mid] : qp < phi[mid];
+        int nearLo = goLeft ? lo : mid + 1;
+        int nearHi = goLeft ? mid : hi;
+        int farLo = goLeft ? mid + 1 : lo;
+        int farHi = goLeft ? hi : mid;
+
+        int b = nearest(nearLo, nearHi, !splitX, ql, qp, cq, best, bestA);
+        if (b != best) {
+            best = b;
+            bestA = hav(b, ql, qp, cq);
+        }
+        if (planeHav(mid, splitX, ql, qp, cq) < bestA) {
+            best = nearest(farLo, farHi, !splitX, ql, qp, cq, best, bestA);
+        }
+        return best;
+    }
+
+    /* Recursive k-nearest search over [lo, hi), maintaining a bounded max-heap
+       of SIZE slots. Returns the new heap size. */
+    private int kNearest(int lo, int hi, boolean splitX, double ql, double qp, double cq,
+                         int[] heap, double[] keys, int size) {
+        if (lo >= hi) {
+            return size;
+        }
+        int mid = (lo + hi) >>> 1;
+        double a = hav(mid, ql, qp, cq);
+        if (size < heap.length) {
+            heap[size] = mid;
+            keys[size] = a;
+            siftUp(heap, keys, size);
+            size++;
+        } else if (a < keys[0]) {
+            heap[0] = mid;
+            keys[0] = a;
+            siftDown(heap, keys, 0, size);
+        }
+
+        boolean goLeft = splitX ? ql < lambda[mid] : qp < phi[mid];
+        size = kNearest(goLeft ? lo : mid + 1, goLeft ? mid : hi, !splitX, ql, qp, cq,
+                heap, keys, size);
+        if (size < heap.length || planeHav(mid, splitX, ql, qp, cq) < keys[0]) {
+            size = kNearest(goLeft ? mid + 1 : lo, goLeft ? hi : mid, !splitX, ql, qp, cq,
+                    heap, keys, size);
+        }
+        return size;
+    }
+
+    /* Recursive range search over [lo, hi); matching slots are appended to OUT. */
+    private void withinRadius(int lo, int hi, boolean splitX, double ql, double qp, double cq,
+                              double limit, IntBuffer out) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (hav(mid, ql, qp, cq) <= limit) {
+            out.add(mid);
+        }
+        boolean goLeft = splitX ? ql < lambda[mid] : qp < phi[mid];
+        withinRadius(goLeft ? lo : mid + 1, goLeft ? mid : hi, !splitX, ql, qp, cq, limit, out);
+        if (planeHav(mid, splitX, ql, qp, cq) <= limit) {
+            withinRadius(goLeft ? mid + 1 : lo, goLeft ? hi : mid, !splitX, ql, qp, cq, limit, out);
+        }
+    }
+
+    /* Haversine term between the point in SLOT and the query. */
+    private double hav(int slot, double ql, double qp, double cq) {
+        double sp = Math.sin((phi[slot] - qp) / 2);
+        double sl = Math.sin((lambda[slot] - ql) / 2);
+        return sp * sp + cq * cosPhi[slot] * sl * sl;
+    }
+
+    /* Haversine term of the distance from the query to the splitting line
+       through SLOT, which lower-bounds the distance to anything on its far
+       side. For a latitude split that is the distance along the meridian; for
+       a longitude split it is the cross-track distance to the meridian, whose
+       sine is cos(phi) sin(dlambda). */
+    private double planeHav(int slot, boolean splitX, double ql, double qp, double cq) {
+        if (splitX) {
+            double dl = Math.min(Math.abs(lambda[slot] - ql), Math.PI / 2);
+            double s = cq * Math.sin(dl);
+            return s * s / (2 * (1 + Math.sqrt(1 - s * s)));
+        }
+        double sp = Math.sin((phi[slot] - qp) / 2);
+        return sp * sp;
+    }
+
+    /* Permutes [lo, hi) so that the median by the current axis sits in the middle. */
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        boolean splitX = (depth & 1) == 0;
+        select(lo, hi - 1, mid, splitX);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /* Quickselect: places the K-th smallest of [lo, hi] by the given axis at K. */
+    private void select(int lo, int hi, int k, boolean splitX) {
+        while (hi > lo) {
+            int p = partition(lo, hi, (lo + hi) >>> 1, splitX);
+            if (p == k) {
+                return;
+            } else if (p < k) {
+                lo = p + 1;
+            } else {
+                hi = p - 1;
+            }
+        }
+    }
+
+    private int partition(int lo, int hi, int pivot, boolean splitX) {
+        double pv = coord(pivot, splitX);
+        swap(pivot, hi);
+        int store = lo;
+        for (int i = lo; i < hi; i++) {
+            if (coord(i, splitX) < pv) {
+                swap(i, store);
+                store++;
+            }
+        }
+        swap(store, hi);
+        return store;
+    }
+
+    private double coord(int slot, boolean splitX) {
+        return splitX ? points[slot].getX() : points[slot].getY();
+    }
+
+    private void swap(int i, int j) {
+        Point p = points[i];
+        points[i] = points[j];
+        points[j] = p;
+        int t = inputIndex[i];
+        inputIndex[i] = inputIndex[j];
+        inputIndex[j] = t;
+    }
+
+    private static void siftUp(int[] heap, double[] keys, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] >= keys[i]) {
+                return;
+            }
+            swap(heap, keys, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, double[] keys, int i, int size) {
+        while (true) {
+            int l = 2 * i + 1;
+            if (l >= size) {
+                return;
+            }
+            int c = (l + 1 < size && keys[l + 1] > keys[l]) ? l + 1 : l;
+            if (keys[i] >= keys[c]) {
+                return;
+            }
+            swap(heap, keys, i, c);
+            i = c;
+        }
+    }
+
+    private static void swap(int[] heap, double[] keys, int i, int j) {
+        int t = heap[i];
+        heap[i] = heap[j];
+        heap[j] = t;
+        double k = keys[i];
+        keys[i] = keys[j];
+        keys[j] = k;
+    }
+
+    /** A growable int array for collecting range-search hits. */
+    private static class IntBuffer {
+        private int[] data = new int[16];
+        private int size;
+
+        private void add(int x) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = x;
+        }
+    }
+}
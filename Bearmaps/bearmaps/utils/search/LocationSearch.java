@@ -0,0 +1,220 @@
+package bearmaps.utils.search;
+
+import bearmaps.utils.ps.KDTreePointSet;
+import bearmaps.utils.ps.Point;
+import bearmaps.utils.trie.TernarySearchTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A search engine over location names that matches a query word by word, in
+ * any order, tolerating typos, so that "telegraph ave" or "telgraph av" find
+ * "telegraph avenue garage".
+ *
+ * Names are split into tokens, and an inverted index maps every token to the
+ * names containing it. The distinct tokens are kept in a ternary search tree
+ * that is searched with a Levenshtein automaton, so a query word reaches the
+ * tokens a few edits away from it without comparing it to every token; the
+ * last word of a query is matched as a prefix, as it may still be being typed.
+ * A name matches if each query word matches one of its tokens. Matches are
+ * ranked by total edit distance, then by how popular the name is, and can be
+ * biased towards the names of places near a location, found in a k-d tree.
+ */
+public class LocationSearch {
+    /** Most tokens a prefix within reach of the last query word expands to. */
+    private static final int TOKEN_EXPANSIONS = 32;
+    /** Most names scored for one query. */
+    private static final int MAX_CANDIDATES = 4096;
+    /** Score bonus of a name found right at the bias location, in edits. */
+    private static final double BIAS_WEIGHT = 1.5;
+
+    /** Names by rank, best first. */
+    private final String[] names;
+    /** Tokens ranked by how many names contain them. */
+    private final TernarySearchTree tokenIndex;
+    /** For each token rank, the ranks of the names containing it, ascending. */
+    private final int[][] postings;
+    /** For each name rank, the ranks of its tokens. */
+    private final int[][] nameTokens;
+    /** Every place carrying a name, and the rank of that name. */
+    private final List<Point> placePoints;
+    private final KDTreePointSet places;
+    private final int[] placeNames;
+
+    /**
+     * Indexes NAMES, which are distinct, cleaned (lower case letters and
+     * spaces) and ranked best first. Place i is at (LONS[i], LATS[i]) and
+     * carries the name of rank PLACENAMES[i].
+     */
+    public LocationSearch(String[] names, double[] lons, double[] lats, int[] placeNames) {
+        this.names = names.clone();
+        this.placeNames = placeNames.clone();
+
+        Map<String, List<Integer>> nameRanksByToken = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            for (String token : tokenize(names[i])) {
+                List<Integer> ranks = nameRanksByToken.computeIfAbsent(token,
+                        t -> new ArrayList<>());
+                /* A token repeated within a name is indexed once. */
+                if (ranks.isEmpty() || ranks.get(ranks.size() - 1) != i) {
+                    ranks.add(i);
+                }
+            }
+        }
+        String[] tokens = nameRanksByToken.keySet().toArray(new String[0]);
+        Arrays.sort(tokens, (a, b) -> {
+            int byFrequency = nameRanksByToken.get(b).size() - nameRanksByToken.get(a).size();
+            return byFrequency != 0 ? byFrequency : a.compareTo(b);
+        });
+        tokenIndex = new TernarySearchTree(tokens, TOKEN_EXPANSIONS);
+        postings = new int[tokens.length][];
+        for (int t = 0; t < tokens.length; t++) {
+            postings[t] = toArray(nameRanksByToken.get(tokens[t]));
+        }
+        nameTokens = new int[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            String[] nameTokenStrings = tokenize(names[i]);
+            nameTokens[i] = new int[nameTokenStrings.length];
+            for (int j = 0; j < nameTokenStrings.length; j++) {
+                nameTokens[i][j] = tokenIndex.indexOf(nameTokenStrings[j]);
+            }
+        }
+
+        placePoints = new ArrayList<>(lons.length);
+        for (int i = 0; i < lons.length; i++) {
+            placePoints.add(new Point(lons[i], lats[i]));
+        }
+        places = new KDTreePointSet(placePoints);
+    }
+
+    /** Returns the number of names indexed. */
+    public int numNames() {
+        return names.length;
+    }
+
+    /** Returns the number of distinct tokens in the names. */
+    public int numTokens() {
+        return tokenIndex.numKeys();
+    }
+
+    /** Returns the ranks of the best LIMIT names matching the cleaned QUERY, best first. */
+    public int[] search(String query, int limit) {
+        return search(query, limit, Double.NaN, Double.NaN, 0);
+    }
+
+    /**
+     * Returns the ranks of the best LIMIT names matching the cleaned QUERY,
+     * best first, favouring names of places within RADIUS miles of (LON, LAT)
+     * the nearer they are. A NaN location or a radius of zero means no bias.
+     */
+    public int[] search(String query, int limit, double lon, double lat, double radius) {
+        String[] words = tokenize(query);
+        if (words.length == 0 || limit <= 0) {
+            return new int[0];
+        }
+
+        /* The tokens each word matches, with their edit distances. */
+        List<Map<Integer, Integer>> matches = new ArrayList<>(words.length);
+        int driver = -1;
+        long driverPostings = Long.MAX_VALUE;
+        for (int w = 0; w < words.length; w++) {
+            Map<Integer, Integer> tokenEdits = new HashMap<>();
+            tokenIndex.forEachWithin(words[w], maxEdits(words[w]), w == words.length - 1,
+                    (token, edits) -> tokenEdits.merge(token, edits, Math::min));
+            if (tokenEdits.isEmpty()) {
+                return new int[0];
+            }
+            matches.add(tokenEdits);
+            long total = 0;
+            for (int token : tokenEdits.keySet()) {
+                total += postings[token].length;
+            }
+            if (total < driverPostings) {
+                driver = w;
+                driverPostings = total;
+            }
+        }
+
+        /* Candidates come from the word with the fewest postings, closest
+           tokens and most popular names first, and from places near the
+           bias location. */
+        Map<Integer, Double> candidates = new HashMap<>();
+        List<Map.Entry<Integer, Integer>> driverTokens =
+                new ArrayList<>(matches.get(driver).entrySet());
+        driverTokens.sort(Map.Entry.<Integer, Integer>comparingByValue()
+                .thenComparing(Map.Entry.comparingByKey()));
+        for (Map.Entry<Integer, Integer> entry : driverTokens) {
+            for (int name : postings[entry.getKey()]) {
+                if (candidates.size() >= MAX_CANDIDATES) {
+                    break;
+                }
+                candidates.put(name, 0.0);
+            }
+        }
+        if (radius > 0 && !Double.isNaN(lon) && !Double.isNaN(lat)) {
+            Point location = new Point(lon, lat);
+            for (int place : places.withinRadiusIndices(lon, lat, radius)) {
+                double d = Point.distance(location, placePoints.get(place));
+                double bonus = BIAS_WEIGHT * (1 - d / radius);
+                candidates.merge(placeNames[place], -bonus, Math::min);
+            }
+        }
+
+        List<double[]> scored = new ArrayList<>();
+        for (Map.Entry<Integer, Double> candidate : candidates.entrySet()) {
+            int name = candidate.getKey();
+            double score = candidate.getValue();
+            for (Map<Integer, Integer> tokenEdits : matches) {
+                int best = Integer.MAX_VALUE;
+                for (int token : nameTokens[name]) {
+                    Integer edits = tokenEdits.get(token);
+                    if (edits != null && edits < best) {
+                        best = edits;
+                    }
+                }
+                if (best == Integer.MAX_VALUE) {
+                    score = Double.NaN;
+                    break;
+                }
+                score += best;
+            }
+            if (!Double.isNaN(score)) {
+                scored.add(new double[]{score, name});
+            }
+        }
+        scored.sort((a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0])
+                : Double.compare(a[1], b[1]));
+
+        int[] result = new int[Math.min(limit, scored.size())];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (int) scored.get(i)[1];
+        }
+        return result;
+    }
+
+    /* The most edits a query word may be from a token: none for very short
+       words, which would otherwise match almost anything. */
+    private static int maxEdits(String word) {
+        if (word.length() <= 2) {
+            return 0;
+        }
+        return word.length() <= 5 ? 1 : 2;
+    }
+
+    private static String[] tokenize(String s) {
+        String trimmed = s.trim();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split(" +");
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] a = new int[list.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = list.get(i);
+        }
+        return a;
+    }
+}
@@ -0,0 +1,332 @@
+package bearmaps.utils.trie;
+
+import java.util.Arrays;
+
+/**
+ * An immutable ternary search tree over a fixed set of keys that answers
+ * "the best k keys starting with this prefix" without visiting the subtree
+ * below the prefix. The keys are given best first, so a key's index is its
+ * rank; every node stores, in one shared int pool, the indices of the best
+ * keys completing the prefix it spells.
+ *
+ * Nodes live in parallel arrays: split holds each node's character and lo,
+ * eq and hi its children (-1 for none). Keys are inserted in median order of
+ * their sorted sequence so the tree is balanced. A query walks the prefix, at
+ * most a few comparisons per character, and copies at most k ranks.
+ */
+public class TernarySearchTree {
+    private final String[] keys;
+    private final int k;
+
+    private char[] split = new char[64];
+    private int[] lo = new int[64];
+    private int[] eq = new int[64];
+    private int[] hi = new int[64];
+    /* The key ending at each node, or -1. */
+    private int[] keyAt = new int[64];
+    private int size;
+
+    /* The best completions of node n are topPool[topBegin[n]] through
+       topPool[topBegin[n] + topLength[n] - 1], best first. */
+    private int[] topBegin;
+    private int[] topLength;
+    private int[] topPool;
+    private int poolSize;
+
+    /**
+     * Builds a tree over KEYS, which must be distinct and non-empty and are
+     * ranked in the order given, best first. Keeps the best K completions of
+     * every prefix.
+     */
+    public TernarySearchTree(String[] keys, int k) {
+        this.keys = keys.clone();
+        this.k = k;
+        Integer[] sorted = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> keys[a].compareTo(keys[b]));
+        insertBalanced(sorted, 0, sorted.length - 1);
+
+        split = Arrays.copyOf(split, size);
+        lo = Arrays.copyOf(lo, size);
+        eq = Arrays.copyOf(eq, size);
+        hi = Arrays.copyOf(hi, size);
+        keyAt = Arrays.copyOf(keyAt, size);
+        topBegin = new int[size];
+        topLength = new int[size];
+        topPool = new int[Math.max(16, size)];
+        if (size > 0) {
+            /* Node 0 is the root. */
+            collectTop(0);
+        }
+        topPool = Arrays.copyOf(topPool, poolSize);
+    }
+
+    /** Returns the number of keys. */
+    public int numKeys() {
+        return keys.length;
+    }
+
+    /** Returns the key of rank I. */
+    public String key(int i) {
+        return keys[i];
+    }
+
+    /** Returns the number of completions kept per prefix. */
+    public int k() {
+        return k;
+    }
+
+    /** Returns the rank of KEY, or -1 if it is not a key. */
+    public int indexOf(String key) {
+        int n = find(key);
+        return n < 0 ? -1 : keyAt[n];
+    }
+
+    /**
+     * Returns the ranks of the best min(LIMIT, k()) keys that start with PREFIX,
+     * best first. The empty prefix is completed by the best keys overall.
+     */
+    public int[] topCompletions(String prefix, int limit) {
+        limit = Math.min(limit, k);
+        if (prefix.isEmpty()) {
+            int[] best = new int[Math.max(0, Math.min(limit, keys.length))];
+            for (int i = 0; i < best.length; i++) {
+                best[i] = i;
+            }
+            return best;
+        }
+        int n = find(prefix);
+        if (n < 0) {
+            return new int[0];
+        }
+        int length = Math.max(0, Math.min(limit, topLength[n]));
+        return Arrays.copyOfRange(topPool, topBegin[n], topBegin[n] + length);
+    }
+
+    /** Receives the keys found by forEachWithin. */
+    public interface MatchConsumer {
+        /** Accepts the key of rank RANK, found EDITS edits away from the word searched for. */
+        void accept(int rank, int edits);
+    }
+
+    /**
+     * Passes to CONSUMER every key within MAXEDITS edits (insertions,
+     * deletions or substitutions) of WORD, with its edit distance. If PREFIX,
+     * passes instead the best k() keys starting with each string within
+     * MAXEDITS edits of WORD, so a word still being typed matches its
+     * completions. A key may be passed more than once, with different
+     * distances.
+     *
+     * The walk simulates a Levenshtein automaton for WORD over the tree: each
+     * node on a path extends the edit distance table of the string it spells
+     * by one row, and the path is abandoned once every entry of the row
+     * exceeds MAXEDITS, since no longer string can come back within reach.
+     */
+    public void forEachWithin(String word, int maxEdits, boolean prefix,
+                              MatchConsumer consumer) {
+        if (size == 0) {
+            return;
+        }
+        int m = word.length();
+        if (prefix && m <= maxEdits) {
+            /* Deleting all of WORD leaves the empty prefix. */
+            for (int rank : topCompletions("", k)) {
+                consumer.accept(rank, m);
+            }
+        }
+        /* A path deeper than m + maxEdits is more than maxEdits edits away. */
+        int[][] rows = new int[m + maxEdits + 2][m + 1];
+        for (int j = 0; j <= m; j++) {
+            rows[0][j] = j;
+        }
+        walk(0, 1, word, maxEdits, prefix, rows, consumer);
+    }
+
+    /* Visits node N, whose string is DEPTH characters long, and the siblings
+       and descendants reachable within MAXEDITS. ROWS[DEPTH - 1] is the edit
+       distance table row of the string N's parent spells. */
+    private void walk(int n, int depth, String word, int maxEdits, boolean prefix,
+                      int[][] rows, MatchConsumer consumer) {
+        if (n < 0) {
+            return;
+        }
+        /* Siblings spell strings of the same length, so they share the row above. */
+        walk(lo[n], depth, word, maxEdits, prefix, rows, consumer);
+
+        int m = word.length();
+        int[] above = rows[depth - 1];
+        int[] row = rows[depth];
+        char c = split[n];
+        row[0] = depth;
+        int min = depth;
+        for (int j = 1; j <= m; j++) {
+            int substitute = above[j - 1] + (word.charAt(j - 1) == c ? 0 : 1);
+            row[j] = Math.min(substitute, Math.min(above[j], row[j - 1]) + 1);
+            min = Math.min(min, row[j]);
+        }
+
+        boolean descend = min <= maxEdits && depth < rows.length - 1;
+        if (row[m] <= maxEdits) {
+            if (prefix) {
+                for (int i = topBegin[n]; i < topBegin[n] + topLength[n]; i++) {
+                    consumer.accept(topPool[i], row[m]);
+                }
+                /* No entry of a deeper row is below this row's minimum, so
+                   deeper strings are no closer, and every key below them
+                   either was just passed or ranks below all that were. */
+                descend &= row[m] > min;
+            } else if (keyAt[n] >= 0) {
+                consumer.accept(keyAt[n], row[m]);
+            }
+        }
+        if (descend) {
+            walk(eq[n], depth + 1, word, maxEdits, prefix, rows, consumer);
+        }
+        walk(hi[n], depth, word, maxEdits, prefix, rows, consumer);
+    }
+
+    /* Returns the node where the path spelling S ends, or -1. */
+    private int find(String s) {
+        if (s.isEmpty() || size == 0) {
+            return -1;
+        }
+        int n = 0;
+        int i = 0;
+        while (n >= 0) {
+            char c = s.charAt(i);
+            if (c < split[n]) {
+                n = lo[n];
+            } else if (c > split[n]) {
+                n = hi[n];
+            } else if (i == s.length() - 1) {
+                return n;
+            } else {
+                n = eq[n];
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /* Inserts the keys SORTED[FROM..TO], the median of each range first. */
+    private void insertBalanced(Integer[] sorted, int from, int to) {
+        /* An explicit stack of ranges instead of recursion. */
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = from;
+        stack[top++] = to;
+        while (top > 0) {
+            int b = stack[--top];
+            int a = stack[--top];
+            if (a > b) {
+                continue;
+            }
+            int mid = (a + b) >>> 1;
+            insert(keys[sorted[mid]], sorted[mid]);
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = a;
+            stack[top++] = mid - 1;
+            stack[top++] = mid + 1;
+            stack[top++] = b;
+        }
+    }
+
+    /* Adds KEY with rank RANK. */
+    private void insert(String key, int rank) {
+        if (size == 0) {
+            newNode(key.charAt(0));
+        }
+        int n = 0;
+        int i = 0;
+        while (true) {
+            char c = key.charAt(i);
+            int next;
+            if (c < split[n]) {
+                next = lo[n];
+                if (next < 0) {
+                    next = newNode(c);
+                    lo[n] = next;
+                }
+            } else if (c > split[n]) {
+                next = hi[n];
+                if (next < 0) {
+                    next = newNode(c);
+                    hi[n] = next;
+                }
+            } else if (i == key.length() - 1) {
+                keyAt[n] = rank;
+                return;
+            } else {
+                i++;
+                next = eq[n];
+                if (next < 0) {
+                    next = newNode(key.charAt(i));
+                    eq[n] = next;
+                }
+            }
+            n = next;
+        }
+    }
+
+    private int newNode(char c) {
+        if (size == split.length) {
+            int capacity = size * 2;
+            split = Arrays.copyOf(split, capacity);
+            lo = Arrays.copyOf(lo, capacity);
+            eq = Arrays.copyOf(eq, capacity);
+            hi = Arrays.copyOf(hi, capacity);
+            keyAt = Arrays.copyOf(keyAt, capacity);
+        }
+        split[size] = c;
+        lo[size] = -1;
+        eq[size] = -1;
+        hi[size] = -1;
+        keyAt[size] = -1;
+        return size++;
+    }
+
+    /* Fills in the best completions of every node below N and returns the best
+       k ranks in N's whole subtree, lo and hi siblings included. The
+       completions of N are its own key and those of its eq subtree. */
+    private int[] collectTop(int n) {
+        int[] below = eq[n] < 0 ? new int[0] : collectTop(eq[n]);
+        int[] own = keyAt[n] < 0 ? new int[0] : new int[]{keyAt[n]};
+        int[] completions = merge(own, below);
+        if (poolSize + completions.length > topPool.length) {
+            topPool = Arrays.copyOf(topPool, Math.max(topPool.length * 2,
+                    poolSize + completions.length));
+        }
+        topBegin[n] = poolSize;
+        topLength[n] = completions.length;
+        System.arraycopy(completions, 0, topPool, poolSize, completions.length);
+        poolSize += completions.length;
+
+        int[] subtree = completions;
+        if (lo[n] >= 0) {
+            subtree = merge(subtree, collectTop(lo[n]));
+        }
+        if (hi[n] >= 0) {
+            subtree = merge(subtree, collectTop(hi[n]));
+        }
+        return subtree;
+    }
+
+    /* Returns the k smallest ranks of two ascending rank lists, ascending. */
+    private int[] merge(int[] a, int[] b) {
+        int[] out = new int[Math.min(k, a.length + b.length)];
+        int i = 0;
+        int j = 0;
+        for (int o = 0; o < out.length; o++) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                out[o] = a[i++];
+            } else {
+                out[o] = b[j++];
+            }
+        }
+        return out;
+    }
+}